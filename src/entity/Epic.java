@@ -3,14 +3,26 @@ package entity;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public class Epic extends Task {
 
-    protected List<Integer> subtasks = new ArrayList<>();
+    protected IntList subtasks = new IntList();
 
     protected LocalDateTime endTime;
 
+    // счётчики статусов подзадач, не сериализуются и пересчитываются менеджером при загрузке
+    protected transient int newSubtasksCounter;
+    protected transient int inProgressSubtasksCounter;
+    protected transient int doneSubtasksCounter;
+
+    // мультимножества начала и окончания подзадач по минутам от эпохи и их суммарная длительность
+    // для пересчёта времени эпика
+    protected transient MinuteMultiset subtasksStartTimes;
+    protected transient MinuteMultiset subtasksEndTimes;
+    protected transient long subtasksDuration;
+
     public Epic(String name, TaskStatus status, String description, LocalDateTime startTime,
                 long duration) {
         super(name, status, description, startTime, duration);
@@ -22,24 +34,151 @@ public class Epic extends Task {
                 long duration, int id, List<Integer> subtasks) { // конструктор для обновления эпика
         super(name, status, description, startTime, duration, id);
         this.taskType = TaskType.EPIC;
-        this.subtasks = subtasks;
+        this.subtasks = subtasks == null ? new IntList() : new IntList(subtasks);
         this.endTime = getEndTime();
     }
 
+    private Epic(Epic epic, IntList subtasks) {
+        super(epic.name, epic.status, epic.description, epic.startTime, epic.duration, epic.id);
+        this.taskType = TaskType.EPIC;
+        this.subtasks = subtasks;
+        this.endTime = epic.endTime;
+        this.version = epic.version;
+    }
+
+    @Override
+    public Epic snapshotCopy() { // полная копия, O(k)
+        return withSubtasks(subtasks == null ? new IntList() : subtasks);
+    }
+
+    // копия без списка подзадач для ленты изменений и снимков: список там хранится отдельно или не нужен,
+    // а копировать его при каждой записи в эпик - O(k)
+    public Epic rollupCopy() {
+        return new Epic(this, new IntList());
+    }
+
+    public Epic withSubtasks(Collection<Integer> subtaskIds) { // копия с заданным списком подзадач
+        return new Epic(this, new IntList(subtaskIds));
+    }
+
     public void setEndTime(LocalDateTime endTime) {
         this.endTime = endTime;
     }
 
     public void addIdOfSubtasks(Subtask subtask) {
-        subtasks.add(subtask.getId());
+        subtasks.addInt(subtask.getId());
+    }
+
+    public boolean removeIdOfSubtasks(int subtaskId) {
+        return subtasks.removeInt(subtaskId);
     }
 
-    public List<Integer> getSubtasks() {
+    public IntList getSubtasks() {
         return subtasks;
     }
 
     public void setSubtasks(ArrayList<Integer> subtasks) {
-        this.subtasks = subtasks;
+        this.subtasks = new IntList(subtasks);
+    }
+
+    public void increaseStatusCounter(TaskStatus subtaskStatus) {
+        changeStatusCounter(subtaskStatus, 1);
+    }
+
+    public void decreaseStatusCounter(TaskStatus subtaskStatus) {
+        changeStatusCounter(subtaskStatus, -1);
+    }
+
+    public void clearStatusCounters() {
+        newSubtasksCounter = 0;
+        inProgressSubtasksCounter = 0;
+        doneSubtasksCounter = 0;
+    }
+
+    public int getStatusCounter(TaskStatus subtaskStatus) {
+        switch (subtaskStatus) {
+            case NEW:
+                return newSubtasksCounter;
+            case IN_PROGRESS:
+                return inProgressSubtasksCounter;
+            case DONE:
+                return doneSubtasksCounter;
+            default:
+                return 0;
+        }
+    }
+
+    public TaskStatus calculateStatus() { // статус эпика по счётчикам статусов подзадач
+        int subtasksCounter = newSubtasksCounter + inProgressSubtasksCounter + doneSubtasksCounter;
+        if (subtasksCounter == newSubtasksCounter) {
+            return TaskStatus.NEW;
+        } else if (subtasksCounter == doneSubtasksCounter) {
+            return TaskStatus.DONE;
+        } else {
+            return TaskStatus.IN_PROGRESS;
+        }
+    }
+
+    public void addSubtaskTime(Subtask subtask) {
+        subtasksDuration += subtask.getDuration();
+        if (subtask.getStartTime() != null) {
+            startTimes().add(subtask.getStartMinute(), subtask.getStartTime());
+            endTimes().add(subtask.getEndMinute(), subtask.getEndTime());
+        }
+    }
+
+    public void removeSubtaskTime(Subtask subtask) {
+        subtasksDuration -= subtask.getDuration();
+        if (subtask.getStartTime() != null) {
+            startTimes().remove(subtask.getStartMinute(), subtask.getStartTime());
+            endTimes().remove(subtask.getEndMinute(), subtask.getEndTime());
+        }
+    }
+
+    public void clearSubtasksTime() {
+        startTimes().clear();
+        endTimes().clear();
+        subtasksDuration = 0;
+    }
+
+    public LocalDateTime getEarliestSubtaskStartTime() {
+        return startTimes().first();
+    }
+
+    public LocalDateTime getLatestSubtaskEndTime() {
+        return endTimes().last();
+    }
+
+    public long getSubtasksDuration() {
+        return subtasksDuration;
+    }
+
+    private MinuteMultiset startTimes() { // поля transient, после Gson могут быть null
+        if (subtasksStartTimes == null) {
+            subtasksStartTimes = new MinuteMultiset();
+        }
+        return subtasksStartTimes;
+    }
+
+    private MinuteMultiset endTimes() {
+        if (subtasksEndTimes == null) {
+            subtasksEndTimes = new MinuteMultiset();
+        }
+        return subtasksEndTimes;
+    }
+
+    private void changeStatusCounter(TaskStatus subtaskStatus, int delta) {
+        switch (subtaskStatus) {
+            case NEW:
+                newSubtasksCounter += delta;
+                break;
+            case IN_PROGRESS:
+                inProgressSubtasksCounter += delta;
+                break;
+            case DONE:
+                doneSubtasksCounter += delta;
+                break;
+        }
     }
 
     @Override
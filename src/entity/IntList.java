@@ -0,0 +1,228 @@
+package entity;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+// Растущий список id без упаковки в Integer. Для списка уникальных id (подзадачи эпика)
+// при большом размере строится индекс id -> позиция, и removeInt удаляет за O(1)
+// перестановкой последнего элемента на место удалённого.
+public class IntList extends AbstractList<Integer> implements RandomAccess {
+
+    private static final int INDEX_THRESHOLD = 8;
+
+    private int[] elements = new int[4];
+    private int size;
+
+    private int[] indexKeys; // открытая адресация: id -> позиция + 1, 0 - свободная ячейка
+    private int[] indexPositions;
+
+    public IntList() {
+    }
+
+    public IntList(Collection<Integer> ids) {
+        for (int id : ids) {
+            addInt(id);
+        }
+    }
+
+    public void addInt(int id) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        elements[size++] = id;
+        modCount++;
+        if (indexKeys != null) {
+            indexPut(id, size - 1);
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+    }
+
+    public int getInt(int position) {
+        checkPosition(position);
+        return elements[position];
+    }
+
+    public int indexOfInt(int id) {
+        if (indexKeys != null) {
+            return indexGet(id);
+        }
+        for (int i = 0; i < size; i++) {
+            if (elements[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean containsInt(int id) {
+        return indexOfInt(id) >= 0;
+    }
+
+    public boolean removeInt(int id) { // O(1), порядок оставшихся элементов может измениться
+        int position = indexOfInt(id);
+        if (position < 0) {
+            return false;
+        }
+        int last = elements[--size];
+        modCount++;
+        if (indexKeys != null) {
+            indexRemove(id);
+        }
+        if (position != size) {
+            elements[position] = last;
+            if (indexKeys != null) {
+                indexPut(last, position);
+            }
+        }
+        return true;
+    }
+
+    public int[] toIntArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public Integer get(int position) {
+        return getInt(position);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Integer set(int position, Integer id) {
+        int oldId = getInt(position);
+        elements[position] = id;
+        if (indexKeys != null) {
+            indexRemove(oldId);
+            indexPut(id, position);
+        }
+        return oldId;
+    }
+
+    @Override
+    public void add(int position, Integer id) { // вставка в середину сдвигает элементы, O(k)
+        if (position == size) {
+            addInt(id);
+            return;
+        }
+        if (position < 0 || position > size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        System.arraycopy(elements, position, elements, position + 1, size - position);
+        elements[position] = id;
+        size++;
+        modCount++;
+        rebuildIndex();
+    }
+
+    @Override
+    public Integer remove(int position) { // удаление по позиции сохраняет порядок, O(k)
+        int id = getInt(position);
+        System.arraycopy(elements, position + 1, elements, position, size - position - 1);
+        size--;
+        modCount++;
+        rebuildIndex();
+        return id;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return o instanceof Integer ? indexOfInt((Integer) o) : -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+        indexKeys = null;
+        indexPositions = null;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+    }
+
+    private void rebuildIndex() {
+        if (size <= INDEX_THRESHOLD) {
+            indexKeys = null;
+            indexPositions = null;
+            return;
+        }
+        int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+        indexKeys = new int[capacity];
+        indexPositions = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            indexPut(elements[i], i);
+        }
+    }
+
+    private int indexGet(int id) {
+        int mask = indexKeys.length - 1;
+        for (int slot = slot(id, mask); indexPositions[slot] != 0; slot = (slot + 1) & mask) {
+            if (indexKeys[slot] == id) {
+                return indexPositions[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void indexPut(int id, int position) {
+        if (size * 2 > indexKeys.length) {
+            rebuildIndex(); // позиция уже записана в elements, перестроение её учтёт
+            return;
+        }
+        int mask = indexKeys.length - 1;
+        int slot = slot(id, mask);
+        while (indexPositions[slot] != 0 && indexKeys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        indexKeys[slot] = id;
+        indexPositions[slot] = position + 1;
+    }
+
+    private void indexRemove(int id) {
+        int mask = indexKeys.length - 1;
+        int gap = slot(id, mask);
+        while (indexPositions[gap] != 0 && indexKeys[gap] != id) {
+            gap = (gap + 1) & mask;
+        }
+        if (indexPositions[gap] == 0) {
+            return;
+        }
+        int slot = gap;
+        while (true) { // сдвигаем следующие элементы цепочки на освободившееся место
+            slot = (slot + 1) & mask;
+            if (indexPositions[slot] == 0) {
+                break;
+            }
+            int home = slot(indexKeys[slot], mask);
+            boolean canMove = gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot);
+            if (canMove) {
+                indexKeys[gap] = indexKeys[slot];
+                indexPositions[gap] = indexPositions[slot];
+                gap = slot;
+            }
+        }
+        indexPositions[gap] = 0;
+    }
+
+    private static int slot(int id, int mask) {
+        return (id ^ (id >>> 16)) & mask;
+    }
+}
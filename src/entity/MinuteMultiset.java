@@ -0,0 +1,95 @@
+package entity;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Мультимножество моментов времени, упорядоченное по минутам от эпохи: ключ long сравнивается без разбора
+// LocalDateTime. Моменты внутри одной минуты (секунды у LocalDateTime.now()) хранятся в её корзине, поэтому
+// first() и last() возвращают точное время, а не начало минуты.
+final class MinuteMultiset {
+
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+    void add(long minute, LocalDateTime time) {
+        Bucket bucket = buckets.get(minute);
+        if (bucket == null) {
+            buckets.put(minute, new Bucket(time));
+        } else {
+            bucket.add(time);
+        }
+    }
+
+    void remove(long minute, LocalDateTime time) {
+        Bucket bucket = buckets.get(minute);
+        if (bucket != null && bucket.remove(time)) {
+            buckets.remove(minute);
+        }
+    }
+
+    void clear() {
+        buckets.clear();
+    }
+
+    boolean isEmpty() {
+        return buckets.isEmpty();
+    }
+
+    LocalDateTime first() {
+        return buckets.isEmpty() ? null : buckets.firstEntry().getValue().first();
+    }
+
+    LocalDateTime last() {
+        return buckets.isEmpty() ? null : buckets.lastEntry().getValue().last();
+    }
+
+    // обычно все моменты минуты совпадают и хватает одного времени со счётчиком; разные моменты внутри
+    // минуты раскладываются по точному времени
+    private static final class Bucket {
+        private LocalDateTime time;
+        private int count;
+        private TreeMap<LocalDateTime, Integer> mixed;
+
+        Bucket(LocalDateTime time) {
+            this.time = time;
+            this.count = 1;
+        }
+
+        void add(LocalDateTime moment) {
+            if (mixed == null && moment.equals(time)) {
+                count++;
+                return;
+            }
+            if (mixed == null) {
+                mixed = new TreeMap<>();
+                mixed.put(time, count);
+            }
+            mixed.merge(moment, 1, Integer::sum);
+        }
+
+        boolean remove(LocalDateTime moment) { // true - корзина опустела
+            if (mixed == null) {
+                if (moment.equals(time)) {
+                    count--;
+                }
+                return count == 0;
+            }
+            mixed.computeIfPresent(moment, (key, value) -> value == 1 ? null : value - 1);
+            if (mixed.size() == 1) {
+                Map.Entry<LocalDateTime, Integer> only = mixed.firstEntry();
+                time = only.getKey();
+                count = only.getValue();
+                mixed = null;
+            }
+            return mixed == null ? count == 0 : mixed.isEmpty();
+        }
+
+        LocalDateTime first() {
+            return mixed == null ? time : mixed.firstKey();
+        }
+
+        LocalDateTime last() {
+            return mixed == null ? time : mixed.lastKey();
+        }
+    }
+}
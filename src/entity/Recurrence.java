@@ -0,0 +1,35 @@
+package entity;
+
+import java.time.LocalDateTime;
+
+// Правило повторения задачи: повторения начинаются через каждые interval минут от начала задачи,
+// пока начало раньше until (null - без окончания). Повторения не хранятся, менеджер выводит их из правила.
+public class Recurrence {
+
+    public static final long DAY = 24 * 60;
+    public static final long WEEK = 7 * DAY;
+
+    private final long interval;
+    private final LocalDateTime until;
+
+    public Recurrence(long interval, LocalDateTime until) {
+        this.interval = interval;
+        this.until = until;
+    }
+
+    public static Recurrence daily(LocalDateTime until) {
+        return new Recurrence(DAY, until);
+    }
+
+    public static Recurrence weekly(LocalDateTime until) {
+        return new Recurrence(WEEK, until);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public LocalDateTime getUntil() {
+        return until;
+    }
+}
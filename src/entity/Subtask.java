@@ -22,6 +22,14 @@ public class Subtask extends Task {
         this.epicID = epicID;
     }
 
+    @Override
+    public Subtask snapshotCopy() {
+        Subtask copy = new Subtask(id, name, status, description, startTime, duration, epicID);
+        copy.recurrence = recurrence;
+        copy.version = version;
+        return copy;
+    }
+
     public int getEpicID() {
         return epicID;
     }
@@ -1,6 +1,7 @@
 package entity;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
 public class Task {
@@ -12,6 +13,15 @@ public class Task {
     protected TaskType taskType;
     protected long duration;
     protected LocalDateTime startTime;
+    protected Recurrence recurrence; // null - задача не повторяется
+    protected long version; // растёт с каждым обновлением, выдаётся менеджером
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    // кэш времени для сравнений без LocalDateTime: минуты от эпохи (UTC) и объект окончания одним неизменяемым
+    // объектом, поэтому поток, читающий задачу без блокировки, видит его целиком. Кэш помнит, для каких начала
+    // и длительности посчитан: Gson заполняет поля в обход сеттеров, а устаревший кэш просто пересчитывается
+    private transient volatile Timing timing;
 
     public Task(String name, TaskStatus status, String description, LocalDateTime startTime,
                 long duration) {
@@ -36,6 +46,7 @@ public class Task {
 
     public void setDuration(long duration) {
         this.duration = duration;
+        timing = null;
     }
 
     public LocalDateTime getStartTime() {
@@ -44,10 +55,56 @@ public class Task {
 
     public void setStartTime(LocalDateTime startTime) {
         this.startTime = startTime;
+        timing = null;
+    }
+
+    public LocalDateTime getEndTime() { // один объект до смены времени, а не новый на каждый вызов; null без начала
+        return timing().endTime;
+    }
+
+    // начало в минутах от эпохи с округлением вниз, NO_TIME без времени начала. Минуты совпадают
+    // и у моментов внутри одной минуты, поэтому при равенстве нужно сравнить сами LocalDateTime
+    public long getStartMinute() {
+        return timing().startMinute;
+    }
+
+    public long getEndMinute() {
+        long start = getStartMinute();
+        return start == NO_TIME ? NO_TIME : start + duration;
+    }
+
+    private Timing timing() {
+        LocalDateTime start = startTime;
+        long minutes = duration;
+        Timing current = timing;
+        if (current == null || current.startTime != start || current.duration != minutes) {
+            current = new Timing(start, minutes);
+            timing = current;
+        }
+        return current;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public Task snapshotCopy() { // копия для снимка менеджера: вызывающий может изменить задачу на месте
+        Task copy = new Task(name, status, description, startTime, duration, id);
+        copy.recurrence = recurrence;
+        copy.version = version;
+        return copy;
+    }
+
+    public Recurrence getRecurrence() {
+        return recurrence;
     }
 
-    public LocalDateTime getEndTime() {
-        return this.startTime.plusMinutes(this.duration);
+    public void setRecurrence(Recurrence recurrence) {
+        this.recurrence = recurrence;
     }
 
     public TaskType getTaskType() {
@@ -101,8 +158,27 @@ public class Task {
     }
 
     public String getDescriptionTask() {
-        return getId() + "," + TaskType.TASK + "," + getName() + "," + getStatus() + ","
+        String line = getId() + "," + TaskType.TASK + "," + getName() + "," + getStatus() + ","
                 + getDescription() + "," + getStartTime().format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm")) +
                 "," + getDuration();
+        if (recurrence != null) { // колонка эпика пустая, за ней интервал повторения и его окончание
+            line += ",," + recurrence.getInterval() + "," + (recurrence.getUntil() == null ? ""
+                    : recurrence.getUntil().format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm")));
+        }
+        return line;
+    }
+
+    private static final class Timing {
+        final LocalDateTime startTime;
+        final long duration;
+        final long startMinute;
+        final LocalDateTime endTime;
+
+        Timing(LocalDateTime startTime, long duration) {
+            this.startTime = startTime;
+            this.duration = duration;
+            startMinute = startTime == null ? NO_TIME : Math.floorDiv(startTime.toEpochSecond(ZoneOffset.UTC), 60);
+            endTime = startTime == null ? null : startTime.plusMinutes(duration);
+        }
     }
 }
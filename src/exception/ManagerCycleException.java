@@ -0,0 +1,8 @@
+package exception;
+
+public class ManagerCycleException extends RuntimeException {
+
+    public ManagerCycleException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package exception;
+
+public class ManagerVersionConflictException extends RuntimeException {
+
+    private final long currentVersion;
+
+    public ManagerVersionConflictException(String message, long currentVersion) {
+        super(message);
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
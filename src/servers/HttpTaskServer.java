@@ -2,151 +2,379 @@ package servers;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 import entity.Epic;
 import entity.Subtask;
 import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+import exception.ManagerIntersectionsException;
+import exception.ManagerVersionConflictException;
 import servers.adapters.FileAdapter;
 import servers.adapters.HistoryManagerAdapter;
 import servers.adapters.LocalDateTimeAdapter;
+import servers.adapters.PooledStringAdapter;
 import services.HistoryManager;
+import services.HttpTaskManager;
+import services.InMemoryTaskManager;
 import services.Managers;
+import services.StringPool;
 import services.TaskManager;
+import services.TombstoneCompactor;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class HttpTaskServer {
 
     private static final int PORT = 8080;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+    private static final int REQUEST_THREADS = 8;
+    private static final String BODY = "body";
+    private static final String STATUS = "status";
     private final HttpServer server;
     private final TaskManager manager = Managers.getDefault("http://localhost:8078", "key");
+    // запросы обслуживает пул, а удалённые эпики вычищает свой поток TombstoneCompactor; менеджер
+    // не потокобезопасен, поэтому и запрос, и партия очистки работают с ним под его монитором
+    private final HttpTaskManager storage; // null, если менеджер не сохраняет состояние в KVServer
+    private final ExecutorService executor = Executors.newFixedThreadPool(REQUEST_THREADS);
+    private final TombstoneCompactor compactor;
     public static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
             .registerTypeAdapter(File.class, new FileAdapter())
             .registerTypeAdapter(HistoryManager.class, new HistoryManagerAdapter())
+            .registerTypeAdapter(String.class, new PooledStringAdapter(StringPool.shared()))
             .serializeNulls().create();
 
     public HttpTaskServer() throws IOException {
         server = HttpServer.create(new InetSocketAddress(PORT), 0);
         server.createContext("/tasks", this::handle);
+        server.setExecutor(executor);
+        storage = manager instanceof HttpTaskManager ? (HttpTaskManager) manager : null;
+        if (storage != null) {
+            storage.setDeferredFlush(true);
+        }
+        compactor = manager instanceof InMemoryTaskManager
+                ? new TombstoneCompactor((InMemoryTaskManager) manager,
+                TombstoneCompactor.DEFAULT_BATCH_SIZE, TombstoneCompactor.DEFAULT_INTERVAL_MILLIS)
+                : null;
     }
 
+    // Тело запроса читается, а ответ и состояние для KVServer отправляются вне монитора менеджера:
+    // под ним идут только вызовы менеджера и сериализация результата, поэтому запросы пула не ждут чужой сети
     public void handle(HttpExchange exchange) throws IOException {
+        exchange.setAttribute(BODY, new String(exchange.getRequestBody().readAllBytes(), UTF_8));
         String response;
+        synchronized (manager) {
+            response = dispatch(exchange);
+        }
+        if (storage != null) {
+            storage.flush();
+        }
+        if (response != null) {
+            exchange.sendResponseHeaders((Integer) exchange.getAttribute(STATUS), 0);
+            sendText(exchange, response);
+        }
+        exchange.close();
+    }
+
+    private String dispatch(HttpExchange exchange) {
         String path = exchange.getRequestURI().getPath();
         String param = exchange.getRequestURI().getQuery();
         switch (path) {
             case "/tasks/task":
-                handleTask(exchange);
-                break;
+                return handleTask(exchange);
             case "/tasks/subtask":
-                handleSubtask(exchange);
-                break;
+                return handleSubtask(exchange);
             case "/tasks/epic":
-                handleEpic(exchange);
-                break;
+                return handleEpic(exchange);
             case "/tasks/subtask/epic":
                 int id = Integer.parseInt(param.split("=")[1]);
                 List<Subtask> subtasks = manager.subtaskList(id);
                 if (subtasks == null) {
-                    exchange.sendResponseHeaders(404, 0);
-                    response = "Epic задача не найдена.";
-                } else {
-                    response = GSON.toJson(subtasks);
-                    exchange.sendResponseHeaders(200, 0);
+                    status(exchange, 404);
+                    return "Epic задача не найдена.";
                 }
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                status(exchange, 200);
+                return GSON.toJson(subtasks);
+            case "/tasks/batch":
+                return handleBatchPost(exchange);
+            case "/tasks/search":
+                return handleSearchGet(exchange);
+            case "/tasks/slots":
+                return handleSlotsGet(exchange);
+            case "/tasks/stats": // сводка для частого опроса вместо всех списков
+                status(exchange, 200);
+                return GSON.toJson(manager.getStats());
             case "/tasks/history":
-                response = GSON.toJson(manager.getHistory());
-                exchange.sendResponseHeaders(200, 0);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                status(exchange, 200);
+                return GSON.toJson(manager.getHistory());
             case "/tasks":
-                response = GSON.toJson(manager.getPrioritizedTasks());
-                exchange.sendResponseHeaders(200, 0);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handlePrioritizedGet(exchange);
+            default:
+                return null;
         }
     }
 
-    private void handleTask(HttpExchange exchange) throws IOException {
-        String method = exchange.getRequestMethod();
-        String response;
-        switch (method) {
+    private String handlePrioritizedGet(HttpExchange h) {
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        String from = params.get("from");
+        String to = params.get("to");
+        if (from == null && to == null) {
+            status(h, 200);
+            return GSON.toJson(manager.getPrioritizedTasks());
+        }
+        LocalDateTime fromTime;
+        LocalDateTime toTime;
+        try {
+            fromTime = from == null ? LocalDateTime.MIN : LocalDateTime.parse(from);
+            toTime = to == null ? LocalDateTime.MAX : LocalDateTime.parse(to);
+        } catch (DateTimeParseException exception) {
+            status(h, 400);
+            return "Параметры from и to должны быть в формате yyyy-MM-ddTHH:mm.";
+        }
+        List<Task> tasks;
+        try {
+            tasks = manager.getPrioritizedTasks(fromTime, toTime);
+        } catch (IllegalArgumentException exception) { // слишком много повторений в окне
+            status(h, 400);
+            return exception.getMessage();
+        }
+        status(h, 200);
+        return GSON.toJson(tasks);
+    }
+
+    // ?limit=N&after=id: страница по возрастанию id, курсор следующей страницы - id последнего элемента
+    private String handlePageGet(HttpExchange h, Map<String, String> params,
+                                 BiFunction<Integer, Integer, List<? extends Task>> pages) {
+        int after;
+        int limit;
+        try {
+            after = Integer.parseInt(params.getOrDefault("after", "0"));
+            limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_SIZE)));
+        } catch (NumberFormatException exception) {
+            status(h, 400);
+            return "Параметры limit и after должны быть числами.";
+        }
+        if (limit <= 0) {
+            status(h, 400);
+            return "Параметр limit должен быть положительным.";
+        }
+        List<? extends Task> page = pages.apply(after, limit);
+        status(h, 200);
+        return GSON.toJson(page);
+    }
+
+    // ?status=DONE - задачи с этим статусом, ?status=DONE&count - только их количество
+    private String handleStatusGet(HttpExchange h, Map<String, String> params, TaskType type) {
+        TaskStatus status;
+        try {
+            status = TaskStatus.valueOf(params.get("status"));
+        } catch (IllegalArgumentException exception) {
+            status(h, 400);
+            return "Неизвестный статус: " + params.get("status");
+        }
+        status(h, 200);
+        if (params.containsKey("count")) {
+            return GSON.toJson(manager.countByStatus(status, type));
+        }
+        return GSON.toJson(manager.getByStatus(status, type));
+    }
+
+    // GET /tasks/search?q=слова[&limit=K]: задачи, эпики и подзадачи, содержащие все слова запроса
+    private String handleSearchGet(HttpExchange h) {
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        String query = params.get("q");
+        if (query == null || query.isBlank()) {
+            status(h, 400);
+            return "Нужен параметр q.";
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_SEARCH_RESULTS)));
+        } catch (NumberFormatException exception) {
+            status(h, 400);
+            return "Параметр limit должен быть числом.";
+        }
+        status(h, 200);
+        return GSON.toJson(manager.search(query, limit));
+    }
+
+    // Условное обновление: If-Match: "N" (или *) либо поле version в теле. При чужой версии - 412, если условие
+    // пришло в заголовке, и 409, если в теле; в ответе - ETag с текущей версией
+    private <T extends Task> String handleUpdate(HttpExchange h, T task, VersionedUpdate<T> update,
+                                                 String updated) {
+        String ifMatch = h.getRequestHeaders().getFirst("If-Match");
+        long expectedVersion = task.getVersion() > 0 ? task.getVersion() : TaskManager.ANY_VERSION;
+        if (ifMatch != null) {
+            try {
+                expectedVersion = ifMatch.trim().equals("*") ? TaskManager.ANY_VERSION
+                        : Long.parseLong(ifMatch.trim().replaceFirst("^W/", "").replace("\"", ""));
+            } catch (NumberFormatException exception) {
+                status(h, 400);
+                return "Заголовок If-Match должен содержать версию задачи.";
+            }
+        }
+        long version;
+        try {
+            version = update.apply(task, expectedVersion);
+        } catch (ManagerVersionConflictException exception) {
+            h.getResponseHeaders().set("ETag", etag(exception.getCurrentVersion()));
+            status(h, ifMatch != null ? 412 : 409);
+            return exception.getMessage();
+        }
+        if (version >= 0) {
+            h.getResponseHeaders().set("ETag", etag(version));
+        }
+        status(h, 201);
+        return updated;
+    }
+
+    private static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    private interface VersionedUpdate<T extends Task> {
+        long apply(T task, long expectedVersion);
+    }
+
+    // POST /tasks/batch: массив задач, эпиков и подзадач, тип каждой - по полю taskType
+    private String handleBatchPost(HttpExchange h) {
+        if (!"POST".equals(h.getRequestMethod())) {
+            status(h, 405);
+            return "Пакет задач принимается только методом POST.";
+        }
+        String body = readText(h);
+        if (body.isBlank()) {
+            status(h, 404);
+            return "Пакет задач отсутствует в теле запроса.";
+        }
+        List<Task> batch = new ArrayList<>();
+        try {
+            for (JsonElement element : JsonParser.parseString(body).getAsJsonArray()) {
+                JsonElement taskType = element.getAsJsonObject().get("taskType");
+                Class<? extends Task> type = Task.class;
+                if (taskType != null && !taskType.isJsonNull()) {
+                    switch (TaskType.valueOf(taskType.getAsString())) {
+                        case EPIC:
+                            type = Epic.class;
+                            break;
+                        case SUBTASK:
+                            type = Subtask.class;
+                            break;
+                    }
+                }
+                batch.add(GSON.fromJson(element, type));
+            }
+        } catch (JsonParseException | IllegalStateException | IllegalArgumentException exception) {
+            status(h, 400);
+            return "Пакет задач не разобран: " + exception.getMessage();
+        }
+        try {
+            List<Integer> ids = manager.saveAll(batch);
+            status(h, 201);
+            return GSON.toJson(ids);
+        } catch (ManagerIntersectionsException | IllegalArgumentException exception) { // наложение или нет эпика
+            status(h, 400);
+            return "Пакет задач не добавлен: " + exception.getMessage();
+        }
+    }
+
+    // GET /tasks/slots?after=...&duration=N[&horizon=...&count=K]: без horizon - одно ближайшее окно
+    private String handleSlotsGet(HttpExchange h) {
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        if (!params.containsKey("after") || !params.containsKey("duration")) {
+            status(h, 400);
+            return "Нужны параметры after (yyyy-MM-ddTHH:mm) и duration (минуты).";
+        }
+        try {
+            LocalDateTime after = LocalDateTime.parse(params.get("after"));
+            long duration = Long.parseLong(params.get("duration"));
+            if (duration <= 0) {
+                status(h, 400);
+                return "Параметр duration должен быть положительным.";
+            }
+            List<LocalDateTime> slots;
+            if (params.containsKey("horizon")) {
+                LocalDateTime horizon = LocalDateTime.parse(params.get("horizon"));
+                int count = params.containsKey("count") ? Integer.parseInt(params.get("count")) : 1;
+                slots = manager.findFreeSlots(after, duration, horizon, count);
+            } else {
+                slots = List.of(manager.findFreeSlot(after, duration));
+            }
+            status(h, 200);
+            return GSON.toJson(slots);
+        } catch (DateTimeParseException | NumberFormatException exception) {
+            status(h, 400);
+            return "Неверный формат параметров: " + exception.getMessage();
+        }
+    }
+
+    private String handleTask(HttpExchange exchange) {
+        switch (exchange.getRequestMethod()) {
             case "GET":
-                response = handleTaskGet(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleTaskGet(exchange);
             case "POST":
-                response = handleTaskPost(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleTaskPost(exchange);
             case "DELETE":
-                response = handleTaskDelete(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleTaskDelete(exchange);
+            default:
+                return null;
         }
     }
 
-    private void handleEpic(HttpExchange exchange) throws IOException {
-        String method = exchange.getRequestMethod();
-        String response;
-        switch (method) {
+    private String handleEpic(HttpExchange exchange) {
+        switch (exchange.getRequestMethod()) {
             case "GET":
-                response = handleEpicGet(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleEpicGet(exchange);
             case "POST":
-                response = handleEpicPost(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleEpicPost(exchange);
             case "DELETE":
-                response = handleEpicDelete(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleEpicDelete(exchange);
+            default:
+                return null;
         }
     }
-    private void handleSubtask(HttpExchange exchange) throws IOException {
-        String method = exchange.getRequestMethod();
-        String response;
-        switch (method) {
+    private String handleSubtask(HttpExchange exchange) {
+        switch (exchange.getRequestMethod()) {
             case "GET":
-                response = handleSubtaskGet(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleSubtaskGet(exchange);
             case "POST":
-                response = handleSubtaskPost(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleSubtaskPost(exchange);
             case "DELETE":
-                response = handleSubtaskDelete(exchange);
-                sendText(exchange, response);
-                exchange.close();
-                break;
+                return handleSubtaskDelete(exchange);
+            default:
+                return null;
         }
     }
 
-    private String handleTaskGet(HttpExchange h) throws IOException {
+    private String handleTaskGet(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        if (params.containsKey("limit") || params.containsKey("after")) {
+            return handlePageGet(h, params, manager::getTasksPage);
+        }
+        if (params.containsKey("status")) {
+            return handleStatusGet(h, params, TaskType.TASK);
+        }
         String response;
         int id = 0;
         if (param != null) {
@@ -154,21 +382,22 @@ public class HttpTaskServer {
         }
         if (param == null) {
             response = GSON.toJson(manager.getTasksList());
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
         } else {
             Task task = manager.getTaskByIdNumber(id);
             if (task == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Task задача не найдена.";
             } else {
                 response = GSON.toJson(task);
-                h.sendResponseHeaders(200, 0);
+                h.getResponseHeaders().set("ETag", etag(task.getVersion()));
+                status(h, 200);
             }
         }
         return response;
     }
 
-    private String handleTaskPost(HttpExchange h) throws IOException {
+    private String handleTaskPost(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -177,35 +406,28 @@ public class HttpTaskServer {
         }
         String body = readText(h);
         if (body.isBlank()) {
-            h.sendResponseHeaders(404, 0);
+            status(h, 404);
             response = "Task задача отсутствует в теле запроса.";
         } else {
             Task task = GSON.fromJson(body, Task.class);
             if (param == null) {
                 int result = manager.saveTask(task);
                 if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
+                    status(h, 400);
                     response = "Task задача не добавлена.";
                 } else {
-                    h.sendResponseHeaders(201, 0);
+                    status(h, 201);
                     response = "Task задача добавлена.";
                 }
             } else {
                 task.setId(id);
-                int result = manager.updateTask(task);
-                if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
-                    response = "Не удалось обновить Task задачу.";
-                } else {
-                    h.sendResponseHeaders(201, 0);
-                    response = "Task задача " + id + " обновлена.";
-                }
+                response = handleUpdate(h, task, manager::updateTask, "Task задача " + id + " обновлена.");
             }
         }
         return response;
     }
 
-    private String handleTaskDelete(HttpExchange h) throws IOException {
+    private String handleTaskDelete(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -214,23 +436,30 @@ public class HttpTaskServer {
         }
         if (param == null) {
             manager.deleteTasks();
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
             response = "Все Task задачи удалены.";
         } else {
             Task task = manager.deleteTaskById(id);
             if (task == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Task задача не найдена.";
             } else {
-                h.sendResponseHeaders(200, 0);
+                status(h, 200);
                 response = "Задача " + id + " удалена.";
             }
         }
         return response;
     }
 
-    private String handleEpicGet(HttpExchange h) throws IOException {
+    private String handleEpicGet(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        if (params.containsKey("limit") || params.containsKey("after")) {
+            return handlePageGet(h, params, manager::getEpicsPage);
+        }
+        if (params.containsKey("status")) {
+            return handleStatusGet(h, params, TaskType.EPIC);
+        }
         String response;
         int id = 0;
         if (param != null) {
@@ -238,21 +467,22 @@ public class HttpTaskServer {
         }
         if (param == null) {
             response = GSON.toJson(manager.getEpicsList());
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
         } else {
             Epic epic = manager.getEpicTaskByIdNumber(id);
             if (epic == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Epic задача не найдена.";
             } else {
                 response = GSON.toJson(epic);
-                h.sendResponseHeaders(200, 0);
+                h.getResponseHeaders().set("ETag", etag(epic.getVersion()));
+                status(h, 200);
             }
         }
         return response;
     }
 
-    private String handleEpicPost(HttpExchange h) throws IOException {
+    private String handleEpicPost(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -261,35 +491,28 @@ public class HttpTaskServer {
         }
         String body = readText(h);
         if (body.isBlank()) {
-            h.sendResponseHeaders(404, 0);
+            status(h, 404);
             response = "Epic задача отсутствует в теле запроса.";
         } else {
             Epic epic = GSON.fromJson(body, Epic.class);
             if (param == null) {
                 int result = manager.saveEpic(epic);
                 if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
+                    status(h, 400);
                     response = "Epic задача не добавлена.";
                 } else {
-                    h.sendResponseHeaders(201, 0);
+                    status(h, 201);
                     response = "Epic задача добавлена.";
                 }
             } else {
                 epic.setId(id);
-                int result = manager.updateEpic(epic);
-                if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
-                    response = "Не удалось обновить Epic задачу.";
-                } else {
-                    h.sendResponseHeaders(201, 0);
-                    response = "Epic задача " + id + " обновлена.";
-                }
+                response = handleUpdate(h, epic, manager::updateEpic, "Epic задача " + id + " обновлена.");
             }
         }
         return response;
     }
 
-    private String handleEpicDelete(HttpExchange h) throws IOException {
+    private String handleEpicDelete(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -298,23 +521,30 @@ public class HttpTaskServer {
         }
         if (param == null) {
             manager.deleteEpics();
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
             response = "Все Epic задачи удалены.";
         } else {
             Epic epic = manager.deleteEpicById(id);
             if (epic == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Epic задача не найдена.";
             } else {
-                h.sendResponseHeaders(200, 0);
+                status(h, 200);
                 response = "Epic задача " + id + " удалена.";
             }
         }
         return response;
     }
 
-    private String handleSubtaskGet(HttpExchange h) throws IOException {
+    private String handleSubtaskGet(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
+        Map<String, String> params = queryParams(h.getRequestURI().getRawQuery());
+        if (params.containsKey("limit") || params.containsKey("after")) {
+            return handlePageGet(h, params, manager::getSubtasksPage);
+        }
+        if (params.containsKey("status")) {
+            return handleStatusGet(h, params, TaskType.SUBTASK);
+        }
         String response;
         int id = 0;
         if (param != null) {
@@ -322,21 +552,22 @@ public class HttpTaskServer {
         }
         if (param == null) {
             response = GSON.toJson(manager.getSubtaskList());
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
         } else {
             Subtask subtask = manager.getSubTaskByIdNumber(id);
             if (subtask == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Subtask задача не найдена.";
             } else {
                 response = GSON.toJson(subtask);
-                h.sendResponseHeaders(200, 0);
+                h.getResponseHeaders().set("ETag", etag(subtask.getVersion()));
+                status(h, 200);
             }
         }
         return response;
     }
 
-    private String handleSubtaskPost(HttpExchange h) throws IOException {
+    private String handleSubtaskPost(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -345,34 +576,27 @@ public class HttpTaskServer {
         }
         String body = readText(h);
         if (body.isBlank()) {
-            h.sendResponseHeaders(404, 0);
+            status(h, 404);
             response = "Subtask задача отсутствует в теле запроса.";
         } else {
             Subtask subtask = GSON.fromJson(body, Subtask.class);
             if (param == null) {
                 int result = manager.saveSubtask(subtask);
                 if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
+                    status(h, 400);
                     response = "Subtask задача не добавлена.";
                 } else {
-                    h.sendResponseHeaders(201, 0);
+                    status(h, 201);
                     response = "Subtask задача добавлена.";
                 }
             } else {
                 subtask.setId(id);
-                int result = manager.updateSubtask(subtask);
-                if (result < 0) {
-                    h.sendResponseHeaders(400, 0);
-                    response = "Не удалось обновить Subtask задачу.";
-                } else {
-                    h.sendResponseHeaders(201, 0);
-                    response = "Subtask задача " + id + " обновлена.";
-                }
+                response = handleUpdate(h, subtask, manager::updateSubtask, "Subtask задача " + id + " обновлена.");
             }
         }
         return response;
     }
-    private String handleSubtaskDelete(HttpExchange h) throws IOException {
+    private String handleSubtaskDelete(HttpExchange h) {
         String param = h.getRequestURI().getQuery();
         String response;
         int id = 0;
@@ -381,15 +605,15 @@ public class HttpTaskServer {
         }
         if (param == null) {
             manager.deleteSubtasks();
-            h.sendResponseHeaders(200, 0);
+            status(h, 200);
             response = "Все Subtask задачи удалены.";
         } else {
             Subtask subtask = manager.deleteSubtaskById(id);
             if (subtask == null) {
-                h.sendResponseHeaders(404, 0);
+                status(h, 404);
                 response = "Subtask задача не найдена.";
             } else {
-                h.sendResponseHeaders(200, 0);
+                status(h, 200);
                 response = "Subtask задача " + id + " удалена.";
             }
         }
@@ -400,14 +624,42 @@ public class HttpTaskServer {
         System.out.println("Запускаем сервер на порту " + PORT);
         System.out.println("Ссылка в браузере http://localhost:" + PORT + "/");
         server.start();
+        if (compactor != null) {
+            compactor.start();
+        }
     }
 
     public void stop() {
         server.stop(0);
+        if (compactor != null) {
+            compactor.close();
+        }
+        executor.shutdown();
     }
 
-    private String readText(HttpExchange h) throws IOException {
-        return new String(h.getRequestBody().readAllBytes(), UTF_8);
+    private String readText(HttpExchange h) { // тело прочитано в handle() до монитора
+        return (String) h.getAttribute(BODY);
+    }
+
+    private static void status(HttpExchange h, int code) { // код уходит клиенту вместе с ответом в handle()
+        h.setAttribute(STATUS, code);
+    }
+
+    private static Map<String, String> queryParams(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), UTF_8));
+            } else if (!pair.isEmpty()) { // флаг без значения, например count
+                params.put(URLDecoder.decode(pair, UTF_8), "");
+            }
+        }
+        return params;
     }
 
     private void sendText(HttpExchange h, String text) throws IOException {
@@ -19,6 +19,8 @@ public class KVServer {
     private final String apiToken;
     private final HttpServer server;
     private final Map<String, String> data = new HashMap<>();
+    // счётчики /lease отдельно от data: /save/{key} не может их перезаписать и откатить нумерацию
+    private final Map<String, Long> leases = new HashMap<>();
 
     public KVServer() throws IOException {
         apiToken = newApiToken();
@@ -26,6 +28,58 @@ public class KVServer {
         server.createContext("/register", this::register);
         server.createContext("/save", this::save);
         server.createContext("/load", this::load);
+        server.createContext("/lease", this::lease);
+    }
+
+    // аренда count id подряд: счётчик ключа только растёт, поэтому блоки не повторяются
+    private void lease(HttpExchange h) throws IOException {
+        try {
+            System.out.println("\n/lease");
+            if (!hasAuth(h)) {
+                System.out.println("Запрос не авторизован, нужен параметр в query API_TOKEN со значением апи-ключа");
+                h.sendResponseHeaders(403, 0);
+                return;
+            }
+            if ("POST".equals(h.getRequestMethod())) {
+                String key = h.getRequestURI().getPath().substring("/lease/".length());
+                int count = leaseCount(h.getRequestURI().getRawQuery());
+                if (key.isEmpty() || count <= 0) {
+                    System.out.println("Нужны ключ в пути /lease/{key} и положительный параметр count");
+                    h.sendResponseHeaders(400, 0);
+                    return;
+                }
+                long first;
+                synchronized (leases) {
+                    long last = leases.getOrDefault(key, 0L);
+                    if (last + count > Integer.MAX_VALUE) {
+                        System.out.println("Для ключа " + key + " закончились свободные id");
+                        h.sendResponseHeaders(409, 0);
+                        return;
+                    }
+                    first = last + 1;
+                    leases.put(key, last + count);
+                }
+                sendText(h, String.valueOf(first));
+            } else {
+                System.out.println("/lease ждёт POST-запрос, а получил: " + h.getRequestMethod());
+                h.sendResponseHeaders(405, 0);
+            }
+        } finally {
+            h.close();
+        }
+    }
+
+    private static int leaseCount(String rawQuery) {
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith("count=")) {
+                try {
+                    return Integer.parseInt(parameter.substring("count=".length()));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
     }
 
     private void load(HttpExchange h) {
@@ -13,6 +13,7 @@ public class KVTaskClient {
     private static final String URN_REGISTER = "/register";
     private static final String URN_SAVE = "/save/";
     private static final String URN_LOAD = "/load/";
+    private static final String URN_LEASE = "/lease/";
     private final String API_TOKEN;
     private final HttpClient client = HttpClient.newHttpClient();
     private final HttpResponse.BodyHandler<String> handler = HttpResponse.BodyHandlers.ofString();
@@ -68,4 +69,21 @@ public class KVTaskClient {
         }
         return response.body();
     }
+
+    // первый из count id, выданных только этому клиенту
+    public int lease(String key, int count) {
+        URI uri = URI.create(url + URN_LEASE + key + "?API_TOKEN=" + API_TOKEN + "&count=" + count);
+        HttpRequest request = HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.noBody())
+                .uri(uri).version(HttpClient.Version.HTTP_1_1)
+                .header("Accept", "application/json").build();
+        try {
+            response = client.send(request, handler);
+            if (response.statusCode() != 200) {
+                throw new TaskClientException();
+            }
+            return Integer.parseInt(response.body());
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            throw new TaskClientException();
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package servers.adapters;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import services.StringPool;
+
+import java.io.IOException;
+
+// все строки при разборе JSON проходят через пул: названия и описания задач не копируются на каждую задачу
+public class PooledStringAdapter extends TypeAdapter<String> {
+
+    private final StringPool pool;
+
+    public PooledStringAdapter(StringPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(final JsonWriter jsonWriter, final String string) throws IOException {
+        if (string == null) {
+            jsonWriter.nullValue();
+        } else {
+            jsonWriter.value(string);
+        }
+    }
+
+    @Override
+    public String read(final JsonReader jsonReader) throws IOException {
+        JsonToken token = jsonReader.peek();
+        if (token == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return null;
+        } else if (token == JsonToken.BOOLEAN) { // как встроенный адаптер Gson
+            return Boolean.toString(jsonReader.nextBoolean());
+        } else {
+            return pool.canonical(jsonReader.nextString());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Выдача id блоками, арендованными у источника (счётчика в KVServer), поэтому несколько менеджеров на одном
+// хранилище не выдают одинаковых id, а перезапуск - это аренда следующего блока без просмотра сохранённых задач.
+// Текущий блок упакован в один AtomicLong: старшие 32 бита - конец блока (не включая), младшие - следующий id.
+// Внутри блока id выдаются compareAndSet без блокировок: новое состояние пишется, только если count помещается
+// в блок, поэтому младшая половина не переносится в старшую. Блокируется только аренда нового блока.
+public class BlockIdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final long ID_LIMIT = Integer.MAX_VALUE + 1L; // конец блока: id не больше Integer.MAX_VALUE
+
+    public interface Source {
+        int lease(int count); // первый из count подряд идущих id, которые больше никому не выдаются
+    }
+
+    private final Source source;
+    private final int blockSize;
+    private final AtomicLong block = new AtomicLong(); // пустой блок: аренда при первом обращении
+
+    public BlockIdAllocator(Source source, int blockSize) {
+        this.source = source;
+        this.blockSize = blockSize;
+    }
+
+    // все id после lastId одним блоком, без внешнего источника: для менеджера, который один владеет своими id
+    public static BlockIdAllocator startingAfter(int lastId) {
+        BlockIdAllocator allocator = new BlockIdAllocator(count -> {
+            throw new IllegalStateException("Закончились свободные id");
+        }, 0);
+        allocator.block.set(pack(lastId + 1L, ID_LIMIT));
+        return allocator;
+    }
+
+    // последний выданный id текущего блока: с него startingAfter продолжает нумерацию после перезапуска
+    public int lastId() {
+        return (int) (next(block.get()) - 1);
+    }
+
+    public int next() {
+        return next(1);
+    }
+
+    // первый из count подряд идущих id; если в блоке не хватает места, его остаток пропускается
+    public int next(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Количество id должно быть положительным: " + count);
+        }
+        while (true) {
+            long state = block.get();
+            long first = next(state);
+            long following = first + count;
+            if (following > end(state)) {
+                refill(count);
+            } else if (block.compareAndSet(state, pack(following, end(state)))) {
+                return (int) first;
+            }
+        }
+    }
+
+    private synchronized void refill(int count) {
+        long state = block.get();
+        if (next(state) + count <= end(state)) {
+            return; // новый блок уже арендовал другой поток
+        }
+        int size = Math.max(count, blockSize);
+        int first = source.lease(size);
+        long end = Math.min((long) first + size, ID_LIMIT);
+        if (first <= 0 || (long) first + count > end) {
+            throw new IllegalStateException("Закончились свободные id");
+        }
+        block.set(pack(first, end));
+    }
+
+    private static long pack(long next, long end) { // обе половины не больше ID_LIMIT и не пересекаются
+        return end << 32 | next;
+    }
+
+    private static long next(long state) {
+        return state & 0xFFFF_FFFFL;
+    }
+
+    private static long end(long state) {
+        return state >>> 32;
+    }
+}
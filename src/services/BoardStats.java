@@ -0,0 +1,78 @@
+package services;
+
+import entity.TaskStatus;
+import entity.TaskType;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ToIntBiFunction;
+
+// Сводка доски для частого опроса: число задач, эпиков и подзадач по статусам, плановые минуты задач
+// и подзадач по статусам, число просроченных на момент asOf, доля выполненных эпиков и доля выполненных
+// подзадач по всей доске - в процентах, 0 пока их нет. Всё берётся из уже ведущихся счётчиков за O(1),
+// размер не зависит от числа эпиков: несколько сотен байт в JSON вместо всех списков.
+public final class BoardStats {
+
+    private final Map<TaskStatus, Integer> tasks = new EnumMap<>(TaskStatus.class);
+    private final Map<TaskStatus, Integer> epics = new EnumMap<>(TaskStatus.class);
+    private final Map<TaskStatus, Integer> subtasks = new EnumMap<>(TaskStatus.class);
+    private final Map<TaskStatus, Long> plannedMinutes = new EnumMap<>(TaskStatus.class);
+    private final int overdue;
+    private final int epicCompletionPercent;
+    private final int subtaskCompletionPercent;
+    private final LocalDateTime asOf;
+
+    BoardStats(ToIntBiFunction<TaskStatus, TaskType> counts, long[] plannedMinutes, int overdue,
+               LocalDateTime asOf) {
+        int epicCount = 0;
+        int subtaskCount = 0;
+        for (TaskStatus status : TaskStatus.values()) {
+            tasks.put(status, counts.applyAsInt(status, TaskType.TASK));
+            epics.put(status, counts.applyAsInt(status, TaskType.EPIC));
+            subtasks.put(status, counts.applyAsInt(status, TaskType.SUBTASK));
+            this.plannedMinutes.put(status, plannedMinutes[status.ordinal()]);
+            epicCount += epics.get(status);
+            subtaskCount += subtasks.get(status);
+        }
+        this.overdue = overdue;
+        epicCompletionPercent = percent(epics.get(TaskStatus.DONE), epicCount);
+        subtaskCompletionPercent = percent(subtasks.get(TaskStatus.DONE), subtaskCount);
+        this.asOf = asOf;
+    }
+
+    public int getCount(TaskType type, TaskStatus status) {
+        switch (type) {
+            case EPIC:
+                return epics.get(status);
+            case SUBTASK:
+                return subtasks.get(status);
+            default:
+                return tasks.get(status);
+        }
+    }
+
+    public long getPlannedMinutes(TaskStatus status) {
+        return plannedMinutes.get(status);
+    }
+
+    public int getOverdue() {
+        return overdue;
+    }
+
+    public int getEpicCompletionPercent() {
+        return epicCompletionPercent;
+    }
+
+    public int getSubtaskCompletionPercent() {
+        return subtaskCompletionPercent;
+    }
+
+    public LocalDateTime getAsOf() {
+        return asOf;
+    }
+
+    private static int percent(int done, int total) {
+        return total == 0 ? 0 : (int) (100L * done / total);
+    }
+}
@@ -0,0 +1,665 @@
+package services;
+
+import entity.Epic;
+import entity.IntList;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+import exception.ManagerIntersectionsException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Менеджер для аналитики и больших архивов: задачи и подзадачи лежат в TaskColumns, а объекты Task
+// создаются только при выдаче, поэтому изменения применяются через update, а не правкой выданного объекта.
+// Выборки по статусу и поиск - проходы по колонкам, шкала времени - RowIntervalTree по номерам строк.
+// Эпиков мало, они хранятся объектами, как и в InMemoryTaskManager. Время - с точностью до минуты,
+// повторяющиеся задачи не поддерживаются. Не потокобезопасен.
+public class ColumnarTaskManager implements TaskManager {
+
+    private final TaskColumns columns = new TaskColumns();
+    private final RowIntervalTree timeline = new RowIntervalTree(columns);
+    private final OrderedIntHashMap<Epic> epics = new OrderedIntHashMap<>();
+    private final StatusIndex epicStatuses = new StatusIndex();
+    private final DependencyGraph dependencies = new DependencyGraph();
+    private final BlockIdAllocator idAllocator = BlockIdAllocator.startingAfter(0);
+    private final HistoryManager historyManager = Managers.getDefaultHistory();
+
+    public ColumnarTaskManager() {
+        epics.addListener(epicStatuses.listener(TaskType.EPIC));
+    }
+
+    @Override
+    public int saveTask(Task task) {
+        checkIntersections(task);
+        id(task);
+        timeline.add(columns.insert(task));
+        return task.getId();
+    }
+
+    @Override
+    public int saveEpic(Epic epic) {
+        id(epic);
+        epics.put(epic.getId(), epic);
+        recountEpicRollups(epic);
+        changeEpicStatus(epic);
+        return epic.getId();
+    }
+
+    @Override
+    public int saveSubtask(Subtask subtask) {
+        checkIntersections(subtask);
+        Epic epic = epics.get(subtask.getEpicID());
+        if (epic != null) {
+            id(subtask);
+            int row = columns.insert(subtask);
+            timeline.add(row);
+            epic.addIdOfSubtasks(subtask);
+            addSubtaskRollups(epic, (Subtask) columns.materialize(row));
+            changeEpicStatus(epic);
+            InMemoryTaskManager.applyEpicTime(epic);
+        }
+        return subtask.getId();
+    }
+
+    @Override
+    public List<Integer> saveAll(Collection<? extends Task> batch) { // всё или ничего
+        if (batch.isEmpty()) { // блок из нуля id не выделяется
+            return new ArrayList<>();
+        }
+        TaskBatch plan = new TaskBatch(batch, epics::get);
+        for (Task task : plan.timed) {
+            checkIntersections(task);
+        }
+        plan.assignIds(idAllocator.next(plan.items.size()));
+        Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Epic epic : plan.batchEpics) {
+            epics.put(epic.getId(), epic);
+            changedEpics.add(epic);
+        }
+        for (Task task : plan.items) {
+            if (!(task instanceof Epic) && !(task instanceof Subtask)) {
+                timeline.add(columns.insert(task));
+            }
+        }
+        for (int i = 0; i < plan.subtasks.size(); i++) {
+            Subtask subtask = plan.subtasks.get(i);
+            Epic epic = plan.subtaskEpics.get(i);
+            int row = columns.insert(subtask);
+            timeline.add(row);
+            epic.addIdOfSubtasks(subtask);
+            addSubtaskRollups(epic, (Subtask) columns.materialize(row));
+            changedEpics.add(epic);
+        }
+        for (Epic epic : changedEpics) {
+            changeEpicStatus(epic);
+            InMemoryTaskManager.applyEpicTime(epic);
+        }
+        return plan.ids(batch);
+    }
+
+    @Override
+    public ArrayList<Task> getTasksList() {
+        return materialize(columns.ids(TaskType.TASK), 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ArrayList<Epic> getEpicsList() {
+        return new ArrayList<>(epics.values());
+    }
+
+    @Override
+    public ArrayList<Subtask> getSubtaskList() {
+        ArrayList<Subtask> result = new ArrayList<>(columns.size(TaskType.SUBTASK));
+        for (Task subtask : materialize(columns.ids(TaskType.SUBTASK), 0, Integer.MAX_VALUE)) {
+            result.add((Subtask) subtask);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> getTasksPage(int after, int limit) {
+        return page(TaskType.TASK, after, limit);
+    }
+
+    @Override
+    public List<Epic> getEpicsPage(int after, int limit) {
+        return epics.page(after, limit);
+    }
+
+    @Override
+    public List<Subtask> getSubtasksPage(int after, int limit) {
+        List<Subtask> result = new ArrayList<>();
+        for (Task subtask : page(TaskType.SUBTASK, after, limit)) {
+            result.add((Subtask) subtask);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> getByStatus(TaskStatus status, TaskType type) { // проход по колонкам статуса и типа
+        List<Task> result = new ArrayList<>();
+        if (type == TaskType.EPIC) {
+            for (int id : epicStatuses.ids(type, status)) {
+                result.add(epics.get(id));
+            }
+            return result;
+        }
+        byte typeCode = (byte) type.ordinal();
+        byte statusCode = (byte) status.ordinal();
+        for (int row = 0; row < columns.rowCount(); row++) {
+            if (columns.statuses[row] == statusCode && columns.types[row] == typeCode && columns.ids[row] != 0) {
+                result.add(columns.materialize(row));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countByStatus(TaskStatus status, TaskType type) {
+        return type == TaskType.EPIC ? epicStatuses.count(type, status) : columns.count(type, status);
+    }
+
+    // счётчики, плановые минуты и просрочку ведёт TaskColumns при записи строк, запрос не проходит по колонкам
+    @Override
+    public BoardStats getStats(LocalDateTime now) {
+        return new BoardStats(this::countByStatus, columns.plannedMinutes(),
+                columns.overdue(TaskColumns.minuteCeiling(now)), now);
+    }
+
+    // тот же запрос и порядок, что и у TextIndex, но без индекса: совпадения считаются один раз
+    // на строку словаря, а задачи проверяются по кодам названия и описания
+    @Override
+    public List<Task> search(String query, int limit) {
+        List<Boolean> prefixes = new ArrayList<>();
+        List<String> terms = TextIndex.queryTerms(query, prefixes);
+        List<Task> result = new ArrayList<>();
+        if (terms.isEmpty() || limit <= 0) {
+            return result;
+        }
+        if (terms.size() > Long.SIZE) {
+            throw new IllegalArgumentException("В запросе больше " + Long.SIZE + " слов");
+        }
+        long all = terms.size() == Long.SIZE ? -1L : (1L << terms.size()) - 1;
+        long[] masks = new long[columns.strings.capacity()]; // маска найденных слов для кода словаря
+        BitSet counted = new BitSet();
+        PriorityQueue<long[]> top = new PriorityQueue<>((a, b) -> a[0] != b[0]
+                ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1])); // наименее релевантный - в голове
+        for (int row = 0; row < columns.rowCount(); row++) {
+            if (columns.ids[row] == 0) {
+                continue;
+            }
+            long nameMask = mask(columns.names[row], masks, counted, terms, prefixes);
+            if ((nameMask | mask(columns.descriptions[row], masks, counted, terms, prefixes)) == all) {
+                offer(top, limit, terms.size() + Long.bitCount(nameMask), columns.ids[row]);
+            }
+        }
+        for (Epic epic : epics.values()) {
+            long nameMask = match(epic.getName(), terms, prefixes);
+            if ((nameMask | match(epic.getDescription(), terms, prefixes)) == all) {
+                offer(top, limit, terms.size() + Long.bitCount(nameMask), epic.getId());
+            }
+        }
+        Task[] found = new Task[top.size()];
+        for (int i = found.length - 1; i >= 0; i--) {
+            int id = (int) top.poll()[1];
+            int row = columns.row(id);
+            found[i] = row >= 0 ? columns.materialize(row) : epics.get(id);
+        }
+        result.addAll(Arrays.asList(found));
+        return result;
+    }
+
+    @Override
+    public void deleteTasks() {
+        BitSet ids = columns.ids(TaskType.TASK);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            historyManager.remove(id);
+            deleteRow(columns.row(id));
+        }
+    }
+
+    @Override
+    public void deleteEpics() {
+        for (Epic epic : epics.values()) {
+            historyManager.remove(epic.getId());
+        }
+        epics.clear();
+        BitSet ids = columns.ids(TaskType.SUBTASK);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            historyManager.remove(id);
+            deleteRow(columns.row(id));
+        }
+    }
+
+    @Override
+    public void deleteSubtasks() {
+        BitSet ids = columns.ids(TaskType.SUBTASK);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            historyManager.remove(id);
+            deleteRow(columns.row(id));
+        }
+        for (Epic epic : epics.values()) {
+            epic.getSubtasks().clear();
+            epic.clearStatusCounters();
+            epic.clearSubtasksTime();
+            changeEpicStatus(epic);
+            InMemoryTaskManager.applyEpicTime(epic);
+        }
+    }
+
+    @Override
+    public Task getTaskByIdNumber(int idNumber) {
+        return viewed(columns.row(idNumber, TaskType.TASK));
+    }
+
+    @Override
+    public Epic getEpicTaskByIdNumber(int idNumber) {
+        Epic epic = epics.get(idNumber);
+        if (epic != null) {
+            historyManager.add(epic);
+        }
+        return epic;
+    }
+
+    @Override
+    public Subtask getSubTaskByIdNumber(int idNumber) {
+        return (Subtask) viewed(columns.row(idNumber, TaskType.SUBTASK));
+    }
+
+    @Override
+    public int updateTask(Task task) {
+        updateTask(task, ANY_VERSION);
+        return task.getId();
+    }
+
+    @Override
+    public int updateEpic(Epic epic) {
+        updateEpic(epic, ANY_VERSION);
+        return epic.getId();
+    }
+
+    @Override
+    public int updateSubtask(Subtask subtask) {
+        updateSubtask(subtask, ANY_VERSION);
+        return subtask.getId();
+    }
+
+    @Override
+    public long updateTask(Task task, long expectedVersion) {
+        int row = columns.row(task.getId(), TaskType.TASK);
+        if (row < 0) {
+            return -1;
+        }
+        rewrite(row, task, expectedVersion);
+        return task.getVersion();
+    }
+
+    @Override
+    public long updateEpic(Epic epic, long expectedVersion) {
+        Epic currentEpic = epics.get(epic.getId());
+        if (currentEpic == null) {
+            return -1;
+        }
+        InMemoryTaskManager.checkVersion(currentEpic, expectedVersion);
+        currentEpic.setVersion(currentEpic.getVersion() + 1);
+        currentEpic.setName(epic.getName());
+        currentEpic.setDescription(epic.getDescription());
+        return currentEpic.getVersion();
+    }
+
+    @Override
+    public long updateSubtask(Subtask subtask, long expectedVersion) {
+        int row = columns.row(subtask.getId(), TaskType.SUBTASK);
+        Epic epic = epics.get(subtask.getEpicID());
+        if (row < 0 || epic == null) {
+            return -1;
+        }
+        Subtask oldSubtask = (Subtask) columns.materialize(row);
+        Subtask newSubtask = (Subtask) rewrite(row, subtask, expectedVersion);
+        Epic oldEpic = epics.get(oldSubtask.getEpicID());
+        if (oldEpic != null) {
+            removeSubtaskRollups(oldEpic, oldSubtask);
+        }
+        if (oldEpic != epic) { // подзадача перенесена в другой эпик
+            if (oldEpic != null) {
+                oldEpic.removeIdOfSubtasks(subtask.getId());
+                changeEpicStatus(oldEpic);
+                InMemoryTaskManager.applyEpicTime(oldEpic);
+            }
+            epic.addIdOfSubtasks(subtask);
+        }
+        addSubtaskRollups(epic, newSubtask);
+        changeEpicStatus(epic);
+        InMemoryTaskManager.applyEpicTime(epic);
+        return subtask.getVersion();
+    }
+
+    @Override
+    public Task deleteTaskById(int idNumber) {
+        int row = columns.row(idNumber, TaskType.TASK);
+        if (row < 0) {
+            return null;
+        }
+        Task task = columns.materialize(row);
+        historyManager.remove(idNumber);
+        deleteRow(row);
+        return task;
+    }
+
+    @Override
+    public Epic deleteEpicById(int idNumber) {
+        Epic epic = epics.get(idNumber);
+        if (epic == null) {
+            return null;
+        }
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int row = columns.row(subtaskIds.getInt(i), TaskType.SUBTASK);
+            historyManager.remove(subtaskIds.getInt(i));
+            if (row >= 0) {
+                deleteRow(row);
+            }
+        }
+        historyManager.remove(idNumber);
+        epics.remove(idNumber);
+        return epic;
+    }
+
+    @Override
+    public Subtask deleteSubtaskById(int idNumber) {
+        int row = columns.row(idNumber, TaskType.SUBTASK);
+        if (row < 0) {
+            return null;
+        }
+        Subtask subtask = (Subtask) columns.materialize(row);
+        Epic epic = epics.get(subtask.getEpicID());
+        if (epic != null) {
+            epic.removeIdOfSubtasks(idNumber);
+            removeSubtaskRollups(epic, subtask);
+            changeEpicStatus(epic);
+            InMemoryTaskManager.applyEpicTime(epic);
+        }
+        historyManager.remove(idNumber);
+        deleteRow(row);
+        return subtask;
+    }
+
+    @Override
+    public ArrayList<Subtask> subtaskList(int idNumber) {
+        Epic epic = epics.get(idNumber);
+        if (epic == null) {
+            return null;
+        }
+        ArrayList<Subtask> listSubtasks = new ArrayList<>();
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int row = columns.row(subtaskIds.getInt(i), TaskType.SUBTASK);
+            listSubtasks.add(row < 0 ? null : (Subtask) columns.materialize(row));
+        }
+        return listSubtasks;
+    }
+
+    @Override
+    public List<Task> getHistory() {
+        return historyManager.getHistory();
+    }
+
+    @Override
+    public Task creationTask(Task task) {
+        checkIntersections(task);
+        return new Task(task.getName(), task.getStatus(), task.getDescription(), task.getStartTime(),
+                task.getDuration());
+    }
+
+    @Override
+    public Epic creationEpic(Epic epic) {
+        return new Epic(epic.getName(), epic.getStatus(), epic.getDescription(), epic.getStartTime(),
+                epic.getDuration());
+    }
+
+    @Override
+    public Subtask creationSubtask(Subtask subtask) {
+        checkIntersections(subtask);
+        return new Subtask(subtask.getName(), subtask.getStatus(), subtask.getDescription(),
+                subtask.getStartTime(), subtask.getDuration(), subtask.getEpicID());
+    }
+
+    // собирается при каждом вызове, O(n): задачи со временем по шкале, за ними задачи без времени по id
+    @Override
+    public Set<Task> getPrioritizedTasks() {
+        IntList rows = new IntList();
+        timeline.all(rows);
+        Set<Task> result = new LinkedHashSet<>();
+        for (int i = 0; i < rows.size(); i++) {
+            result.add(columns.materialize(rows.getInt(i)));
+        }
+        IntList untimed = new IntList();
+        for (int row = 0; row < columns.rowCount(); row++) {
+            if (columns.ids[row] != 0 && columns.starts[row] == TaskColumns.NO_TIME) {
+                untimed.addInt(columns.ids[row]);
+            }
+        }
+        int[] ids = untimed.toIntArray();
+        Arrays.sort(ids);
+        for (int id : ids) {
+            result.add(columns.materialize(columns.row(id)));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to) {
+        IntList rows = new IntList();
+        timeline.overlapping(from, to, rows);
+        List<Task> result = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            result.add(columns.materialize(rows.getInt(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public LocalDateTime findFreeSlot(LocalDateTime after, long duration) {
+        LocalDateTime start = after;
+        while (true) {
+            long maxEnd = timeline.maxEndStartingBefore(TaskColumns.minuteCeiling(start.plusMinutes(duration)));
+            if (maxEnd == RowIntervalTree.NONE || maxEnd <= TaskColumns.minute(start)) {
+                return start;
+            }
+            start = TaskColumns.time(maxEnd);
+        }
+    }
+
+    @Override
+    public List<LocalDateTime> findFreeSlots(LocalDateTime after, long duration, LocalDateTime horizon, int count) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("Длительность окна должна быть положительной: " + duration);
+        }
+        List<LocalDateTime> result = new ArrayList<>();
+        LocalDateTime start = after;
+        while (result.size() < count) {
+            start = findFreeSlot(start, duration);
+            LocalDateTime end = start.plusMinutes(duration);
+            if (end.isAfter(horizon)) {
+                break;
+            }
+            result.add(start);
+            start = end;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean addDependency(int predecessorId, int successorId) {
+        return dependencies.add(dependencyNode(predecessorId), dependencyNode(successorId));
+    }
+
+    @Override
+    public boolean removeDependency(int predecessorId, int successorId) {
+        return dependencies.remove(predecessorId, successorId);
+    }
+
+    @Override
+    public List<Integer> getDependencies(int id) {
+        return dependencies.predecessors(id);
+    }
+
+    @Override
+    public LocalDateTime getEarliestStart(int id) {
+        int row = columns.row(id);
+        return row < 0 ? null : dependencies.earliestStart(columns.materialize(row));
+    }
+
+    @Override
+    public EpicSchedule getEpicSchedule(int epicId) {
+        List<Subtask> epicSubtasks = subtaskList(epicId);
+        return epicSubtasks == null ? null : dependencies.schedule(epicSubtasks);
+    }
+
+    public int getDistinctStringsCount() { // разных названий и описаний в словаре
+        return columns.strings.size();
+    }
+
+    private void id(Task task) {
+        task.setId(idAllocator.next());
+        task.setVersion(1);
+    }
+
+    // пересечение в том же смысле, что и у TaskIntervalTree, по времени, округлённому до минуты
+    private void checkIntersections(Task task) {
+        if (task.getRecurrence() != null) {
+            throw new IllegalArgumentException("Колоночное хранилище не хранит повторяющиеся задачи");
+        }
+        if (task.getStartTime() == null) {
+            return;
+        }
+        long start = TaskColumns.minute(task.getStartTime());
+        if (timeline.overlaps(start, start + task.getDuration())) {
+            throw new ManagerIntersectionsException("Произошло наложение задач по времени!");
+        }
+    }
+
+    private Task rewrite(int row, Task task, long expectedVersion) {
+        InMemoryTaskManager.checkVersion(task.getId(), columns.versions[row], expectedVersion);
+        timeline.remove(row); // ключ узла - прежнее начало из колонок
+        try { // без прежнего интервала строки, иначе сдвиг внутри своего же окна считается наложением
+            checkIntersections(task);
+        } catch (RuntimeException e) {
+            timeline.add(row); // колонки ещё не тронуты
+            throw e;
+        }
+        task.setVersion(columns.versions[row] + 1);
+        columns.write(row, task);
+        timeline.add(row);
+        Task stored = columns.materialize(row);
+        dependencies.update(stored);
+        return stored;
+    }
+
+    private void deleteRow(int row) {
+        dependencies.remove(columns.ids[row]);
+        timeline.remove(row);
+        columns.delete(row);
+    }
+
+    private Task viewed(int row) {
+        if (row < 0) {
+            return null;
+        }
+        Task task = columns.materialize(row);
+        historyManager.add(task);
+        return task;
+    }
+
+    private Task dependencyNode(int id) { // эпик не связывается: его время выводится из подзадач
+        int row = columns.row(id);
+        if (row < 0) {
+            throw new IllegalArgumentException("Задача или подзадача " + id + " не найдена");
+        }
+        return columns.materialize(row);
+    }
+
+    private ArrayList<Task> page(TaskType type, int after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
+        }
+        return materialize(columns.ids(type), after == Integer.MAX_VALUE ? -1 : Math.max(after + 1, 0), limit);
+    }
+
+    private ArrayList<Task> materialize(BitSet ids, int from, int limit) { // from < 0 - пустой результат
+        ArrayList<Task> result = new ArrayList<>(Math.min(limit, ids.cardinality()));
+        for (int id = from < 0 ? -1 : ids.nextSetBit(from); id >= 0 && result.size() < limit;
+             id = ids.nextSetBit(id + 1)) {
+            result.add(columns.materialize(columns.row(id)));
+        }
+        return result;
+    }
+
+    private void changeEpicStatus(Epic epic) {
+        epic.setStatus(epic.calculateStatus());
+        epicStatuses.update(TaskType.EPIC, epic);
+    }
+
+    private void addSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.increaseStatusCounter(subtask.getStatus());
+        epic.addSubtaskTime(subtask);
+    }
+
+    private void removeSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.decreaseStatusCounter(subtask.getStatus());
+        epic.removeSubtaskTime(subtask);
+    }
+
+    private void recountEpicRollups(Epic epic) {
+        epic.clearStatusCounters();
+        epic.clearSubtasksTime();
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int row = columns.row(subtaskIds.getInt(i), TaskType.SUBTASK);
+            if (row >= 0) {
+                addSubtaskRollups(epic, (Subtask) columns.materialize(row));
+            }
+        }
+    }
+
+    private long mask(int code, long[] masks, BitSet counted, List<String> terms, List<Boolean> prefixes) {
+        if (code == StringDictionary.NULL_CODE) {
+            return 0;
+        }
+        if (!counted.get(code)) { // строка словаря проверяется один раз на запрос
+            counted.set(code);
+            masks[code] = match(columns.strings.get(code), terms, prefixes);
+        }
+        return masks[code];
+    }
+
+    private static long match(String text, List<String> terms, List<Boolean> prefixes) {
+        long mask = 0;
+        for (String word : TextIndex.terms(text)) {
+            for (int i = 0; i < terms.size(); i++) {
+                if (prefixes.get(i) ? word.startsWith(terms.get(i)) : word.equals(terms.get(i))) {
+                    mask |= 1L << i;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static void offer(PriorityQueue<long[]> top, int limit, long score, int id) {
+        top.add(new long[]{score, id});
+        if (top.size() > limit) {
+            top.poll();
+        }
+    }
+}
@@ -0,0 +1,904 @@
+package services;
+
+import entity.Epic;
+import entity.IntList;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+import exception.ManagerIntersectionsException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Потокобезопасный менеджер для многопоточного HttpTaskServer.
+// Чтение идёт без блокировок: задачи и подзадачи - из хранилищ, эпики и временная шкала - из неизменяемых
+// видов, которые каждая запись публикует заново. Подзадачи и эпики блокируются по полосам (по id эпика),
+// задачи - по тем же полосам по своему id. Временная шкала - отдельной короткой блокировкой на проверку
+// пересечений и вставку, и её берёт только запись задачи, у которой время начала есть сейчас или было раньше:
+// записи без времени в разных полосах идут параллельно.
+// Порядок захвата: полосы (по возрастанию номера) -> timelineLock -> historyManager.
+public class ConcurrentTaskManager implements TaskManager {
+
+    private static final int EPIC_LOCK_STRIPES = 64;
+    private static final PersistentTreeMap<Integer, Integer> NO_SUBTASKS = PersistentTreeMap.empty(Integer::compare);
+
+    // упорядочены по id для постраничной выдачи
+    protected final ConcurrentNavigableMap<Integer, Task> tasks = new ConcurrentSkipListMap<>();
+    protected final ConcurrentNavigableMap<Integer, Epic> epics = new ConcurrentSkipListMap<>();
+    protected final ConcurrentNavigableMap<Integer, Subtask> subtasks = new ConcurrentSkipListMap<>();
+    protected final BlockIdAllocator idAllocator = BlockIdAllocator.startingAfter(0);
+
+    protected final HistoryManager historyManager = Managers.getDefaultHistory(); // под собственным монитором
+
+    protected final TimelineSet prioritizedTasks = TimelineSet.concurrent(); // пишется под полосой задачи
+    private final TaskIntervalTree intervalTree = new TaskIntervalTree(); // только под timelineLock
+    private volatile TaskIntervalTree.View timeline = intervalTree.view(); // публикуется после записи в шкалу
+    private final ReentrantLock timelineLock = new ReentrantLock();
+
+    // опубликованные эпики: пишутся под полосой эпика, читаются без блокировок
+    private final Map<Integer, EpicView> epicViews = new ConcurrentHashMap<>();
+
+    private final ReentrantLock[] epicLocks = new ReentrantLock[EPIC_LOCK_STRIPES];
+
+    // индексы синхронизированы сами по себе и захватываются последними
+    private final StatusIndex statusIndex = new StatusIndex();
+    private final TextIndex textIndex = new TextIndex();
+    private final DependencyGraph dependencies = new DependencyGraph(); // монитор графа захватывается последним
+    private final StatsIndex statsIndex = new StatsIndex();
+
+    public ConcurrentTaskManager() {
+        for (int i = 0; i < epicLocks.length; i++) {
+            epicLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public int saveTask(Task task) { // id новый, поэтому полоса не нужна: задачу ещё никто не видит
+        boolean timed = lockTimeline(task.getStartTime() != null);
+        try {
+            tasksWithoutIntersectionsInTime(task);
+            task.setId(idAllocator.next());
+            task.setVersion(1);
+            tasks.put(task.getId(), task);
+            index(TaskType.TASK, task);
+            addToPrioritizedTasks(task);
+        } finally {
+            unlockTimeline(timed);
+        }
+        return task.getId();
+    }
+
+    @Override
+    public int saveEpic(Epic epic) {
+        epic.setId(idAllocator.next());
+        epic.setVersion(1);
+        ReentrantLock lock = epicLock(epic.getId());
+        lock.lock();
+        try {
+            recountEpicRollups(epic);
+            epic.setStatus(epic.calculateStatus());
+            epics.put(epic.getId(), epic);
+            index(TaskType.EPIC, epic);
+            publishEpic(epic);
+        } finally {
+            lock.unlock();
+        }
+        return epic.getId();
+    }
+
+    @Override
+    public int saveSubtask(Subtask subtask) {
+        ReentrantLock lock = epicLock(subtask.getEpicID());
+        lock.lock();
+        try {
+            Epic epic = epics.get(subtask.getEpicID());
+            boolean timed = lockTimeline(subtask.getStartTime() != null);
+            try {
+                tasksWithoutIntersectionsInTime(subtask);
+                if (epic == null) {
+                    return subtask.getId();
+                }
+                subtask.setId(idAllocator.next());
+                subtask.setVersion(1);
+                subtasks.put(subtask.getId(), subtask);
+                index(TaskType.SUBTASK, subtask);
+                addToPrioritizedTasks(subtask);
+            } finally {
+                unlockTimeline(timed);
+            }
+            linkSubtask(epic, subtask);
+            addSubtaskRollups(epic, subtask);
+            changeEpicStatusAndTime(epic);
+        } finally {
+            lock.unlock();
+        }
+        return subtask.getId();
+    }
+
+    @Override
+    public List<Integer> saveAll(Collection<? extends Task> batch) {
+        if (batch.isEmpty()) { // блок из нуля id не выделяется
+            return new ArrayList<>();
+        }
+        lockAllEpics();
+        try {
+            TaskBatch plan = new TaskBatch(batch, epics::get);
+            boolean timed = lockTimeline(!plan.timed.isEmpty());
+            try {
+                for (Task task : plan.timed) {
+                    tasksWithoutIntersectionsInTime(task);
+                }
+                plan.assignIds(idAllocator.next(plan.items.size()));
+                for (Epic epic : plan.batchEpics) { // раньше подзадач, чтобы их epicID сразу находился
+                    epics.put(epic.getId(), epic);
+                    textIndex.update(epic);
+                }
+                for (Task task : plan.items) {
+                    if (task instanceof Epic) {
+                        continue;
+                    }
+                    if (task instanceof Subtask) {
+                        subtasks.put(task.getId(), (Subtask) task);
+                        index(TaskType.SUBTASK, task);
+                    } else {
+                        tasks.put(task.getId(), task);
+                        index(TaskType.TASK, task);
+                    }
+                    addToPrioritizedTasks(task);
+                }
+            } finally {
+                unlockTimeline(timed);
+            }
+            Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
+            changedEpics.addAll(plan.batchEpics);
+            for (int i = 0; i < plan.subtasks.size(); i++) {
+                Epic epic = plan.subtaskEpics.get(i);
+                linkSubtask(epic, plan.subtasks.get(i));
+                addSubtaskRollups(epic, plan.subtasks.get(i));
+                changedEpics.add(epic);
+            }
+            for (Epic epic : changedEpics) {
+                changeEpicStatusAndTime(epic);
+            }
+            return plan.ids(batch);
+        } finally {
+            unlockAllEpics();
+        }
+    }
+
+    @Override
+    public ArrayList<Task> getTasksList() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    @Override
+    public ArrayList<Epic> getEpicsList() {
+        ArrayList<Epic> result = new ArrayList<>();
+        for (int id : epics.keySet()) {
+            Epic epic = epicCopy(id);
+            if (epic != null) { // эпик могли удалить во время обхода
+                result.add(epic);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ArrayList<Subtask> getSubtaskList() {
+        return new ArrayList<>(subtasks.values());
+    }
+
+    @Override
+    public List<Task> getTasksPage(int after, int limit) {
+        return page(tasks, after, limit);
+    }
+
+    @Override
+    public List<Epic> getEpicsPage(int after, int limit) {
+        List<Epic> page = page(epics, after, limit);
+        page.replaceAll(epic -> epicCopy(epic.getId()));
+        page.removeIf(Objects::isNull);
+        return page;
+    }
+
+    @Override
+    public List<Subtask> getSubtasksPage(int after, int limit) {
+        return page(subtasks, after, limit);
+    }
+
+    @Override
+    public List<Task> getByStatus(TaskStatus status, TaskType type) {
+        Map<Integer, ? extends Task> store = type == TaskType.EPIC ? epics
+                : type == TaskType.SUBTASK ? subtasks : tasks;
+        int[] ids = statusIndex.ids(type, status);
+        List<Task> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Task task = type == TaskType.EPIC ? epicCopy(id) : store.get(id);
+            if (task != null) { // задачу могли удалить после чтения индекса
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countByStatus(TaskStatus status, TaskType type) {
+        return statusIndex.count(type, status);
+    }
+
+    @Override
+    public BoardStats getStats(LocalDateTime now) { // индексы согласованы каждый сам по себе, не между собой
+        return new BoardStats(this::countByStatus, statsIndex.plannedMinutes(), statsIndex.overdue(now), now);
+    }
+
+    @Override
+    public List<Task> search(String query, int limit) {
+        List<Task> result = new ArrayList<>();
+        for (int id : textIndex.search(query, limit)) {
+            Task task = find(id);
+            if (task != null) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    private Task find(int id) {
+        Task task = tasks.get(id);
+        if (task == null) {
+            task = subtasks.get(id);
+        }
+        return task == null ? epicCopy(id) : task;
+    }
+
+    @Override
+    public void deleteTasks() {
+        lockAllEpics(); // задачи блокируются по тем же полосам
+        try {
+            timelineLock.lock();
+            try {
+                for (Task task : tasks.values()) {
+                    tasks.remove(task.getId());
+                    unindex(task.getId());
+                    removeFromPrioritizedTasks(task.getId());
+                    removeFromHistory(task.getId());
+                }
+            } finally {
+                timelineLock.unlock();
+            }
+        } finally {
+            unlockAllEpics();
+        }
+    }
+
+    @Override
+    public void deleteEpics() {
+        lockAllEpics();
+        try {
+            timelineLock.lock();
+            try {
+                for (Subtask subtask : subtasks.values()) {
+                    subtasks.remove(subtask.getId());
+                    unindex(subtask.getId());
+                    removeFromPrioritizedTasks(subtask.getId());
+                    removeFromHistory(subtask.getId());
+                }
+            } finally {
+                timelineLock.unlock();
+            }
+            for (Epic epic : epics.values()) {
+                epics.remove(epic.getId());
+                epicViews.remove(epic.getId());
+                unindex(epic.getId());
+                removeFromHistory(epic.getId());
+            }
+        } finally {
+            unlockAllEpics();
+        }
+    }
+
+    @Override
+    public void deleteSubtasks() {
+        lockAllEpics();
+        try {
+            timelineLock.lock();
+            try {
+                for (Subtask subtask : subtasks.values()) {
+                    subtasks.remove(subtask.getId());
+                    unindex(subtask.getId());
+                    removeFromPrioritizedTasks(subtask.getId());
+                    removeFromHistory(subtask.getId());
+                }
+            } finally {
+                timelineLock.unlock();
+            }
+            for (Epic epic : epics.values()) {
+                if (!epic.getSubtasks().isEmpty()) {
+                    epic.getSubtasks().clear();
+                    epicViews.computeIfPresent(epic.getId(), (id, view) -> new EpicView(view.epic, NO_SUBTASKS));
+                    epic.clearStatusCounters();
+                    epic.clearSubtasksTime();
+                    changeEpicStatusAndTime(epic);
+                }
+            }
+        } finally {
+            unlockAllEpics();
+        }
+    }
+
+    @Override
+    public Task getTaskByIdNumber(int idNumber) {
+        Task task = tasks.get(idNumber);
+        if (task == null) {
+            return null;
+        }
+        addToHistory(tasks, task);
+        return task;
+    }
+
+    @Override
+    public Epic getEpicTaskByIdNumber(int idNumber) {
+        Epic epic = epics.get(idNumber);
+        if (epic == null) {
+            return null;
+        }
+        addToHistory(epics, epic);
+        return epicCopy(idNumber);
+    }
+
+    @Override
+    public Subtask getSubTaskByIdNumber(int idNumber) {
+        Subtask subtask = subtasks.get(idNumber);
+        if (subtask == null) {
+            return null;
+        }
+        addToHistory(subtasks, subtask);
+        return subtask;
+    }
+
+    @Override
+    public int updateTask(Task task) {
+        updateTask(task, ANY_VERSION);
+        return task.getId();
+    }
+
+    @Override
+    public int updateEpic(Epic epic) {
+        updateEpic(epic, ANY_VERSION);
+        return epic.getId();
+    }
+
+    @Override
+    public int updateSubtask(Subtask subtask) {
+        updateSubtask(subtask, ANY_VERSION);
+        return subtask.getId();
+    }
+
+    @Override
+    public long updateTask(Task task, long expectedVersion) { // версия сверяется под той же блокировкой, что и запись
+        int idUpdatedTask = task.getId();
+        ReentrantLock lock = epicLock(idUpdatedTask);
+        lock.lock();
+        try {
+            Task currentTask = tasks.get(idUpdatedTask);
+            if (currentTask == null) {
+                return -1;
+            }
+            InMemoryTaskManager.checkVersion(currentTask, expectedVersion); // как и в InMemoryTaskManager - до наложений
+            boolean timed = lockTimeline(touchesTimeline(task));
+            try {
+                tasksWithoutIntersectionsInTime(task, idUpdatedTask);
+                task.setVersion(currentTask.getVersion() + 1);
+                tasks.put(idUpdatedTask, task);
+                index(TaskType.TASK, task);
+                addToPrioritizedTasks(task);
+            } finally {
+                unlockTimeline(timed);
+            }
+            return task.getVersion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long updateEpic(Epic epic, long expectedVersion) {
+        ReentrantLock lock = epicLock(epic.getId());
+        lock.lock();
+        try {
+            Epic currentEpic = epics.get(epic.getId());
+            if (currentEpic == null) {
+                return -1;
+            }
+            InMemoryTaskManager.checkVersion(currentEpic, expectedVersion);
+            currentEpic.setVersion(currentEpic.getVersion() + 1);
+            currentEpic.setName(epic.getName());
+            currentEpic.setDescription(epic.getDescription());
+            textIndex.update(currentEpic);
+            publishEpic(currentEpic);
+            return currentEpic.getVersion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long updateSubtask(Subtask subtask, long expectedVersion) {
+        int idUpdatedSubtask = subtask.getId();
+        while (true) {
+            Subtask current = subtasks.get(idUpdatedSubtask);
+            int oldEpicId = current == null ? subtask.getEpicID() : current.getEpicID();
+            ReentrantLock first = epicLocks[Math.min(stripe(oldEpicId), stripe(subtask.getEpicID()))];
+            ReentrantLock second = epicLocks[Math.max(stripe(oldEpicId), stripe(subtask.getEpicID()))];
+            first.lock();
+            second.lock();
+            try {
+                Subtask oldSubtask = subtasks.get(idUpdatedSubtask);
+                if (oldSubtask != current) {
+                    continue; // подзадачу успели перенести в другой эпик, захватываем блокировки заново
+                }
+                return updateSubtaskLocked(subtask, oldSubtask, expectedVersion);
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Task deleteTaskById(int idNumber) {
+        Task task;
+        ReentrantLock lock = epicLock(idNumber);
+        lock.lock();
+        try {
+            boolean timed = lockTimeline(prioritizedTasks.isTimed(idNumber));
+            try {
+                task = tasks.remove(idNumber);
+                if (task == null) {
+                    return null;
+                }
+                removeFromPrioritizedTasks(idNumber);
+                unindex(idNumber);
+            } finally {
+                unlockTimeline(timed);
+            }
+        } finally {
+            lock.unlock();
+        }
+        removeFromHistory(idNumber);
+        return task;
+    }
+
+    @Override
+    public Epic deleteEpicById(int idNumber) {
+        ReentrantLock lock = epicLock(idNumber);
+        lock.lock();
+        try {
+            Epic epic = epics.remove(idNumber);
+            if (epic == null) {
+                return null;
+            }
+            epicViews.remove(idNumber);
+            unindex(idNumber);
+            IntList subtaskIds = epic.getSubtasks();
+            boolean anyTimed = false;
+            for (int i = 0; i < subtaskIds.size() && !anyTimed; i++) {
+                anyTimed = prioritizedTasks.isTimed(subtaskIds.getInt(i));
+            }
+            boolean timed = lockTimeline(anyTimed);
+            try {
+                for (int i = 0; i < subtaskIds.size(); i++) {
+                    int sub = subtaskIds.getInt(i);
+                    subtasks.remove(sub);
+                    unindex(sub);
+                    removeFromPrioritizedTasks(sub);
+                }
+            } finally {
+                unlockTimeline(timed);
+            }
+            for (int i = 0; i < subtaskIds.size(); i++) {
+                removeFromHistory(subtaskIds.getInt(i));
+            }
+            removeFromHistory(idNumber);
+            return epic;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Subtask deleteSubtaskById(int idNumber) {
+        while (true) {
+            Subtask current = subtasks.get(idNumber);
+            if (current == null) {
+                return null;
+            }
+            ReentrantLock lock = epicLock(current.getEpicID());
+            lock.lock();
+            try {
+                if (subtasks.get(idNumber) != current) {
+                    continue;
+                }
+                Epic epic = epics.get(current.getEpicID());
+                if (epic != null) {
+                    unlinkSubtask(epic, idNumber);
+                    removeSubtaskRollups(epic, current);
+                    changeEpicStatusAndTime(epic);
+                }
+                boolean timed = lockTimeline(prioritizedTasks.isTimed(idNumber));
+                try {
+                    subtasks.remove(idNumber);
+                    unindex(idNumber);
+                    removeFromPrioritizedTasks(idNumber);
+                } finally {
+                    unlockTimeline(timed);
+                }
+                removeFromHistory(idNumber);
+                return current;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public ArrayList<Subtask> subtaskList(int idNumber) { // по возрастанию id
+        EpicView view = epicViews.get(idNumber);
+        if (view == null) {
+            return null;
+        }
+        ArrayList<Subtask> listSubtasks = new ArrayList<>(view.subtaskIds.size());
+        for (int id : view.subtaskIds.values()) {
+            Subtask subtask = subtasks.get(id);
+            if (subtask != null) { // подзадача удаляется из хранилища после того, как её id убран из вида
+                listSubtasks.add(subtask);
+            }
+        }
+        return listSubtasks;
+    }
+
+    @Override
+    public List<Task> getHistory() {
+        List<Task> history;
+        synchronized (historyManager) {
+            history = historyManager.getHistory();
+        }
+        history.replaceAll(task -> task instanceof Epic ? epicCopy(task.getId()) : task);
+        history.removeIf(Objects::isNull);
+        return history;
+    }
+
+    @Override
+    public Task creationTask(Task task) {
+        boolean timed = lockTimeline(task.getStartTime() != null);
+        try {
+            tasksWithoutIntersectionsInTime(task);
+        } finally {
+            unlockTimeline(timed);
+        }
+        return new Task(task.getName(), task.getStatus(), task.getDescription(), task.getStartTime(),
+                task.getDuration());
+    }
+
+    @Override
+    public Epic creationEpic(Epic epic) {
+        return new Epic(epic.getName(), epic.getStatus(), epic.getDescription(), epic.getStartTime(),
+                epic.getDuration());
+    }
+
+    @Override
+    public Subtask creationSubtask(Subtask subtask) {
+        boolean timed = lockTimeline(subtask.getStartTime() != null);
+        try {
+            tasksWithoutIntersectionsInTime(subtask);
+        } finally {
+            unlockTimeline(timed);
+        }
+        return new Subtask(subtask.getName(), subtask.getStatus(), subtask.getDescription(),
+                subtask.getStartTime(), subtask.getDuration(), subtask.getEpicID());
+    }
+
+    @Override
+    public Set<Task> getPrioritizedTasks() {
+        return prioritizedTasks;
+    }
+
+    @Override
+    public List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to) {
+        return timeline.overlapping(from, to);
+    }
+
+    @Override
+    public LocalDateTime findFreeSlot(LocalDateTime after, long duration) {
+        return timeline.firstFreeStart(after, duration, TaskIntervalTree.NONE);
+    }
+
+    @Override
+    public List<LocalDateTime> findFreeSlots(LocalDateTime after, long duration, LocalDateTime horizon, int count) {
+        return timeline.freeStarts(after, duration, horizon, count, TaskIntervalTree.NONE);
+    }
+
+    @Override
+    public boolean addDependency(int predecessorId, int successorId) {
+        lockAllEpics(); // задачи и подзадачи меняются и удаляются только под своей полосой
+        try {
+            return dependencies.add(dependencyNode(predecessorId), dependencyNode(successorId));
+        } finally {
+            unlockAllEpics();
+        }
+    }
+
+    @Override
+    public boolean removeDependency(int predecessorId, int successorId) {
+        return dependencies.remove(predecessorId, successorId);
+    }
+
+    @Override
+    public List<Integer> getDependencies(int id) {
+        return dependencies.predecessors(id);
+    }
+
+    @Override
+    public LocalDateTime getEarliestStart(int id) { // граф связей синхронизирован сам
+        Task task = tasks.get(id);
+        if (task == null) {
+            task = subtasks.get(id);
+        }
+        return task == null ? null : dependencies.earliestStart(task);
+    }
+
+    @Override
+    public EpicSchedule getEpicSchedule(int epicId) {
+        List<Subtask> epicSubtasks = subtaskList(epicId);
+        return epicSubtasks == null ? null : dependencies.schedule(epicSubtasks);
+    }
+
+    private Task dependencyNode(int id) { // вызывается под всеми полосами
+        Task task = tasks.containsKey(id) ? tasks.get(id) : subtasks.get(id);
+        if (task == null) {
+            throw new IllegalArgumentException("Задача или подзадача " + id + " не найдена");
+        }
+        return task;
+    }
+
+    // полосы обоих эпиков захвачены
+    private long updateSubtaskLocked(Subtask subtask, Subtask oldSubtask, long expectedVersion) {
+        Epic epic = epics.get(subtask.getEpicID());
+        if (oldSubtask == null || epic == null) {
+            return -1;
+        }
+        InMemoryTaskManager.checkVersion(oldSubtask, expectedVersion);
+        boolean timed = lockTimeline(touchesTimeline(subtask));
+        try {
+            tasksWithoutIntersectionsInTime(subtask, subtask.getId());
+            subtask.setVersion(oldSubtask.getVersion() + 1);
+            subtasks.put(subtask.getId(), subtask);
+            index(TaskType.SUBTASK, subtask);
+            addToPrioritizedTasks(subtask);
+        } finally {
+            unlockTimeline(timed);
+        }
+        if (oldSubtask == subtask) { // подзадача изменена на месте, прежние статус и время неизвестны
+            recountEpicRollups(epic);
+        } else {
+            Epic oldEpic = epics.get(oldSubtask.getEpicID());
+            if (oldEpic != null) {
+                removeSubtaskRollups(oldEpic, oldSubtask);
+            }
+            if (oldEpic != epic) {
+                if (oldEpic != null) {
+                    unlinkSubtask(oldEpic, subtask.getId());
+                    changeEpicStatusAndTime(oldEpic);
+                }
+                linkSubtask(epic, subtask);
+            }
+            addSubtaskRollups(epic, subtask);
+        }
+        changeEpicStatusAndTime(epic);
+        return subtask.getVersion();
+    }
+
+    // вызывается под timelineLock, если у задачи есть время начала: без него дерево не читается
+    private void tasksWithoutIntersectionsInTime(Task task) {
+        tasksWithoutIntersectionsInTime(task, 0);
+    }
+
+    // при обновлении прежний интервал задачи ignoredId не мешает: он не вынимается из шкалы,
+    // чтобы читатели без блокировки не застали задачу пропавшей
+    private void tasksWithoutIntersectionsInTime(Task task, int ignoredId) {
+        if (intervalTree.intersects(task, ignoredId)) { // заодно проверяет правило повторения
+            throw new ManagerIntersectionsException("Произошло наложение задач по времени!");
+        }
+    }
+
+    // вызывается под полосой задачи и, если touchesTimeline, под timelineLock: дерево шкалы меняется,
+    // только когда время начала есть у новой или у прежней версии задачи
+    private void addToPrioritizedTasks(Task task) {
+        boolean wasTimed = prioritizedTasks.isTimed(task.getId());
+        prioritizedTasks.put(task);
+        if (wasTimed || task.getStartTime() != null) {
+            intervalTree.add(task);
+            timeline = intervalTree.view();
+        }
+    }
+
+    private void removeFromPrioritizedTasks(int id) {
+        boolean wasTimed = prioritizedTasks.isTimed(id);
+        prioritizedTasks.remove(id);
+        if (wasTimed) {
+            intervalTree.remove(id);
+            timeline = intervalTree.view();
+        }
+    }
+
+    // меняет ли запись задачи временную шкалу: время начала есть у новой версии или было у записанной
+    private boolean touchesTimeline(Task task) {
+        return task.getStartTime() != null || prioritizedTasks.isTimed(task.getId());
+    }
+
+    private boolean lockTimeline(boolean needed) {
+        if (needed) {
+            timelineLock.lock();
+        }
+        return needed;
+    }
+
+    private void unlockTimeline(boolean locked) {
+        if (locked) {
+            timelineLock.unlock();
+        }
+    }
+
+    private static <T extends Task> List<T> page(ConcurrentNavigableMap<Integer, T> store, int after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
+        }
+        List<T> page = new ArrayList<>(Math.min(limit, 1024));
+        for (T task : store.tailMap(after, false).values()) { // слабо согласованный обход, O(log n + limit)
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(task);
+        }
+        return page;
+    }
+
+    private void addToHistory(Map<Integer, ? extends Task> store, Task task) {
+        synchronized (historyManager) {
+            if (store.containsKey(task.getId())) { // задачу могли удалить между чтением и записью в историю
+                historyManager.add(task);
+            }
+        }
+    }
+
+    private void removeFromHistory(int id) {
+        synchronized (historyManager) {
+            historyManager.remove(id);
+        }
+    }
+
+    private void addSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.increaseStatusCounter(subtask.getStatus());
+        epic.addSubtaskTime(subtask);
+    }
+
+    private void removeSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.decreaseStatusCounter(subtask.getStatus());
+        epic.removeSubtaskTime(subtask);
+    }
+
+    private void recountEpicRollups(Epic epic) {
+        epic.clearStatusCounters();
+        epic.clearSubtasksTime();
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            Subtask subtask = subtasks.get(subtaskIds.getInt(i));
+            if (subtask != null) {
+                addSubtaskRollups(epic, subtask);
+            }
+        }
+    }
+
+    private void index(TaskType type, Task task) {
+        statusIndex.update(type, task);
+        textIndex.update(task);
+        if (type != TaskType.EPIC) {
+            dependencies.update(task);
+            statsIndex.update(task);
+        }
+    }
+
+    private void unindex(int id) {
+        statusIndex.remove(id);
+        textIndex.remove(id);
+        dependencies.remove(id);
+        statsIndex.remove(id);
+    }
+
+    private void changeEpicStatusAndTime(Epic epic) {
+        epic.setStatus(epic.calculateStatus());
+        statusIndex.update(TaskType.EPIC, epic); // название не менялось, текстовый индекс не трогаем
+        InMemoryTaskManager.applyEpicTime(epic);
+        publishEpic(epic);
+    }
+
+    private int stripe(int epicId) {
+        return (epicId ^ (epicId >>> 16)) & (EPIC_LOCK_STRIPES - 1);
+    }
+
+    // Эпик меняется на месте под блокировкой полосы, поэтому наружу выдаётся копия из его опубликованного вида:
+    // чтение не ждёт записи. Запись публикует копию без списка подзадач, O(1), и меняет неизменяемое
+    // множество id подзадач, O(log k); список целиком собирается только при чтении, null - эпик удалён
+    private Epic epicCopy(int epicId) {
+        EpicView view = epicViews.get(epicId);
+        return view == null ? null : view.epic.withSubtasks(view.subtaskIds.values());
+    }
+
+    private void publishEpic(Epic epic) { // под полосой эпика
+        EpicView view = epicViews.get(epic.getId());
+        epicViews.put(epic.getId(), new EpicView(epic.rollupCopy(),
+                view == null ? subtaskIds(epic.getSubtasks()) : view.subtaskIds));
+    }
+
+    private void linkSubtask(Epic epic, Subtask subtask) {
+        epic.addIdOfSubtasks(subtask);
+        EpicView view = epicViews.get(epic.getId());
+        epicViews.put(epic.getId(), view == null ? new EpicView(epic.rollupCopy(), subtaskIds(epic.getSubtasks()))
+                : new EpicView(view.epic, view.subtaskIds.put(subtask.getId(), subtask.getId())));
+    }
+
+    private void unlinkSubtask(Epic epic, int subtaskId) {
+        epic.removeIdOfSubtasks(subtaskId);
+        EpicView view = epicViews.get(epic.getId());
+        if (view != null) {
+            epicViews.put(epic.getId(), new EpicView(view.epic, view.subtaskIds.remove(subtaskId)));
+        }
+    }
+
+    private static PersistentTreeMap<Integer, Integer> subtaskIds(IntList ids) {
+        PersistentTreeMap<Integer, Integer> result = NO_SUBTASKS;
+        for (int i = 0; i < ids.size(); i++) {
+            result = result.put(ids.getInt(i), ids.getInt(i));
+        }
+        return result;
+    }
+
+    private ReentrantLock epicLock(int epicId) {
+        return epicLocks[stripe(epicId)];
+    }
+
+    private void lockAllEpics() {
+        for (ReentrantLock lock : epicLocks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAllEpics() {
+        for (int i = epicLocks.length - 1; i >= 0; i--) {
+            epicLocks[i].unlock();
+        }
+    }
+
+    // опубликованное состояние эпика: копия без списка подзадач и неизменяемое множество их id
+    private static final class EpicView {
+        final Epic epic;
+        final PersistentTreeMap<Integer, Integer> subtaskIds;
+
+        EpicView(Epic epic, PersistentTreeMap<Integer, Integer> subtaskIds) {
+            this.epic = epic;
+            this.subtaskIds = subtaskIds;
+        }
+    }
+}
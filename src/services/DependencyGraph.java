@@ -0,0 +1,321 @@
+package services;
+
+import entity.IntList;
+import entity.Task;
+import exception.ManagerCycleException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+// Граф зависимостей "последователь не начинается раньше окончания предшественника" между задачами и подзадачами.
+// Топологический порядок поддерживается инкрементально (Pearce-Kelly): новое ребро против порядка переупорядочивает
+// только узлы между его концами, там же обнаруживается цикл. Раннее начало узла - максимум из его собственного
+// начала и окончаний предшественников; после изменения оно пересчитывается только вниз по графу в порядке
+// топологии и останавливается на узлах, чьё раннее начало не изменилось.
+// В графе только задачи, у которых есть связи. Методы синхронизированы: граф общий и для ConcurrentTaskManager.
+class DependencyGraph {
+
+    private static final Comparator<Node> TOPOLOGICAL_ORDER = Comparator.comparingInt(node -> node.order);
+
+    private final IntHashMap<Node> nodes = new IntHashMap<>();
+    private int nextOrder;
+    private int stamp; // метка обхода, чтобы не сбрасывать отметки узлов
+
+    synchronized boolean add(Task predecessor, Task successor) {
+        if (predecessor.getId() == successor.getId()) {
+            throw new ManagerCycleException("Задача " + predecessor.getId() + " не может зависеть от себя");
+        }
+        Node from = node(predecessor);
+        Node to = node(successor);
+        if (from.successors.containsInt(to.id)) {
+            return false;
+        }
+        if (from.order > to.order) {
+            reorder(from, to);
+        }
+        from.successors.addInt(to.id);
+        to.predecessors.addInt(from.id);
+        propagate(to, false);
+        return true;
+    }
+
+    synchronized boolean remove(int predecessorId, int successorId) {
+        Node from = nodes.get(predecessorId);
+        Node to = nodes.get(successorId);
+        if (from == null || to == null || !from.successors.removeInt(successorId)) {
+            return false;
+        }
+        to.predecessors.removeInt(predecessorId);
+        propagate(to, false);
+        return true;
+    }
+
+    synchronized void update(Task task) { // новое время задачи сдвигает ранние начала последователей
+        Node node = nodes.get(task.getId());
+        if (node == null || (Objects.equals(node.start, task.getStartTime()) && node.duration == task.getDuration())) {
+            return;
+        }
+        node.start = task.getStartTime();
+        node.duration = task.getDuration();
+        propagate(node, true);
+    }
+
+    synchronized void remove(int id) { // задача удалена вместе со всеми связями
+        Node node = nodes.remove(id);
+        if (node == null) {
+            return;
+        }
+        for (int i = 0; i < node.predecessors.size(); i++) {
+            nodes.get(node.predecessors.getInt(i)).successors.removeInt(id);
+        }
+        for (int i = 0; i < node.successors.size(); i++) {
+            Node successor = nodes.get(node.successors.getInt(i));
+            successor.predecessors.removeInt(id);
+            propagate(successor, false);
+        }
+    }
+
+    synchronized List<Integer> predecessors(int id) {
+        Node node = nodes.get(id);
+        return node == null ? new ArrayList<>() : new ArrayList<>(node.predecessors);
+    }
+
+    synchronized List<Integer> successors(int id) {
+        Node node = nodes.get(id);
+        return node == null ? new ArrayList<>() : new ArrayList<>(node.successors);
+    }
+
+    synchronized boolean contains(int id) { // есть ли у задачи связи
+        return nodes.containsKey(id);
+    }
+
+    synchronized LocalDateTime earliestStart(Task task) {
+        Node node = nodes.get(task.getId());
+        return node == null ? task.getStartTime() : node.earliest;
+    }
+
+    // резерв и критический путь по связям внутри эпика, O(k log k + e) для k подзадач и e связей между ними
+    synchronized EpicSchedule schedule(List<? extends Task> subtasks) {
+        List<Task> ordered = new ArrayList<>(subtasks);
+        ordered.sort(Comparator.comparingInt(task -> {
+            Node node = nodes.get(task.getId());
+            return node == null ? -1 : node.order;
+        }));
+        int size = ordered.size();
+        IntHashMap<Integer> positions = new IntHashMap<>(size);
+        LocalDateTime[] earliest = new LocalDateTime[size];
+        LocalDateTime finish = null;
+        for (int i = 0; i < size; i++) {
+            Task task = ordered.get(i);
+            positions.put(task.getId(), i);
+            earliest[i] = earliestStart(task);
+            if (earliest[i] != null) {
+                LocalDateTime end = earliest[i].plusMinutes(task.getDuration());
+                if (finish == null || end.isAfter(finish)) {
+                    finish = end;
+                }
+            }
+        }
+
+        LocalDateTime[] latest = new LocalDateTime[size];
+        long[] slack = new long[size];
+        for (int i = size - 1; i >= 0; i--) { // позднее окончание - в обратном топологическом порядке
+            if (earliest[i] == null) {
+                continue;
+            }
+            Task task = ordered.get(i);
+            LocalDateTime latestFinish = finish;
+            Node node = nodes.get(task.getId());
+            if (node != null) {
+                for (int s = 0; s < node.successors.size(); s++) {
+                    Integer position = positions.get(node.successors.getInt(s));
+                    if (position != null && latest[position] != null && latest[position].isBefore(latestFinish)) {
+                        latestFinish = latest[position];
+                    }
+                }
+            }
+            latest[i] = latestFinish.minusMinutes(task.getDuration());
+            slack[i] = Duration.between(earliest[i], latest[i]).toMinutes();
+        }
+
+        Map<Integer, LocalDateTime> earliestStarts = new LinkedHashMap<>();
+        Map<Integer, Long> slackById = new LinkedHashMap<>();
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            if (earliest[i] == null) {
+                continue;
+            }
+            earliestStarts.put(ordered.get(i).getId(), earliest[i]);
+            slackById.put(ordered.get(i).getId(), slack[i]);
+            if (slack[i] == 0 && earliest[i].plusMinutes(ordered.get(i).getDuration()).equals(finish)) {
+                last = i;
+            }
+        }
+
+        List<Integer> criticalPath = new ArrayList<>();
+        for (int i = last; i >= 0; ) { // назад по предшественникам, окончание которых определило раннее начало
+            criticalPath.add(ordered.get(i).getId());
+            Node node = nodes.get(ordered.get(i).getId());
+            int next = -1;
+            for (int p = 0; node != null && p < node.predecessors.size(); p++) {
+                Integer position = positions.get(node.predecessors.getInt(p));
+                if (position != null && earliest[position] != null && slack[position] == 0
+                        && earliest[position].plusMinutes(ordered.get(position).getDuration()).equals(earliest[i])) {
+                    next = position;
+                    break;
+                }
+            }
+            i = next;
+        }
+        Collections.reverse(criticalPath);
+        return new EpicSchedule(earliestStarts, slackById, criticalPath, finish);
+    }
+
+    OrderedIntHashMap.Listener<Task> listener() {
+        return new StoreListener();
+    }
+
+    private Node node(Task task) {
+        Node node = nodes.get(task.getId());
+        if (node == null) {
+            node = new Node(task.getId(), nextOrder++);
+            node.start = task.getStartTime();
+            node.duration = task.getDuration();
+            node.earliest = task.getStartTime();
+            nodes.put(node.id, node);
+        }
+        return node;
+    }
+
+    // ребро from -> to против порядка: узлы, достижимые из to и стоящие не дальше from, переносятся
+    // за узлы, из которых достижим from и стоящие не раньше to; остальной порядок не меняется
+    private void reorder(Node from, Node to) {
+        List<Node> forward = new ArrayList<>();
+        int forwardMark = ++stamp;
+        Deque<Node> stack = new ArrayDeque<>();
+        to.visit = forwardMark;
+        stack.push(to);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            forward.add(node);
+            for (int i = 0; i < node.successors.size(); i++) {
+                Node successor = nodes.get(node.successors.getInt(i));
+                if (successor == from) {
+                    throw new ManagerCycleException("Зависимость " + from.id + " -> " + to.id + " создаёт цикл");
+                }
+                if (successor.visit != forwardMark && successor.order < from.order) {
+                    successor.visit = forwardMark;
+                    stack.push(successor);
+                }
+            }
+        }
+
+        List<Node> backward = new ArrayList<>();
+        int backwardMark = ++stamp;
+        from.visit = backwardMark;
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            backward.add(node);
+            for (int i = 0; i < node.predecessors.size(); i++) {
+                Node predecessor = nodes.get(node.predecessors.getInt(i));
+                if (predecessor.visit != backwardMark && predecessor.order > to.order) {
+                    predecessor.visit = backwardMark;
+                    stack.push(predecessor);
+                }
+            }
+        }
+
+        forward.sort(TOPOLOGICAL_ORDER);
+        backward.sort(TOPOLOGICAL_ORDER);
+        int[] orders = new int[forward.size() + backward.size()];
+        int k = 0;
+        for (Node node : backward) {
+            orders[k++] = node.order;
+        }
+        for (Node node : forward) {
+            orders[k++] = node.order;
+        }
+        Arrays.sort(orders);
+        k = 0;
+        for (Node node : backward) {
+            node.order = orders[k++];
+        }
+        for (Node node : forward) {
+            node.order = orders[k++];
+        }
+    }
+
+    // каждый узел обрабатывается один раз: все его изменённые предшественники стоят раньше в порядке
+    private void propagate(Node start, boolean finishChanged) {
+        PriorityQueue<Node> queue = new PriorityQueue<>(TOPOLOGICAL_ORDER);
+        int mark = ++stamp;
+        start.visit = mark;
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            LocalDateTime earliest = node.start;
+            for (int i = 0; i < node.predecessors.size(); i++) {
+                Node predecessor = nodes.get(node.predecessors.getInt(i));
+                if (predecessor.earliest != null) {
+                    LocalDateTime predecessorFinish = predecessor.earliest.plusMinutes(predecessor.duration);
+                    if (earliest == null || predecessorFinish.isAfter(earliest)) {
+                        earliest = predecessorFinish;
+                    }
+                }
+            }
+            boolean changed = !Objects.equals(earliest, node.earliest);
+            node.earliest = earliest;
+            if (!changed && !(node == start && finishChanged)) {
+                continue;
+            }
+            for (int i = 0; i < node.successors.size(); i++) {
+                Node successor = nodes.get(node.successors.getInt(i));
+                if (successor.visit != mark) {
+                    successor.visit = mark;
+                    queue.add(successor);
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+        final int id;
+        int order; // позиция в топологическом порядке, уникальна
+        int visit;
+        LocalDateTime start;
+        long duration;
+        LocalDateTime earliest;
+        final IntList predecessors = new IntList();
+        final IntList successors = new IntList();
+
+        Node(int id, int order) {
+            this.id = id;
+            this.order = order;
+        }
+    }
+
+    private class StoreListener implements OrderedIntHashMap.Listener<Task> {
+
+        @Override
+        public void put(int key, Task value) {
+            update(value);
+        }
+
+        @Override
+        public void removed(int key) {
+            remove(key);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package services;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+// Расчёт сетевого графика подзадач эпика: раннее начало и резерв в минутах по id подзадачи
+// (в топологическом порядке), критический путь от первой подзадачи до последней и окончание эпика.
+// Подзадачи без времени начала и без предшественников со временем в расчёт не попадают.
+public final class EpicSchedule {
+
+    private final Map<Integer, LocalDateTime> earliestStarts;
+    private final Map<Integer, Long> slack;
+    private final List<Integer> criticalPath;
+    private final LocalDateTime finish;
+
+    EpicSchedule(Map<Integer, LocalDateTime> earliestStarts, Map<Integer, Long> slack,
+                 List<Integer> criticalPath, LocalDateTime finish) {
+        this.earliestStarts = earliestStarts;
+        this.slack = slack;
+        this.criticalPath = criticalPath;
+        this.finish = finish;
+    }
+
+    public Map<Integer, LocalDateTime> getEarliestStarts() {
+        return earliestStarts;
+    }
+
+    public Map<Integer, Long> getSlack() {
+        return slack;
+    }
+
+    public List<Integer> getCriticalPath() {
+        return criticalPath;
+    }
+
+    public LocalDateTime getFinish() {
+        return finish;
+    }
+}
@@ -15,9 +15,14 @@ import java.util.*;
 public class FileBackedTasksManager extends InMemoryTaskManager {
 
     private static final String TOP_STRING = "id,type,name,status,description,startTime,duration,epic";
+    // в заголовке после колонок - последний выданный id: после загрузки нумерация продолжается с него, без
+    // поиска максимального id среди задач и без повторной выдачи id удалённых
+    private static final String LAST_ID = ",lastId=";
 
     private File file;
 
+    private boolean saveDeferred; // удаление эпика надгробием сохраняется, когда очистка дойдёт до конца
+
     private final static DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
 
     public FileBackedTasksManager(File file) {
@@ -28,10 +33,11 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
     public FileBackedTasksManager() {}
 
     public void save() {
+        saveDeferred = false;
 
         try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(file))) {
 
-            bufferedWriter.write(TOP_STRING + "\n");
+            bufferedWriter.write(TOP_STRING + LAST_ID + idAllocator.lastId() + "\n");
 
             for (Task task : getTasksList()) {
                 bufferedWriter.write(toStringTask(task) + "\n");
@@ -62,8 +68,8 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         int id = Integer.parseInt(arTask[0]);
         TaskType taskType = TaskType.valueOf(arTask[1]);
         TaskStatus taskStatus = TaskStatus.valueOf(arTask[3]);
-        String name = arTask[2];
-        String description = arTask[4];
+        String name = StringPool.shared().canonical(arTask[2]);
+        String description = StringPool.shared().canonical(arTask[4]);
         LocalDateTime startTime = LocalDateTime.parse(arTask[5], FORMATTER);
         long duration = Long.parseLong(arTask[6]);
         Task task = null;
@@ -71,6 +77,10 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         switch (taskType) {
             case TASK:
                 task = new Task(name, taskStatus, description, startTime, duration);
+                if (arTask.length > 8) {
+                    task.setRecurrence(new Recurrence(Long.parseLong(arTask[8]),
+                            arTask.length > 9 ? LocalDateTime.parse(arTask[9], FORMATTER) : null));
+                }
                 break;
 
             case EPIC:
@@ -118,6 +128,11 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
 
         try {
             stringList = Files.readAllLines(file.toPath());
+            boolean scanIds = true; // файл без отметки в заголовке - максимальный id ищется по задачам
+            if (!stringList.isEmpty() && stringList.get(0).startsWith(TOP_STRING + LAST_ID)) {
+                newID = Integer.parseInt(stringList.get(0).substring(TOP_STRING.length() + LAST_ID.length()));
+                scanIds = false;
+            }
 
             for (int i = 1; i < stringList.size(); i++) {
                 String line = stringList.get(i);
@@ -132,6 +147,7 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
 
                 if (TaskType.TASK == task.getTaskType()) {
                     manager.tasks.put(task.getId(), task);
+                    manager.addToPrioritizedTasks(task); // шкала и индекс повторений, как при saveTask
                 }
                 if (TaskType.EPIC == task.getTaskType()) {
                     Epic epic = (Epic) task;
@@ -140,14 +156,16 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
                 if (TaskType.SUBTASK == task.getTaskType()) {
                     Subtask subtask = (Subtask) task;
                     manager.subtasks.put(subtask.getId(), subtask);
+                    manager.addToPrioritizedTasks(subtask);
 
                     if (!manager.epics.isEmpty()) {
                         Epic epicInSub = manager.epics.get(subtask.getEpicID());
-                        epicInSub.getSubtasks().add(subtask.getId());
+                        epicInSub.addIdOfSubtasks(subtask);
+                        manager.addSubtaskRollups(epicInSub, subtask);
                     }
                 }
 
-                if (task.getId() > newID) {
+                if (scanIds && task.getId() > newID) {
                     newID = task.getId();
                 }
             }
@@ -162,7 +180,7 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
                 }
             }
 
-            manager.idNumber = newID;
+            manager.idAllocator = BlockIdAllocator.startingAfter(newID);
             return manager;
 
         } catch (IOException exception) {
@@ -191,6 +209,13 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         return id;
     }
 
+    @Override
+    public List<Integer> saveAll(Collection<? extends Task> batch) {
+        List<Integer> ids = super.saveAll(batch);
+        save();
+        return ids;
+    }
+
     @Override
     public void deleteTasks() {
         super.deleteTasks();
@@ -200,7 +225,7 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
     @Override
     public void deleteEpics() {
         super.deleteEpics();
-        save();
+        saveOrDefer();
     }
 
     @Override
@@ -252,24 +277,24 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
     }
 
     @Override
-    public int updateTask(Task task) {
-        int id = super.updateTask(task);
+    public long updateTask(Task task, long expectedVersion) { // обновление без версии приходит сюда же
+        long version = super.updateTask(task, expectedVersion);
         save();
-        return id;
+        return version;
     }
 
     @Override
-    public int updateEpic(Epic epic) {
-        int id = super.updateEpic(epic);
+    public long updateEpic(Epic epic, long expectedVersion) {
+        long version = super.updateEpic(epic, expectedVersion);
         save();
-        return id;
+        return version;
     }
 
     @Override
-    public int updateSubtask(Subtask subtask) {
-        int id = super.updateSubtask(subtask);
+    public long updateSubtask(Subtask subtask, long expectedVersion) {
+        long version = super.updateSubtask(subtask, expectedVersion);
         save();
-        return id;
+        return version;
     }
 
     @Override
@@ -282,7 +307,7 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
     @Override
     public Epic deleteEpicById(int idNumber) {
         Epic epic = super.deleteEpicById(idNumber);
-        save();
+        saveOrDefer();
         return epic;
     }
 
@@ -292,4 +317,39 @@ public class FileBackedTasksManager extends InMemoryTaskManager {
         save();
         return subtask;
     }
+
+    @Override
+    public int compactTombstones(int batchSize) {
+        int visited = super.compactTombstones(batchSize);
+        if (saveDeferred && !hasTombstones()) {
+            save();
+        }
+        return visited;
+    }
+
+    private void saveOrDefer() {
+        if (isDeferredDeletes()) {
+            saveDeferred = true;
+        } else {
+            save();
+        }
+    }
+
+    @Override
+    public boolean undo() {
+        boolean undone = super.undo();
+        if (undone) {
+            save();
+        }
+        return undone;
+    }
+
+    @Override
+    public boolean redo() {
+        boolean redone = super.redo();
+        if (redone) {
+            save();
+        }
+        return redone;
+    }
 }
@@ -8,10 +8,14 @@ import servers.KVTaskClient;
 import servers.adapters.FileAdapter;
 import servers.adapters.HistoryManagerAdapter;
 import servers.adapters.LocalDateTimeAdapter;
+import servers.adapters.PooledStringAdapter;
 
 import java.io.File;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class HttpTaskManager extends FileBackedTasksManager {
@@ -20,34 +24,72 @@ public class HttpTaskManager extends FileBackedTasksManager {
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
             .registerTypeAdapter(File.class, new FileAdapter())
             .registerTypeAdapter(HistoryManager.class, new HistoryManagerAdapter())
+            .registerTypeAdapter(String.class, new PooledStringAdapter(StringPool.shared()))
             .serializeNulls().create();
+    private static final String ID_LEASE_KEY = "ids";
     private final String key;
     private final String url;
+    // save() только сериализует состояние, а отправку в KVServer можно отложить до flush(): тогда сетевой
+    // обмен идёт вне блокировки, под которой меняют менеджер. Отправляется всегда последнее состояние
+    private final AtomicReference<Map<String, String>> pendingState = new AtomicReference<>();
+    private final Object flushLock = new Object();
+    private volatile boolean deferredFlush;
 
     public HttpTaskManager(String url, String key) {
         this.url = url;
         this.key = key;
+        // id арендуются блоками у KVServer: экземпляры на одном сервере не пересекаются, а после
+        // перезапуска нумерация продолжается с нового блока без поиска максимального id среди задач
+        idAllocator = new BlockIdAllocator(count -> new KVTaskClient(url).lease(ID_LEASE_KEY, count),
+                BlockIdAllocator.DEFAULT_BLOCK_SIZE);
     }
 
     @Override
     public void save() {
-        KVTaskClient taskClient = new KVTaskClient(url);
-        taskClient.put("task", gson.toJson(tasks.values()));
-        taskClient.put("subtask", gson.toJson(subtasks.values()));
-        taskClient.put("epic", gson.toJson(epics.values()));
-        taskClient.put("tasks", gson.toJson(getPrioritizedTasks()));
+        Map<String, String> state = new LinkedHashMap<>();
+        state.put("task", gson.toJson(tasks.values()));
+        state.put("subtask", gson.toJson(getSubtaskList())); // без подзадач удалённых эпиков
+        state.put("epic", gson.toJson(epics.values()));
+        state.put("tasks", gson.toJson(getPrioritizedTasks()));
         List<Integer> historyIds = getHistory()
                 .stream()
                 .map(Task::getId)
                 .collect(Collectors.toList());
-        taskClient.put("history", gson.toJson(historyIds));
+        state.put("history", gson.toJson(historyIds));
+        pendingState.set(state);
+        if (!deferredFlush) {
+            flush();
+        }
+    }
+
+    // true - save() не отправляет состояние сам, его отправляет flush() вызывающего
+    public void setDeferredFlush(boolean deferredFlush) {
+        this.deferredFlush = deferredFlush;
+    }
+
+    // отправляет последнее сохранённое состояние, если оно ещё не отправлено; потокобезопасен
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, String> state = pendingState.getAndSet(null);
+            if (state == null) {
+                return;
+            }
+            KVTaskClient taskClient = new KVTaskClient(url);
+            for (Map.Entry<String, String> entry : state.entrySet()) {
+                taskClient.put(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     public void load() {
         loadTasks("task");
         loadTasks("subtask");
         loadTasks("epic");
+        for (Epic epic : epics.values()) {
+            recountEpicRollups(epic);
+        }
         loadHistry();
+        journal.clear(); // загрузка идёт мимо журнала, отменять через неё нечего
     }
 
     private void loadTasks(String key) {
@@ -61,10 +103,12 @@ public class HttpTaskManager extends FileBackedTasksManager {
                 case "task":
                     task = gson.fromJson(element.getAsJsonObject(), Task.class);
                     tasks.put(task.getId(), task);
+                    addToPrioritizedTasks(task); // шкала и индекс повторений, как при saveTask
                     break;
                 case "subtask":
                     subtask = gson.fromJson(element.getAsJsonObject(), Subtask.class);
                     subtasks.put(subtask.getId(), subtask);
+                    addToPrioritizedTasks(subtask);
                     break;
                 case "epic":
                     epic = gson.fromJson(element.getAsJsonObject(), Epic.class);
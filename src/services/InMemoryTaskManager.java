@@ -1,54 +1,115 @@
 package services;
 
 import entity.Epic;
+import entity.IntList;
 import entity.Subtask;
 import entity.Task;
 import entity.TaskStatus;
+import entity.TaskType;
 import exception.ManagerIntersectionsException;
+import exception.ManagerVersionConflictException;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.IntPredicate;
 
 public class InMemoryTaskManager implements TaskManager {
 
-    protected HashMap<Integer, Task> tasks = new HashMap<>();
-    protected HashMap<Integer, Epic> epics = new HashMap<>();
-    protected HashMap<Integer, Subtask> subtasks = new HashMap<>();
-    protected int idNumber = 0;
+    protected OrderedIntHashMap<Task> tasks = new OrderedIntHashMap<>();
+    protected OrderedIntHashMap<Epic> epics = new OrderedIntHashMap<>();
+    protected OrderedIntHashMap<Subtask> subtasks = new OrderedIntHashMap<>();
+    protected BlockIdAllocator idAllocator = BlockIdAllocator.startingAfter(0);
 
     protected final HistoryManager historyManager = Managers.getDefaultHistory();
 
-    protected final Set<Task> prioritizedTasks = new TreeSet<>((task1, task2) -> {
+    private static final Subtask[] NO_SUBTASKS = new Subtask[0];
+
+    static final Comparator<Task> PRIORITY_ORDER = (task1, task2) -> {
         if ((task1.getStartTime() != null) && (task2.getStartTime() != null)) {
-            return task1.getStartTime().compareTo(task2.getStartTime());
-        } else if (task1.getStartTime() == null) {
-            return 1;
-        } else if (task2.getStartTime() == null) {
+            int byStartTime = TaskIntervalTree.compareTimes(task1.getStartMinute(), task1.getStartTime(),
+                    task2.getStartMinute(), task2.getStartTime());
+            if (byStartTime != 0) {
+                return byStartTime;
+            }
+        } else if (task1.getStartTime() != null) {
             return -1;
-        } else {
-            return 0;
+        } else if (task2.getStartTime() != null) {
+            return 1;
         }
-    });
+        return Integer.compare(task1.getId(), task2.getId()); // задачи с одинаковым началом не схлопываются
+    };
+
+    protected final TimelineSet prioritizedTasks = TimelineSet.sorted();
+
+    protected final TaskIntervalTree intervalTree = new TaskIntervalTree();
+
+    protected boolean epicConsistencyCheck = false; // сверять статус и время эпиков с подзадачами (для тестов)
+
+    protected final StatusIndex statusIndex = new StatusIndex();
+    protected final TextIndex textIndex = new TextIndex();
+    protected final DependencyGraph dependencies = new DependencyGraph();
+    protected final StatsIndex statsIndex = new StatsIndex();
+
+    private IntList changedIds; // id, изменённые после последнего снимка; null, пока снимки не включены
+    private volatile TaskManagerSnapshot publishedSnapshot; // читается из любого потока без блокировок
+
+    protected final TaskEventBus events = new TaskEventBus(TaskEventBus.DEFAULT_CAPACITY);
+    protected final OperationJournal journal = new OperationJournal();
+    private IntHashMap<Epic> publishedEpics; // последняя опубликованная копия эпика; null, пока лента выключена
+
+    // Надгробия: при отложенном удалении эпик убирается из хранилища сразу, а его подзадачи остаются в индексах,
+    // истории и хранилище, пока их не вычистит compactTombstones. Подзадача без живого эпика считается удалённой
+    private boolean deferredDeletes;
+    private final ArrayDeque<Epic> tombstones = new ArrayDeque<>();
+    private int purgeCursor; // позиция в списке подзадач первого эпика очереди
+    private final int[] ghostCounts = new int[TaskStatus.values().length]; // невычищенные подзадачи по статусам
+    private final IntPredicate ghosts = this::isGhost;
+
+    public InMemoryTaskManager() {
+        tasks.addListener(statusIndex.listener(TaskType.TASK));
+        epics.addListener(statusIndex.listener(TaskType.EPIC));
+        subtasks.addListener(statusIndex.listener(TaskType.SUBTASK));
+        tasks.addListener(textIndex.listener());
+        epics.addListener(textIndex.listener());
+        subtasks.addListener(textIndex.listener());
+        tasks.addListener(dependencies.listener());
+        subtasks.addListener(dependencies.listener());
+        tasks.addListener(statsIndex.listener());
+        subtasks.addListener(statsIndex.listener());
+    }
 
     protected int id(Task task) {
-        task.setId(++idNumber);
-        return idNumber;
+        int id = idAllocator.next();
+        task.setId(id);
+        task.setVersion(1);
+        return id;
     }
 
     @Override
     public int saveTask(Task task) {
         tasksWithoutIntersectionsInTime(task);
-        task.setId(++idNumber);
+        id(task);
         tasks.put(task.getId(), task);
-        prioritizedTasks.add(task);
+        addToPrioritizedTasks(task);
+        publish(TaskEvent.Kind.CREATED, null, task);
+        record(null, task);
+        publishSnapshot();
         return task.getId();
     }
 
     @Override
     public int saveEpic(Epic epic) {
-        epic.setId(++idNumber);
+        id(epic);
         epics.put(epic.getId(), epic);
+        recountEpicRollups(epic);
         changeEpicStatus(epic);
+        publishEpic(TaskEvent.Kind.CREATED, epic);
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            entry.epic(null, epic, NO_SUBTASKS);
+            journal.commit(entry);
+        }
+        publishSnapshot();
         return epic.getId();
     }
 
@@ -60,13 +121,81 @@ public class InMemoryTaskManager implements TaskManager {
         if (epic != null) {
             subtasks.put(id(subtask), subtask);
             epic.addIdOfSubtasks(subtask);
+            addSubtaskRollups(epic, subtask);
             changeEpicStatus(epic);
             timeChangeEpic(epic);
-            prioritizedTasks.add(subtask);
+            addToPrioritizedTasks(subtask);
+            publish(TaskEvent.Kind.CREATED, null, subtask);
+            publishEpic(TaskEvent.Kind.UPDATED, epic, subtask.getId());
+            record(null, subtask);
+            publishSnapshot();
         }
         return subtask.getId();
     }
 
+    @Override
+    public List<Integer> saveAll(Collection<? extends Task> batch) { // всё или ничего
+        if (batch.isEmpty()) { // блок из нуля id не выделяется
+            return new ArrayList<>();
+        }
+        TaskBatch plan = new TaskBatch(batch, epics::get);
+        for (Task task : plan.timed) {
+            tasksWithoutIntersectionsInTime(task);
+        }
+        plan.assignIds(idAllocator.next(plan.items.size()));
+        Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Epic epic : plan.batchEpics) {
+            epics.put(epic.getId(), epic);
+            changedEpics.add(epic);
+        }
+        for (Task task : plan.items) {
+            if (!(task instanceof Epic) && !(task instanceof Subtask)) {
+                tasks.put(task.getId(), task);
+                addToPrioritizedTasks(task);
+            }
+        }
+        for (int i = 0; i < plan.subtasks.size(); i++) {
+            Subtask subtask = plan.subtasks.get(i);
+            Epic epic = plan.subtaskEpics.get(i);
+            subtasks.put(subtask.getId(), subtask);
+            epic.addIdOfSubtasks(subtask);
+            addSubtaskRollups(epic, subtask);
+            addToPrioritizedTasks(subtask);
+            changedEpics.add(epic);
+        }
+        for (Epic epic : changedEpics) { // статус и время каждого эпика пересчитываются один раз
+            changeEpicStatus(epic);
+            timeChangeEpic(epic);
+        }
+        if (publishedEpics != null) { // эпики пакета публикуются уже с пересчитанными статусом и временем
+            for (Task task : plan.items) {
+                if (task instanceof Epic) {
+                    changedEpics.remove(task);
+                    publishEpic(TaskEvent.Kind.CREATED, (Epic) task);
+                } else {
+                    publish(TaskEvent.Kind.CREATED, null, task);
+                }
+            }
+            for (Epic epic : changedEpics) {
+                publishEpic(TaskEvent.Kind.UPDATED, epic);
+            }
+        }
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) { // при отмене подзадачи отвязываются раньше, чем удаляются эпики пакета
+            for (Epic epic : plan.batchEpics) {
+                entry.epic(null, epic, NO_SUBTASKS);
+            }
+            for (Task task : plan.items) {
+                if (!(task instanceof Epic)) {
+                    entry.item(null, task);
+                }
+            }
+            journal.commit(entry);
+        }
+        publishSnapshot();
+        return plan.ids(batch);
+    }
+
     @Override
     public ArrayList<Task> getTasksList() {
         return new ArrayList<>(tasks.values());
@@ -79,49 +208,178 @@ public class InMemoryTaskManager implements TaskManager {
 
     @Override
     public ArrayList<Subtask> getSubtaskList() {
-        return new ArrayList<>(subtasks.values());
+        if (tombstones.isEmpty()) {
+            return new ArrayList<>(subtasks.values());
+        }
+        ArrayList<Subtask> result = new ArrayList<>(subtasks.size());
+        for (Subtask subtask : subtasks.values()) {
+            if (!isGhost(subtask)) {
+                result.add(subtask);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> getTasksPage(int after, int limit) {
+        return tasks.page(after, limit);
+    }
+
+    @Override
+    public List<Epic> getEpicsPage(int after, int limit) {
+        return epics.page(after, limit);
+    }
+
+    @Override
+    public List<Subtask> getSubtasksPage(int after, int limit) {
+        return subtasks.page(after, limit, ghosts());
+    }
+
+    @Override
+    public List<Task> getByStatus(TaskStatus status, TaskType type) {
+        int[] ids = statusIndex.ids(type, status);
+        List<Task> result = new ArrayList<>(ids.length);
+        IntHashMap<? extends Task> store = store(type);
+        for (int id : ids) {
+            Task task = store.get(id);
+            if (!(task instanceof Subtask) || !isGhost((Subtask) task)) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int countByStatus(TaskStatus status, TaskType type) {
+        int count = statusIndex.count(type, status);
+        return type == TaskType.SUBTASK ? count - ghostCounts[status.ordinal()] : count;
+    }
+
+    @Override
+    public List<Task> search(String query, int limit) {
+        int[] ids = textIndex.search(query, limit, ghosts());
+        List<Task> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Task task = tasks.get(id);
+            if (task == null) {
+                task = subtasks.get(id);
+            }
+            result.add(task == null ? epics.get(id) : task);
+        }
+        return result;
+    }
+
+    // счётчики из индекса статусов, минуты и просрочка из StatsIndex: O(1) плюс задачи, просроченные
+    // с прошлого запроса. Надгробия не вычищаются: их подзадачи вычтены из сводки при удалении эпика
+    @Override
+    public BoardStats getStats(LocalDateTime now) {
+        return new BoardStats(this::countByStatus, statsIndex.plannedMinutes(), statsIndex.overdue(now), now);
+    }
+
+    private IntHashMap<? extends Task> store(TaskType type) {
+        switch (type) {
+            case EPIC:
+                return epics;
+            case SUBTASK:
+                return subtasks;
+            default:
+                return tasks;
+        }
     }
 
     @Override
     public void deleteTasks() {
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            recordDependencies(entry, tasks.values());
+            for (Task task : tasks.values()) {
+                entry.item(task, null);
+            }
+        }
         for (Task task : tasks.values()) {
-            prioritizedTasks.remove(task);
+            removeFromPrioritizedTasks(task.getId());
             historyManager.remove(task.getId());
+            publish(TaskEvent.Kind.DELETED, task, null);
         }
         tasks.clear();
+        journal.commit(entry);
+        publishSnapshot();
     }
 
     @Override
     public void deleteEpics() {
-        for (Epic epic : epics.values()) {
-            prioritizedTasks.remove(epic);
-            historyManager.remove(epic.getId());
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            recordDependencies(entry, subtasks.values());
+            for (Epic epic : epics.values()) {
+                entry.epic(epic, null, subtasksOf(epic));
+            }
+        }
+        if (deferredDeletes) {
+            for (Epic epic : epics.values()) {
+                historyManager.remove(epic.getId());
+                tombstone(epic);
+            }
+            epics.clear();
+            journal.commit(entry);
+            publishSnapshot();
+            return;
         }
-        epics.clear();
-
         for (Subtask subtask : subtasks.values()) {
-            prioritizedTasks.remove(subtask);
-            historyManager.remove(subtask.getEpicID());
+            removeFromPrioritizedTasks(subtask.getId());
+            historyManager.remove(subtask.getId());
+            publish(TaskEvent.Kind.DELETED, subtask, null);
         }
         subtasks.clear();
+
+        for (Epic epic : epics.values()) {
+            removeFromPrioritizedTasks(epic.getId());
+            historyManager.remove(epic.getId());
+            publishEpic(TaskEvent.Kind.DELETED, epic);
+        }
+        epics.clear();
+        journal.commit(entry);
+        publishSnapshot();
     }
 
     @Override
-    public void deleteSubtasks() {
+    public void deleteSubtasks() { // невычищенные подзадачи удалённых эпиков уходят вместе со всеми, без событий
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            recordDependencies(entry, subtasks.values());
+            for (Subtask subtask : subtasks.values()) {
+                if (!isGhost(subtask)) {
+                    entry.item(subtask, null);
+                }
+            }
+        }
+        Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
         for (Subtask sub : subtasks.values()) {
-            prioritizedTasks.remove(sub);
+            removeFromPrioritizedTasks(sub.getId());
             historyManager.remove(sub.getId());
-            Subtask subtask = subtasks.get(sub.getId());
-            if (subtask != null) {
-                Epic epic = epics.get(subtask.getEpicID());
-                if (epic != null) {
-                    epic.getSubtasks().clear();
-                    changeEpicStatus(epic);
-                    timeChangeEpic(epic);
-                }
+            if (isGhost(sub)) {
+                continue;
             }
+            Epic epic = epics.get(sub.getEpicID());
+            if (epic != null) {
+                changedEpics.add(epic);
+            }
+            publish(TaskEvent.Kind.DELETED, sub, null);
         }
         subtasks.clear();
+        for (Epic epic : changedEpics) { // каждый эпик очищается и публикуется один раз, а не на каждую подзадачу
+            epic.getSubtasks().clear();
+            epic.clearStatusCounters();
+            epic.clearSubtasksTime();
+            changeEpicStatus(epic);
+            timeChangeEpic(epic);
+            publishEpic(TaskEvent.Kind.UPDATED, epic);
+        }
+        tombstones.clear(); // вычищать больше нечего
+        purgeCursor = 0;
+        Arrays.fill(ghostCounts, 0);
+        journal.commit(entry);
+        publishSnapshot();
     }
 
     @Override
@@ -131,6 +389,7 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
         historyManager.add(task);
+        publish(TaskEvent.Kind.VIEWED, task, task);
         return task;
     }
 
@@ -141,16 +400,18 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
         historyManager.add(epic);
+        publishEpic(TaskEvent.Kind.VIEWED, epic);
         return epic;
     }
 
     @Override
     public Subtask getSubTaskByIdNumber(int idNumber) {
         Subtask subtask = subtasks.get(idNumber);
-        if (subtask == null) {
+        if (subtask == null || isGhost(subtask)) {
             return null;
         }
         historyManager.add(subtask);
+        publish(TaskEvent.Kind.VIEWED, subtask, subtask);
         return subtask;
     }
 
@@ -173,42 +434,112 @@ public class InMemoryTaskManager implements TaskManager {
 
     @Override
     public int updateTask(Task task) {
-        tasksWithoutIntersectionsInTime(task);
+        updateTask(task, ANY_VERSION);
+        return task.getId();
+    }
+
+    @Override
+    public int updateEpic(Epic epic) {
+        updateEpic(epic, ANY_VERSION);
+        return epic.getId();
+    }
+
+    @Override
+    public int updateSubtask(Subtask subtask) {
+        updateSubtask(subtask, ANY_VERSION);
+        return subtask.getId();
+    }
+
+    @Override
+    public long updateTask(Task task, long expectedVersion) {
         int idUpdatedTask = task.getId();
-        if (tasks.containsKey(idUpdatedTask)) {
-            tasks.put(idUpdatedTask, task);
-            prioritizedTasks.removeIf(task1 -> task1.getId() == task.getId());
-            prioritizedTasks.add(task);
+        Task currentTask = tasks.get(idUpdatedTask);
+        if (currentTask == null) {
+            return -1;
         }
-        return idUpdatedTask;
+        checkVersion(currentTask, expectedVersion);
+        moveInTimeline(currentTask, task);
+        task.setVersion(currentTask.getVersion() + 1);
+        tasks.put(idUpdatedTask, task);
+        addToPrioritizedTasks(task);
+        publish(TaskEvent.Kind.UPDATED, currentTask, task);
+        record(currentTask, task);
+        publishSnapshot();
+        return task.getVersion();
     }
 
     @Override
-    public int updateEpic(Epic epic) {
+    public long updateEpic(Epic epic, long expectedVersion) {
         Epic currentEpic = epics.get(epic.getId());
-        if (currentEpic != null) {
-            currentEpic.setName(epic.getName());
-            currentEpic.setDescription(epic.getDescription());
+        if (currentEpic == null) {
+            return -1;
         }
-        return epic.getId();
+        checkVersion(currentEpic, expectedVersion);
+        Epic before = currentEpic.rollupCopy();
+        currentEpic.setVersion(currentEpic.getVersion() + 1);
+        currentEpic.setName(epic.getName());
+        currentEpic.setDescription(epic.getDescription());
+        textIndex.update(currentEpic);
+        markChanged(currentEpic.getId());
+        publishEpic(TaskEvent.Kind.UPDATED, currentEpic);
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            entry.epicFields(before, currentEpic.rollupCopy());
+            journal.commit(entry);
+        }
+        publishSnapshot();
+        return currentEpic.getVersion();
     }
 
     @Override
-    public int updateSubtask(Subtask subtask) {
-        tasksWithoutIntersectionsInTime(subtask);
+    public long updateSubtask(Subtask subtask, long expectedVersion) {
         int idUpdatedSubtask = subtask.getId();
-        if (subtasks.containsKey(idUpdatedSubtask)) {
-            subtasks.put(idUpdatedSubtask, subtask);
+        Subtask oldSubtask = subtasks.get(idUpdatedSubtask);
+        Epic epic = epics.get(subtask.getEpicID());
+        if (oldSubtask == null || epic == null || isGhost(oldSubtask)) {
+            return -1;
         }
-        int epicIdForStatus = subtask.getEpicID();
-        Epic epic = epics.get(epicIdForStatus);
-        if (epic != null) {
-            changeEpicStatus(epic);
-            timeChangeEpic(epic);
-            prioritizedTasks.removeIf(task1 -> task1.getId() == subtask.getId());
-            prioritizedTasks.add(subtask);
+        checkVersion(oldSubtask, expectedVersion);
+        moveInTimeline(oldSubtask, subtask);
+        subtask.setVersion(oldSubtask.getVersion() + 1);
+        subtasks.put(idUpdatedSubtask, subtask);
+        addToPrioritizedTasks(subtask);
+        if (oldSubtask == subtask) { // подзадача изменена на месте, прежние статус и время неизвестны
+            recountEpicRollups(epic);
+        } else {
+            Epic oldEpic = epics.get(oldSubtask.getEpicID());
+            if (oldEpic != null) {
+                removeSubtaskRollups(oldEpic, oldSubtask);
+            }
+            if (oldEpic != epic) { // подзадача перенесена в другой эпик
+                if (oldEpic != null) {
+                    oldEpic.removeIdOfSubtasks(idUpdatedSubtask);
+                    changeEpicStatus(oldEpic);
+                    timeChangeEpic(oldEpic);
+                    publishEpic(TaskEvent.Kind.UPDATED, oldEpic, idUpdatedSubtask);
+                }
+                epic.addIdOfSubtasks(subtask);
+            }
+            addSubtaskRollups(epic, subtask);
+        }
+        changeEpicStatus(epic);
+        timeChangeEpic(epic);
+        publish(TaskEvent.Kind.UPDATED, oldSubtask, subtask);
+        publishEpic(TaskEvent.Kind.UPDATED, epic, idUpdatedSubtask);
+        record(oldSubtask, subtask);
+        publishSnapshot();
+        return subtask.getVersion();
+    }
+
+    static void checkVersion(Task current, long expectedVersion) {
+        checkVersion(current.getId(), current.getVersion(), expectedVersion);
+    }
+
+    static void checkVersion(int id, long currentVersion, long expectedVersion) {
+        if (expectedVersion != ANY_VERSION && currentVersion != expectedVersion) {
+            throw new ManagerVersionConflictException("Задача " + id + " уже изменена: версия "
+                    + currentVersion + ", ожидалась " + expectedVersion, currentVersion);
         }
-        return idUpdatedSubtask;
     }
 
     @Override
@@ -217,9 +548,17 @@ public class InMemoryTaskManager implements TaskManager {
         if (task == null) {
             return null;
         }
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            recordDependencies(entry, List.of(task));
+            entry.item(task, null);
+        }
         historyManager.remove(idNumber);
-        prioritizedTasks.remove(task);
+        removeFromPrioritizedTasks(task.getId());
         tasks.remove(idNumber);
+        publish(TaskEvent.Kind.DELETED, task, null);
+        journal.commit(entry);
+        publishSnapshot();
         return task;
     }
 
@@ -229,35 +568,67 @@ public class InMemoryTaskManager implements TaskManager {
         if (epic == null) {
             return null;
         }
-        for (int sub : epic.getSubtasks()) {
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            Subtask[] epicSubtasks = subtasksOf(epic);
+            recordDependencies(entry, Arrays.asList(epicSubtasks));
+            entry.epic(epic, null, epicSubtasks);
+        }
+        if (deferredDeletes) { // подзадачи остаются до очистки compactTombstones
+            historyManager.remove(idNumber);
+            epics.remove(idNumber);
+            tombstone(epic);
+            journal.commit(entry);
+            publishSnapshot();
+            return epic;
+        }
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int sub = subtaskIds.getInt(i);
             historyManager.remove(sub);
             Subtask subtask = subtasks.get(sub);
             if (subtask != null) {
-                prioritizedTasks.remove(subtask);
+                removeFromPrioritizedTasks(subtask.getId());
+                publish(TaskEvent.Kind.DELETED, subtask, null);
             }
             subtasks.remove(sub);
         }
         historyManager.remove(idNumber);
         epics.remove(idNumber);
+        publishEpic(TaskEvent.Kind.DELETED, epic);
+        journal.commit(entry);
+        publishSnapshot();
         return epic;
     }
 
     @Override
     public Subtask deleteSubtaskById(int idNumber) {
         Subtask sub = subtasks.get(idNumber);
-        if (sub == null) {
+        if (sub == null || isGhost(sub)) {
             return null;
         }
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            recordDependencies(entry, List.of(sub));
+            entry.item(sub, null);
+        }
         int epicId = sub.getEpicID();
         Epic epic = epics.get(epicId);
         if (epic != null) {
-            epic.getSubtasks().remove(Integer.valueOf(idNumber));
+            epic.removeIdOfSubtasks(idNumber);
+            removeSubtaskRollups(epic, sub);
             changeEpicStatus(epic);
             timeChangeEpic(epic);
         }
         historyManager.remove(idNumber);
-        prioritizedTasks.remove(sub);
+        removeFromPrioritizedTasks(sub.getId());
         subtasks.remove(idNumber);
+        publish(TaskEvent.Kind.DELETED, sub, null);
+        if (epic != null) {
+            publishEpic(TaskEvent.Kind.UPDATED, epic, idNumber);
+        }
+        journal.commit(entry);
+        publishSnapshot();
         return sub;
     }
 
@@ -267,108 +638,614 @@ public class InMemoryTaskManager implements TaskManager {
             return null;
         }
         ArrayList<Subtask> listSubtasks = new ArrayList<>();
-        for (int subtaskIdNumber : epic.getSubtasks()) {
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int subtaskIdNumber = subtaskIds.getInt(i);
             Subtask subtask = subtasks.get(subtaskIdNumber);
             listSubtasks.add(subtask);
         }
         return listSubtasks;
     }
 
-    protected void changeEpicStatus(Epic epic) { // метод для смены статуса эпика
-        int epicID = epic.getId();
-        ArrayList<Subtask> updatedListOfSubtasks = subtaskList(epicID);
+    protected void changeEpicStatus(Epic epic) { // метод для смены статуса эпика по счётчикам подзадач
+        if (epicConsistencyCheck) {
+            checkEpicRollups(epic);
+        }
+        epic.setStatus(epic.calculateStatus());
+        statusIndex.update(TaskType.EPIC, epic);
+        markChanged(epic.getId()); // эпик меняется на месте, в снимок попадёт его копия
+    }
 
-        int doneCounter = 0;
-        int newCounter = 0;
-        for (Subtask subtask : updatedListOfSubtasks) {
-            switch (subtask.getStatus()) {
-                case NEW:
-                    newCounter++;
-                    break;
-                case IN_PROGRESS:
-                    break;
-                case DONE:
-                    doneCounter++;
-                    break;
+    protected void addSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.increaseStatusCounter(subtask.getStatus());
+        epic.addSubtaskTime(subtask);
+    }
+
+    protected void removeSubtaskRollups(Epic epic, Subtask subtask) {
+        epic.decreaseStatusCounter(subtask.getStatus());
+        epic.removeSubtaskTime(subtask);
+    }
+
+    protected void recountEpicRollups(Epic epic) { // полный пересчёт, только при загрузке и сохранении эпика
+        epic.clearStatusCounters();
+        epic.clearSubtasksTime();
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int subtaskIdNumber = subtaskIds.getInt(i);
+            Subtask subtask = subtasks.get(subtaskIdNumber);
+            if (subtask != null) {
+                addSubtaskRollups(epic, subtask);
             }
         }
+    }
 
-        if ((updatedListOfSubtasks.size() == 0) || (newCounter == updatedListOfSubtasks.size())) {
-            epic.setStatus(TaskStatus.NEW);
-        } else if (doneCounter == updatedListOfSubtasks.size()) {
-            epic.setStatus(TaskStatus.DONE);
-        } else {
-            epic.setStatus(TaskStatus.IN_PROGRESS);
+    private void checkEpicRollups(Epic epic) {
+        int[] statusCounters = new int[TaskStatus.values().length];
+        long duration = 0;
+        LocalDateTime startTime = null;
+        LocalDateTime endTime = null;
+        IntList subtaskIds = epic.getSubtasks();
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            int subtaskIdNumber = subtaskIds.getInt(i);
+            Subtask subtask = subtasks.get(subtaskIdNumber);
+            if (subtask == null) {
+                continue;
+            }
+            statusCounters[subtask.getStatus().ordinal()]++;
+            duration += subtask.getDuration();
+            if (subtask.getStartTime() != null) {
+                if (startTime == null || subtask.getStartTime().isBefore(startTime)) {
+                    startTime = subtask.getStartTime();
+                }
+                if (endTime == null || subtask.getEndTime().isAfter(endTime)) {
+                    endTime = subtask.getEndTime();
+                }
+            }
+        }
+        for (TaskStatus status : TaskStatus.values()) {
+            if (epic.getStatusCounter(status) != statusCounters[status.ordinal()]) {
+                throw new IllegalStateException("Счётчик " + status + " эпика " + epic.getId()
+                        + " не совпадает с подзадачами");
+            }
+        }
+        if (epic.getSubtasksDuration() != duration
+                || !Objects.equals(epic.getEarliestSubtaskStartTime(), startTime)
+                || !Objects.equals(epic.getLatestSubtaskEndTime(), endTime)) {
+            throw new IllegalStateException("Время эпика " + epic.getId() + " не совпадает с подзадачами");
         }
     }
 
+    public void setEpicConsistencyCheck(boolean epicConsistencyCheck) {
+        this.epicConsistencyCheck = epicConsistencyCheck;
+    }
+
     @Override
     public List<Task> getHistory() {
-        return historyManager.getHistory();
+        List<Task> history = historyManager.getHistory();
+        if (!tombstones.isEmpty()) {
+            history.removeIf(task -> task instanceof Subtask && isGhost((Subtask) task));
+        }
+        return history;
+    }
+
+    protected void timeChangeEpic(Epic epic) { // время эпика по мультимножествам времени подзадач, O(log k)
+        if (epicConsistencyCheck) {
+            checkEpicRollups(epic);
+        }
+        applyEpicTime(epic);
+    }
+
+    static void applyEpicTime(Epic epic) {
+        if (epic.getSubtasks().size() > 1 && epic.getEarliestSubtaskStartTime() != null) {
+            // как и прежде, начало и окончание эпика переносятся с подзадач, только когда их больше одной
+            epic.setStartTime(epic.getEarliestSubtaskStartTime());
+            epic.setEndTime(epic.getLatestSubtaskEndTime());
+        }
+        epic.setDuration(epic.getSubtasksDuration());
+    }
+
+    private void tasksWithoutIntersectionsInTime(Task task) { // невычищенные удалённые подзадачи не мешают
+        if (intervalTree.intersects(task, ghosts())) { // заодно проверяет правило повторения
+            throw new ManagerIntersectionsException("Произошло наложение задач по времени!");
+        }
+    }
+
+    // прежняя запись убирается со шкалы до проверки, чтобы новый интервал не сталкивался с ней;
+    // если обновление отклонено, она возвращается на место
+    private void moveInTimeline(Task current, Task updated) {
+        removeFromPrioritizedTasks(current.getId());
+        try {
+            tasksWithoutIntersectionsInTime(updated);
+        } catch (RuntimeException e) {
+            addToPrioritizedTasks(current);
+            throw e;
+        }
+    }
+
+    protected void addToPrioritizedTasks(Task task) { // при обновлении старая запись заменяется за O(log n)
+        removeFromPrioritizedTasks(task.getId());
+        prioritizedTasks.put(task);
+        intervalTree.add(task);
+        markChanged(task.getId());
+    }
+
+    protected void removeFromPrioritizedTasks(int id) {
+        prioritizedTasks.remove(id);
+        intervalTree.remove(id);
+        markChanged(id);
+    }
+
+    // Неизменяемый снимок для чтения без блокировок. Снимок строит пишущий поток: изменения отмечаются по id,
+    // а в конце каждой записи применяются к предыдущей версии за O(k log n) и публикуются через volatile.
+    // Включение строит снимок всего менеджера за O(n log n) и вызывается тем же потоком, что и запись
+    public void enableSnapshots() {
+        if (changedIds != null) {
+            return;
+        }
+        changedIds = new IntList();
+        ChangeTracker tracker = new ChangeTracker();
+        tasks.addListener(tracker);
+        epics.addListener(tracker);
+        subtasks.addListener(tracker);
+        for (Task task : tasks.values()) {
+            markChanged(task.getId());
+        }
+        for (Epic epic : epics.values()) {
+            markChanged(epic.getId());
+        }
+        for (Subtask subtask : subtasks.values()) {
+            markChanged(subtask.getId());
+        }
+        publishedSnapshot = TaskManagerSnapshot.EMPTY;
+        publishSnapshot();
+    }
+
+    // последний опубликованный снимок; только чтение поля, поэтому безопасно из любого потока
+    public TaskManagerSnapshot snapshot() {
+        TaskManagerSnapshot snapshot = publishedSnapshot;
+        if (snapshot == null) {
+            throw new IllegalStateException("Снимки не включены: сначала вызовите enableSnapshots()");
+        }
+        return snapshot;
+    }
+
+    // подзадачи удалённых эпиков в снимок не попадают, хотя до очистки ещё лежат в хранилище и на шкале
+    private void publishSnapshot() {
+        if (changedIds == null || changedIds.isEmpty()) {
+            return;
+        }
+        publishedSnapshot = publishedSnapshot.next(changedIds, tasks::get, epics::get,
+                id -> isGhost(id) ? null : subtasks.get(id), id -> isGhost(id) ? null : prioritizedTasks.get(id));
+        changedIds.clear();
     }
 
-    protected void timeChangeEpic(Epic epic) {
-        epicStartTimeBasedSubtask(epic.getSubtasks(), epic);
-        epicDurationBasedSubtask(epic.getSubtasks(), epic);
-        epicEndTimeBasedSubtask(epic.getSubtasks(), epic);
+    private void markChanged(int id) {
+        if (changedIds != null && !changedIds.containsInt(id)) {
+            changedIds.addInt(id);
+        }
     }
 
-    protected void epicStartTimeBasedSubtask(List<Integer> subtasksID, Epic epic) {
-        LocalDateTime epicStart = null;
-        if (!subtasksID.isEmpty()) {
-            Subtask theEarliestSubtask = subtasks.get(subtasksID.get(0));
-            epicStart = theEarliestSubtask.getStartTime();
+    private class ChangeTracker implements OrderedIntHashMap.Listener<Task> {
+
+        @Override
+        public void put(int key, Task value) {
+            markChanged(key);
         }
-        for (int i = 1; i < subtasksID.size(); i++) {
-            Subtask subtask = subtasks.get(subtasksID.get(i));
-            if (subtask.getStartTime().isBefore(epicStart)) {
-                epicStart = subtask.getStartTime();
 
+        @Override
+        public void removed(int key) {
+            markChanged(key);
+        }
+    }
+
+    // Лента изменений включается первой подпиской и дальше ведётся всегда, как и отслеживание для снимков.
+    // Эпик меняется на месте, поэтому для каждого хранится последняя опубликованная копия - она и есть
+    // состояние до следующего изменения; копия эпика O(1) и без списка подзадач, запись в эпик его не копирует
+    public TaskEventBus.Subscription subscribe(TaskEventBus.Listener listener) {
+        if (publishedEpics == null) {
+            publishedEpics = new IntHashMap<>();
+            for (Epic epic : epics.values()) {
+                publishedEpics.put(epic.getId(), epic.rollupCopy());
             }
-            epic.setStartTime(epicStart);
         }
+        return events.subscribe(listener);
     }
 
-    protected void epicDurationBasedSubtask(List<Integer> subtasksID, Epic epic) {
-        long duration = 0;
-        for (var id : subtasksID) {
-            Subtask subtask = subtasks.get(id);
-            duration += subtask.getDuration();
+    private void publish(TaskEvent.Kind kind, Task before, Task after) {
+        if (publishedEpics != null) {
+            events.publish(kind, before, after);
         }
-        epic.setDuration(duration);
     }
 
-    protected void epicEndTimeBasedSubtask(List<Integer> subtasksID, Epic epic) {
-        LocalDateTime epicEnd = null;
-        if (subtasksID.size() != 0) {
-            Subtask theLatestSubtask = subtasks.get(subtasksID.get(0));
-            epicEnd = theLatestSubtask.getEndTime();
+    private void publishEpic(TaskEvent.Kind kind, Epic epic) {
+        publishEpic(kind, epic, 0);
+    }
+
+    private void publishEpic(TaskEvent.Kind kind, Epic epic, int subtaskId) {
+        if (publishedEpics == null) {
+            return;
         }
-        for (int i = 1; i < subtasksID.size(); i++) {
-            Subtask subtask = subtasks.get(subtasksID.get(i));
-            if (subtask.getEndTime().isAfter(epicEnd)) {
-                epicEnd = subtask.getEndTime();
+        if (kind == TaskEvent.Kind.DELETED) {
+            Epic before = publishedEpics.remove(epic.getId());
+            events.publish(kind, before != null ? before : epic.rollupCopy(), null);
+        } else if (kind == TaskEvent.Kind.VIEWED) {
+            Epic current = publishedEpics.get(epic.getId());
+            if (current == null) { // эпик загружен в обход ленты (HttpTaskManager.load)
+                current = epic.rollupCopy();
+                publishedEpics.put(epic.getId(), current);
             }
-            epic.setEndTime(epicEnd);
+            events.publish(kind, current, current);
+        } else {
+            Epic after = epic.rollupCopy();
+            events.publish(kind, publishedEpics.put(epic.getId(), after), after, subtaskId);
         }
     }
 
-    private void tasksWithoutIntersectionsInTime(Task task) {
-        LocalDateTime startTime = task.getStartTime();
-        LocalDateTime endTime = task.getEndTime();
-        Set<Task> listOfTasks = getPrioritizedTasks();
+    // При отложенном удалении эпик убирается из хранилища и встаёт в очередь надгробий, а его подзадачи
+    // сразу перестают быть видны: чтения по id, списки, счётчики, история, поиск, страницы и свободные окна
+    // пропускают их по isGhost и очередь не трогают - её разбирает compactTombstones. Связи подзадач снимаются
+    // при удалении, как и их минуты в сводке. Целиком очередь вычищают только отмена и повтор, шагам которых
+    // нужны точные индексы, и выключение режима
+    public void setDeferredDeletes(boolean deferredDeletes) {
+        this.deferredDeletes = deferredDeletes;
+        if (!deferredDeletes) {
+            compactTombstones(Integer.MAX_VALUE);
+        }
+    }
+
+    public boolean isDeferredDeletes() {
+        return deferredDeletes;
+    }
+
+    public boolean hasTombstones() {
+        return !tombstones.isEmpty();
+    }
+
+    // очистка партией не больше batchSize подзадач, возвращает число просмотренных; темп задаёт TombstoneCompactor
+    public int compactTombstones(int batchSize) {
+        int visited = purge(batchSize);
+        publishSnapshot();
+        return visited;
+    }
 
-        for (var tasks : listOfTasks) {
-            LocalDateTime taskStart = tasks.getStartTime();
-            LocalDateTime taskEnd = tasks.getEndTime();
-            if ((startTime.isAfter(taskStart) && startTime.isBefore(taskEnd))
-                    || (endTime.isAfter(taskStart) && endTime.isBefore(taskEnd))) {
-                throw new ManagerIntersectionsException("Произошло наложение задач по времени!");
+    private void tombstone(Epic epic) {
+        removeFromPrioritizedTasks(epic.getId());
+        tombstones.addLast(epic);
+        for (TaskStatus status : TaskStatus.values()) {
+            ghostCounts[status.ordinal()] += epic.getStatusCounter(status);
+        }
+        statsIndex.remove(epic.getSubtasks()); // минуты и просрочка сводки не ждут очистки
+        IntList epicSubtaskIds = epic.getSubtasks();
+        for (int i = 0; i < epicSubtaskIds.size(); i++) { // раннее начало последователей - тоже
+            dependencies.remove(epicSubtaskIds.getInt(i));
+        }
+        if (changedIds != null) { // и снимок тоже: подзадачи уходят из него при удалении эпика
+            IntList subtaskIds = epic.getSubtasks();
+            for (int i = 0; i < subtaskIds.size(); i++) {
+                markChanged(subtaskIds.getInt(i));
             }
         }
+        if (publishedEpics != null) { // для ленты подзадачи удалены сейчас, а не при очистке
+            IntList subtaskIds = epic.getSubtasks();
+            for (int i = 0; i < subtaskIds.size(); i++) {
+                Subtask subtask = subtasks.get(subtaskIds.getInt(i));
+                if (subtask != null) {
+                    publish(TaskEvent.Kind.DELETED, subtask, null);
+                }
+            }
+        }
+        publishEpic(TaskEvent.Kind.DELETED, epic);
+    }
+
+    private void purgeTombstones() {
+        if (!tombstones.isEmpty()) {
+            purge(Integer.MAX_VALUE);
+        }
+    }
+
+    private int purge(int limit) {
+        int visited = 0;
+        while (visited < limit && !tombstones.isEmpty()) {
+            Epic epic = tombstones.peekFirst();
+            IntList subtaskIds = epic.getSubtasks();
+            if (purgeCursor == subtaskIds.size()) {
+                tombstones.pollFirst();
+                purgeCursor = 0;
+                continue;
+            }
+            Subtask subtask = subtasks.get(subtaskIds.getInt(purgeCursor++));
+            visited++;
+            if (subtask != null && subtask.getEpicID() == epic.getId() && !epics.containsKey(epic.getId())) {
+                ghostCounts[subtask.getStatus().ordinal()]--;
+                removeFromPrioritizedTasks(subtask.getId());
+                historyManager.remove(subtask.getId());
+                subtasks.remove(subtask.getId());
+            }
+        }
+        return visited;
+    }
+
+    private boolean isGhost(Subtask subtask) { // подзадача удалённого эпика, ещё не вычищенная
+        return !tombstones.isEmpty() && !epics.containsKey(subtask.getEpicID());
+    }
+
+    private IntPredicate ghosts() { // что пропускать чтениям: невычищенные подзадачи удалённых эпиков
+        return tombstones.isEmpty() ? TaskIntervalTree.NONE : ghosts;
+    }
+
+    private boolean isGhost(int id) {
+        if (tombstones.isEmpty()) {
+            return false;
+        }
+        Subtask subtask = subtasks.get(id);
+        return subtask != null && isGhost(subtask);
+    }
+
+    // Отмена последней операции журнала: шаги записи в обратном порядке, O(размера операции). Просмотры
+    // не журналируются, поэтому история просмотров удалённых задач после отмены не возвращается
+    public boolean undo() {
+        purgeTombstones(); // шаги журнала рассчитаны на вычищенные индексы
+        OperationJournal.Entry entry = journal.popUndo();
+        if (entry == null) {
+            return false;
+        }
+        Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = entry.steps.size() - 1; i >= 0; i--) {
+            apply(entry.steps.get(i), false, changedEpics);
+        }
+        finishEpics(changedEpics);
+        journal.pushRedo(entry);
+        publishSnapshot();
+        return true;
+    }
+
+    public boolean redo() {
+        purgeTombstones();
+        OperationJournal.Entry entry = journal.popRedo();
+        if (entry == null) {
+            return false;
+        }
+        Set<Epic> changedEpics = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (OperationJournal.Step step : entry.steps) {
+            apply(step, true, changedEpics);
+        }
+        finishEpics(changedEpics);
+        journal.pushUndo(entry);
+        publishSnapshot();
+        return true;
+    }
+
+    // 0 записей выключает журнал; лишние записи вытесняются сразу
+    public void setJournalLimits(int maxEntries, long maxBytes) {
+        journal.setLimits(maxEntries, maxBytes);
+    }
+
+    public long getUnrecordedOperations() { // операции, которые журнал не смог записать для отмены
+        return journal.dropped();
+    }
+
+    private void record(Task before, Task after) {
+        OperationJournal.Entry entry = journal.start();
+        if (entry == null) {
+            return;
+        }
+        if (before == after) { // задача изменена на месте вызывающим, прежнее состояние неизвестно
+            entry.recordable = false;
+        } else {
+            entry.item(before, after);
+        }
+        journal.commit(entry);
+    }
+
+    private void recordDependency(int predecessorId, int successorId, boolean added) {
+        OperationJournal.Entry entry = journal.start();
+        if (entry != null) {
+            entry.dependency(predecessorId, successorId, added);
+            journal.commit(entry);
+        }
+    }
+
+    // связи удаляемых задач пишутся до самих задач: при отмене они восстанавливаются, когда обе задачи уже на месте
+    private void recordDependencies(OperationJournal.Entry entry, Collection<? extends Task> removed) {
+        for (Task task : removed) {
+            int id = task.getId();
+            if (!dependencies.contains(id) || isGhost(id)) {
+                continue;
+            }
+            for (int predecessorId : dependencies.predecessors(id)) {
+                if (!isGhost(predecessorId)) { // связи удалённых подзадач уйдут с ними при очистке
+                    entry.dependency(predecessorId, id, false);
+                }
+            }
+            for (int successorId : dependencies.successors(id)) {
+                if (!isGhost(successorId)) {
+                    entry.dependency(id, successorId, false);
+                }
+            }
+        }
+    }
+
+    private Subtask[] subtasksOf(Epic epic) {
+        IntList subtaskIds = epic.getSubtasks();
+        List<Subtask> result = new ArrayList<>(subtaskIds.size());
+        for (int i = 0; i < subtaskIds.size(); i++) {
+            Subtask subtask = subtasks.get(subtaskIds.getInt(i));
+            if (subtask != null) {
+                result.add(subtask);
+            }
+        }
+        return result.toArray(NO_SUBTASKS);
+    }
+
+    // шаг журнала без проверок: целевое состояние уже было в менеджере. Время и статус эпиков, чьи подзадачи
+    // менялись, пересчитываются один раз в finishEpics
+    private void apply(OperationJournal.Step step, boolean redo, Set<Epic> changedEpics) {
+        Task current = redo ? step.before : step.after;
+        Task target = redo ? step.after : step.before;
+        switch (step.kind) {
+            case ITEM:
+                if (current != null) {
+                    unlink(current, target == null, changedEpics);
+                }
+                if (target != null) {
+                    link(target, changedEpics);
+                }
+                publish(current == null ? TaskEvent.Kind.CREATED
+                        : target == null ? TaskEvent.Kind.DELETED : TaskEvent.Kind.UPDATED, current, target);
+                break;
+            case EPIC: // эпик удаляется со своими подзадачами, не меняясь, и возвращается тем же объектом
+                if (target == null) {
+                    for (Subtask subtask : step.subtasks) { // как в deleteEpicById: список подзадач эпика не трогается
+                        removeFromPrioritizedTasks(subtask.getId());
+                        historyManager.remove(subtask.getId());
+                        subtasks.remove(subtask.getId());
+                        publish(TaskEvent.Kind.DELETED, subtask, null);
+                    }
+                    changedEpics.remove(current);
+                    historyManager.remove(current.getId());
+                    epics.remove(current.getId());
+                    publishEpic(TaskEvent.Kind.DELETED, (Epic) current);
+                } else {
+                    epics.put(target.getId(), (Epic) target);
+                    publishEpic(TaskEvent.Kind.CREATED, (Epic) target);
+                    for (Subtask subtask : step.subtasks) {
+                        subtasks.put(subtask.getId(), subtask);
+                        addToPrioritizedTasks(subtask);
+                        publish(TaskEvent.Kind.CREATED, null, subtask);
+                    }
+                }
+                break;
+            case EPIC_FIELDS:
+                Epic epic = epics.get(target.getId());
+                epic.setName(target.getName());
+                epic.setDescription(target.getDescription());
+                epic.setVersion(target.getVersion());
+                textIndex.update(epic);
+                markChanged(epic.getId());
+                changedEpics.add(epic);
+                break;
+            case DEPENDENCY:
+                if (redo == step.added) {
+                    dependencies.add(dependencyNode(step.predecessorId), dependencyNode(step.successorId));
+                } else {
+                    dependencies.remove(step.predecessorId, step.successorId);
+                }
+                break;
+        }
+    }
+
+    private void unlink(Task task, boolean removed, Set<Epic> changedEpics) {
+        int id = task.getId();
+        removeFromPrioritizedTasks(id);
+        if (task instanceof Subtask) {
+            Subtask subtask = (Subtask) task;
+            Epic epic = epics.get(subtask.getEpicID());
+            if (epic != null) {
+                epic.removeIdOfSubtasks(id);
+                removeSubtaskRollups(epic, subtask);
+                changedEpics.add(epic);
+            }
+        }
+        if (removed) {
+            historyManager.remove(id);
+            store(task.getTaskType()).remove(id);
+        }
+    }
+
+    private void link(Task task, Set<Epic> changedEpics) {
+        if (task instanceof Subtask) {
+            Subtask subtask = (Subtask) task;
+            Epic epic = epics.get(subtask.getEpicID());
+            subtasks.put(subtask.getId(), subtask);
+            epic.addIdOfSubtasks(subtask);
+            addSubtaskRollups(epic, subtask);
+            changedEpics.add(epic);
+        } else {
+            tasks.put(task.getId(), task);
+        }
+        addToPrioritizedTasks(task);
+    }
+
+    private void finishEpics(Set<Epic> changedEpics) {
+        for (Epic epic : changedEpics) {
+            changeEpicStatus(epic);
+            timeChangeEpic(epic);
+            publishEpic(TaskEvent.Kind.UPDATED, epic);
+        }
     }
 
     public Set<Task> getPrioritizedTasks() {
-        return prioritizedTasks;
+        if (tombstones.isEmpty()) {
+            return prioritizedTasks;
+        }
+        Set<Task> result = new LinkedHashSet<>();
+        for (Task task : prioritizedTasks) {
+            if (!(task instanceof Subtask) || !isGhost((Subtask) task)) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to) {
+        List<Task> result = intervalTree.overlapping(from, to);
+        if (!tombstones.isEmpty()) {
+            result.removeIf(task -> task instanceof Subtask && isGhost((Subtask) task));
+        }
+        return result;
+    }
+
+    @Override
+    public LocalDateTime findFreeSlot(LocalDateTime after, long duration) {
+        return intervalTree.firstFreeStart(after, duration, ghosts());
+    }
+
+    @Override
+    public boolean addDependency(int predecessorId, int successorId) {
+        boolean added = dependencies.add(dependencyNode(predecessorId), dependencyNode(successorId));
+        if (added) {
+            recordDependency(predecessorId, successorId, true);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeDependency(int predecessorId, int successorId) {
+        boolean removed = dependencies.remove(predecessorId, successorId);
+        if (removed) {
+            recordDependency(predecessorId, successorId, false);
+        }
+        return removed;
+    }
+
+    @Override
+    public List<Integer> getDependencies(int id) { // связи удалённых подзадач сняты ещё при удалении эпика
+        return dependencies.predecessors(id);
+    }
+
+    @Override
+    public LocalDateTime getEarliestStart(int id) {
+        Task task = tasks.containsKey(id) ? tasks.get(id) : subtasks.get(id);
+        return task == null || isGhost(id) ? null : dependencies.earliestStart(task);
+    }
+
+    @Override
+    public EpicSchedule getEpicSchedule(int epicId) {
+        List<Subtask> epicSubtasks = subtaskList(epicId);
+        return epicSubtasks == null ? null : dependencies.schedule(epicSubtasks);
+    }
+
+    private Task dependencyNode(int id) { // эпик не связывается: его время выводится из подзадач
+        Task task = tasks.containsKey(id) ? tasks.get(id) : subtasks.get(id);
+        if (task == null || isGhost(id)) {
+            throw new IllegalArgumentException("Задача или подзадача " + id + " не найдена");
+        }
+        return task;
+    }
+
+    @Override
+    public List<LocalDateTime> findFreeSlots(LocalDateTime after, long duration, LocalDateTime horizon, int count) {
+        return intervalTree.freeStarts(after, duration, horizon, count, ghosts());
     }
 }
\ No newline at end of file
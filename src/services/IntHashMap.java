@@ -0,0 +1,203 @@
+package services;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class IntHashMap<V> { // хеш-таблица с открытой адресацией и ключами int без упаковки в Integer
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private Object[] values; // null - свободная ячейка, поэтому null-значения не хранятся
+    private int size;
+    private int threshold;
+    private int modCount;
+
+    public IntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntHashMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            return remove(key);
+        }
+        int mask = keys.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V oldValue = (V) values[index];
+                values[index] = value;
+                return oldValue;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        modCount++;
+        if (++size > threshold) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V oldValue = (V) values[index];
+        shiftBack(index);
+        size--;
+        modCount++;
+        return oldValue;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Collection<V> values() { // представление без копирования, порядок - по ячейкам таблицы
+        return new Values();
+    }
+
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void shiftBack(int gap) { // удаление без "надгробий": сдвигаем следующие элементы цепочки
+        int mask = keys.length - 1;
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == null) {
+                break;
+            }
+            int home = slot(keys[index], mask);
+            boolean canMove = gap <= index ? (home <= gap || home > index) : (home <= gap && home > index);
+            if (canMove) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = slot(oldKeys[i], mask);
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(int key, int mask) { // как в HashMap: последовательные id не сталкиваются
+        return (key ^ (key >>> 16)) & mask;
+    }
+
+    private class Values extends AbstractCollection<V> { // не анонимный класс: Gson пропускает анонимные
+
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private class ValueIterator implements Iterator<V> {
+        private final Object[] table = values;
+        private final int expectedModCount = modCount;
+        private int index = nextIndex(0);
+
+        @Override
+        public boolean hasNext() {
+            return index < table.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index >= table.length) {
+                throw new NoSuchElementException();
+            }
+            V value = (V) table[index];
+            index = nextIndex(index + 1);
+            return value;
+        }
+
+        private int nextIndex(int from) {
+            while (from < table.length && table[from] == null) {
+                from++;
+            }
+            return from;
+        }
+    }
+}
@@ -8,4 +8,12 @@ public class Managers {
     public static TaskManager getDefault(String url, String key) {
         return new HttpTaskManager(url, key);
     }
+
+    public static TaskManager getConcurrent() {
+        return new ConcurrentTaskManager();
+    }
+
+    public static TaskManager getColumnar() {
+        return new ColumnarTaskManager();
+    }
 }
@@ -0,0 +1,266 @@
+package services;
+
+import entity.Epic;
+import entity.Subtask;
+import entity.Task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// Журнал операций менеджера для отмены и повтора. Запись - шаги одной операции: каким был и каким стал объект
+// задачи, подзадачи или эпика (ссылки, а не копии доски), связи зависимостей, поля эпика. Отмена проходит шаги
+// в обратном порядке, повтор - в прямом, обе за O(размера операции). Размер ограничен числом записей и оценкой
+// удерживаемых байт, старые записи вытесняются. Новая операция сбрасывает повторы. Операция, которую записать
+// нельзя, не попадает в журнал, и вместе с ней уходят отмены, которые в обход неё привели бы к состоянию, которого
+// не было: все, если она что-то добавляла или меняла, иначе - начиная с последней, задевшей удалённые ею объекты.
+class OperationJournal {
+
+    static final int DEFAULT_MAX_ENTRIES = 100;
+    static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private static final int STEP_BYTES = 40;
+    private static final int TASK_BYTES = 120; // задача без строк: объект, LocalDateTime, заголовки строк
+
+    enum Kind {
+        ITEM, // задача или подзадача: before -> after, null - объекта нет
+        EPIC, // эпик вместе с подзадачами, которые удаляются и восстанавливаются с ним
+        EPIC_FIELDS, // название, описание и версия эпика, который меняется на месте
+        DEPENDENCY // связь predecessorId -> successorId добавлена (added) или удалена
+    }
+
+    static final class Step {
+        final Kind kind;
+        final Task before;
+        final Task after;
+        final Subtask[] subtasks;
+        final int predecessorId;
+        final int successorId;
+        final boolean added;
+
+        private Step(Kind kind, Task before, Task after, Subtask[] subtasks, int predecessorId, int successorId,
+                     boolean added) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+            this.subtasks = subtasks;
+            this.predecessorId = predecessorId;
+            this.successorId = successorId;
+            this.added = added;
+        }
+    }
+
+    static final class Entry {
+        final List<Step> steps = new ArrayList<>(1);
+        long bytes;
+        boolean recordable = true; // false - операцию нельзя отменить
+
+        void item(Task before, Task after) {
+            add(new Step(Kind.ITEM, before, after, null, 0, 0, false));
+            bytes += estimate(before);
+        }
+
+        void epic(Epic before, Epic after, Subtask[] subtasks) {
+            add(new Step(Kind.EPIC, before, after, subtasks, 0, 0, false));
+            bytes += estimate(before) + (long) subtasks.length * Integer.BYTES;
+            for (Subtask subtask : subtasks) {
+                bytes += estimate(subtask);
+            }
+        }
+
+        void epicFields(Epic before, Epic after) { // копии эпика без списка подзадач
+            add(new Step(Kind.EPIC_FIELDS, before, after, null, 0, 0, false));
+            bytes += 2L * TASK_BYTES;
+        }
+
+        void dependency(int predecessorId, int successorId, boolean added) {
+            add(new Step(Kind.DEPENDENCY, null, null, null, predecessorId, successorId, added));
+        }
+
+        private void add(Step step) {
+            steps.add(step);
+            bytes += STEP_BYTES;
+        }
+
+        // id объектов, которые операция только удаляла (с эпиками удалённых подзадач), или null, если она
+        // что-то добавляла или меняла: отмена более ранних шагов могла бы наложиться на её результат по времени
+        private IntHashMap<Boolean> removedIds() {
+            IntHashMap<Boolean> ids = new IntHashMap<>();
+            for (Step step : steps) {
+                if (step.after != null || (step.kind == Kind.DEPENDENCY && step.added)) {
+                    return null;
+                }
+                anyId(step, id -> {
+                    ids.put(id, Boolean.TRUE);
+                    return false;
+                });
+            }
+            return ids;
+        }
+
+        private boolean touches(IntHashMap<Boolean> ids) {
+            for (Step step : steps) {
+                if (anyId(step, ids::containsKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean anyId(Step step, IntPredicate test) {
+            switch (step.kind) {
+                case DEPENDENCY:
+                    return test.test(step.predecessorId) || test.test(step.successorId);
+                case EPIC:
+                    for (Subtask subtask : step.subtasks) {
+                        if (test.test(subtask.getId())) {
+                            return true;
+                        }
+                    }
+                    return anyId(step.before, test) || anyId(step.after, test);
+                default:
+                    return anyId(step.before, test) || anyId(step.after, test);
+            }
+        }
+
+        private static boolean anyId(Task task, IntPredicate test) { // у подзадачи - ещё и её эпик
+            if (task == null) {
+                return false;
+            }
+            return test.test(task.getId()) || (task instanceof Subtask && test.test(((Subtask) task).getEpicID()));
+        }
+    }
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private final ArrayDeque<Entry> undo = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redo = new ArrayDeque<>();
+    private long bytes;
+    private long dropped;
+
+    Entry start() { // null, если журнал выключен
+        return maxEntries == 0 ? null : new Entry();
+    }
+
+    // false - операция не записана (больше предела в байтах или изменение на месте), и отменить её нельзя
+    boolean commit(Entry entry) {
+        if (entry == null || (entry.recordable && entry.steps.isEmpty())) {
+            return true;
+        }
+        clear(redo);
+        if (entry.recordable && entry.bytes <= maxBytes) {
+            push(undo, entry);
+            return true;
+        }
+        dropped++;
+        IntHashMap<Boolean> removedIds = entry.recordable ? entry.removedIds() : null;
+        if (removedIds == null) {
+            clear(undo);
+            return false;
+        }
+        int independent = 0; // отмены новее последней, задевшей удалённое
+        for (Iterator<Entry> newest = undo.descendingIterator(); newest.hasNext(); independent++) {
+            if (newest.next().touches(removedIds)) {
+                break;
+            }
+        }
+        while (undo.size() > independent) {
+            bytes -= undo.pollFirst().bytes;
+        }
+        return false;
+    }
+
+    Entry popUndo() {
+        return pop(undo);
+    }
+
+    Entry popRedo() {
+        return pop(redo);
+    }
+
+    void pushUndo(Entry entry) { // после повтора; повторы дальше по стеку остаются
+        push(undo, entry);
+    }
+
+    void pushRedo(Entry entry) {
+        push(redo, entry);
+    }
+
+    void setLimits(int maxEntries, long maxBytes) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Пределы журнала не могут быть отрицательными");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    int undoSize() {
+        return undo.size();
+    }
+
+    int redoSize() {
+        return redo.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long dropped() { // сколько операций не попало в журнал
+        return dropped;
+    }
+
+    void clear() {
+        clear(undo);
+        clear(redo);
+    }
+
+    private void push(ArrayDeque<Entry> stack, Entry entry) {
+        stack.addLast(entry);
+        bytes += entry.bytes;
+        evict();
+    }
+
+    private Entry pop(ArrayDeque<Entry> stack) {
+        Entry entry = stack.pollLast();
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+        return entry;
+    }
+
+    private void clear(ArrayDeque<Entry> stack) {
+        for (Entry entry : stack) {
+            bytes -= entry.bytes;
+        }
+        stack.clear();
+    }
+
+    // сначала вытесняются самые старые отмены, затем самые дальние повторы
+    private void evict() {
+        while (undo.size() + redo.size() > maxEntries || bytes > maxBytes) {
+            Entry entry = !undo.isEmpty() ? undo.pollFirst() : redo.pollFirst();
+            if (entry == null) {
+                return;
+            }
+            bytes -= entry.bytes;
+        }
+    }
+
+    private static long estimate(Task task) {
+        if (task == null) {
+            return 0;
+        }
+        long bytes = TASK_BYTES;
+        if (task.getName() != null) {
+            bytes += 2L * task.getName().length();
+        }
+        if (task.getDescription() != null) {
+            bytes += 2L * task.getDescription().length();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// IntHashMap с возможностью обхода по возрастанию ключа: занятые неотрицательные ключи отмечены в BitSet
+// (бит на id), поэтому страница по курсору стоит O(limit) плюс пропуск удалённых id по 64 за шаг.
+// Слушатели узнают о каждом изменении, включая загрузку из файла или с сервера мимо методов менеджера.
+public class OrderedIntHashMap<V> extends IntHashMap<V> {
+
+    public interface Listener<V> {
+        void put(int key, V value);
+
+        void removed(int key);
+    }
+
+    private final BitSet orderedKeys = new BitSet();
+
+    private final List<Listener<? super V>> listeners = new ArrayList<>(2);
+
+    public void addListener(Listener<? super V> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public V put(int key, V value) {
+        V oldValue = super.put(key, value);
+        if (value != null && key >= 0) {
+            orderedKeys.set(key);
+            for (Listener<? super V> listener : listeners) {
+                listener.put(key, value);
+            }
+        }
+        return oldValue;
+    }
+
+    @Override
+    public V remove(int key) {
+        V oldValue = super.remove(key);
+        if (oldValue != null && key >= 0) {
+            orderedKeys.clear(key);
+            for (Listener<? super V> listener : listeners) {
+                listener.removed(key);
+            }
+        }
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        if (!listeners.isEmpty()) {
+            for (int key = orderedKeys.nextSetBit(0); key >= 0; key = orderedKeys.nextSetBit(key + 1)) {
+                for (Listener<? super V> listener : listeners) {
+                    listener.removed(key);
+                }
+            }
+        }
+        super.clear();
+        orderedKeys.clear();
+    }
+
+    // до limit значений с ключами больше after в порядке возрастания ключа
+    public List<V> page(int after, int limit) {
+        return page(after, limit, TaskIntervalTree.NONE);
+    }
+
+    // то же без ключей, для которых skipped истинно: пропущенные не занимают места на странице
+    public List<V> page(int after, int limit, IntPredicate skipped) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным: " + limit);
+        }
+        List<V> page = new ArrayList<>(Math.min(limit, size()));
+        if (after == Integer.MAX_VALUE) {
+            return page;
+        }
+        int key = orderedKeys.nextSetBit(Math.max(after + 1, 0));
+        while (key >= 0 && page.size() < limit) {
+            if (!skipped.test(key)) {
+                page.add(get(key));
+            }
+            key = key == Integer.MAX_VALUE ? -1 : orderedKeys.nextSetBit(key + 1);
+        }
+        return page;
+    }
+}
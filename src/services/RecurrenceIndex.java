@@ -0,0 +1,328 @@
+package services;
+
+import entity.Recurrence;
+import entity.Task;
+import entity.TaskType;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Повторяющиеся задачи без развёртывания повторений. Серии сгруппированы по периоду и упорядочены по фазе -
+// смещению начала внутри периода, поэтому повторение, накрывающее момент времени, ищется среди серий
+// с фазой в окне длиной в самую длинную задачу группы: O(log s + кандидаты), а не O(числа повторений).
+// Номер повторения считается по секундам, а найденный кандидат проверяется точным сравнением времени.
+class RecurrenceIndex {
+
+    static final int MAX_OCCURRENCES = 100_000; // на один запрос окна, иначе окно без границ развернулось бы бесконечно
+
+    private final IntHashMap<Series> seriesById = new IntHashMap<>();
+    private final Map<Long, PeriodGroup> groups = new HashMap<>(); // период в секундах -> серии
+
+    static void validate(Task task) {
+        Recurrence recurrence = task.getRecurrence();
+        if (recurrence == null) {
+            return;
+        }
+        if (task.getTaskType() != TaskType.TASK) {
+            throw new IllegalArgumentException("Повторяться может только задача");
+        }
+        if (task.getStartTime() == null) {
+            throw new IllegalArgumentException("У повторяющейся задачи должно быть время начала");
+        }
+        if (recurrence.getInterval() <= 0 || task.getDuration() >= recurrence.getInterval()) {
+            throw new IllegalArgumentException("Интервал повторения должен быть больше длительности задачи");
+        }
+        if (recurrence.getUntil() != null && !recurrence.getUntil().isAfter(task.getStartTime())) {
+            throw new IllegalArgumentException("Окончание повторений должно быть позже начала задачи");
+        }
+    }
+
+    void add(Task task) {
+        remove(task.getId());
+        add(new Series(task));
+    }
+
+    // копия за O(s log s): дерево шкалы меняет не сам индекс, а его копию, чтобы уже выданные виды не менялись
+    RecurrenceIndex copy() {
+        RecurrenceIndex copy = new RecurrenceIndex();
+        for (Series series : seriesById.values()) {
+            copy.add(series);
+        }
+        return copy;
+    }
+
+    private void add(Series series) {
+        seriesById.put(series.task.getId(), series);
+        PeriodGroup group = groups.computeIfAbsent(series.period, period -> new PeriodGroup());
+        group.byPhase.computeIfAbsent(series.phase, phase -> new ArrayList<>()).add(series);
+        group.maxDuration = Math.max(group.maxDuration, series.duration);
+    }
+
+    void remove(int id) {
+        Series series = seriesById.remove(id);
+        if (series == null) {
+            return;
+        }
+        PeriodGroup group = groups.get(series.period);
+        List<Series> samePhase = group.byPhase.get(series.phase);
+        samePhase.remove(series);
+        if (samePhase.isEmpty()) {
+            group.byPhase.remove(series.phase);
+        }
+        if (group.byPhase.isEmpty()) {
+            groups.remove(series.period);
+        }
+    }
+
+    int size() {
+        return seriesById.size();
+    }
+
+    boolean contains(int id) {
+        return seriesById.containsKey(id);
+    }
+
+    boolean isEmpty() {
+        return seriesById.isEmpty();
+    }
+
+    // пересекает ли непропущенное повторение [start, end): повторение длительностью d начинается
+    // строго внутри (start - d, end)
+    boolean overlaps(LocalDateTime start, LocalDateTime end, IntPredicate skipped) {
+        long startSecond = second(start);
+        long endSecond = second(end);
+        for (PeriodGroup group : groups.values()) {
+            for (Series series : group.candidates(startSecond - group.maxDuration - 1, endSecond + 1)) {
+                if (!skipped.test(series.task.getId())
+                        && series.hasStartIn(start.minusSeconds(series.duration), end)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // самый поздний конец среди повторений, пересекающих [from, to), или null
+    LocalDateTime latestEnd(LocalDateTime from, LocalDateTime to) {
+        long toSecond = second(to);
+        long span = toSecond - second(from);
+        LocalDateTime latest = null;
+        for (PeriodGroup group : groups.values()) {
+            for (Series series : group.candidates(toSecond - span - group.maxDuration - 1, toSecond + 1)) {
+                long k = series.lastIndexBefore(to);
+                if (k < 0) {
+                    continue;
+                }
+                LocalDateTime end = series.start(k).plusMinutes(series.task.getDuration());
+                if (end.isAfter(from) && (latest == null || end.isAfter(latest))) {
+                    latest = end;
+                }
+            }
+        }
+        return latest;
+    }
+
+    // повторения, пересекающие [from, to), в том же смысле, что и TaskIntervalTree.overlapping; O(s + k)
+    List<Task> occurrences(LocalDateTime from, LocalDateTime to) {
+        List<Task> result = new ArrayList<>();
+        long fromSecond = second(from);
+        for (Series series : seriesById.values()) {
+            for (long k = series.firstIndexEndingAfter(fromSecond); k <= series.last; k++) {
+                LocalDateTime start = series.start(k);
+                if (!start.isBefore(to)) {
+                    break;
+                }
+                LocalDateTime end = start.plusMinutes(series.task.getDuration());
+                if (end.isAfter(from) || !start.isBefore(from)) {
+                    if (result.size() == MAX_OCCURRENCES) {
+                        throw new IllegalArgumentException("Окно содержит больше " + MAX_OCCURRENCES
+                                + " повторений, сузьте его");
+                    }
+                    result.add(series.occurrence(start));
+                }
+            }
+        }
+        return result;
+    }
+
+    // пересекается ли новая серия с сохранёнными: как и для одиночной задачи, [start, end) двух повторений
+    // имеют общую точку. На общем конечном промежутке перебираются повторения серии с большим периодом,
+    // а второй серии задаётся вопрос о ближайшем повторении. Две бесконечные серии сдвинуты друг
+    // относительно друга на разность начал по модулю НОД периодов - и этот сдвиг рано или поздно
+    // принимает каждое своё значение, поэтому достаточно проверить остатки
+    boolean seriesIntersect(Task task, IntPredicate skipped) {
+        Series candidate = new Series(task);
+        for (Series series : seriesById.values()) {
+            if (skipped.test(series.task.getId())) {
+                continue;
+            }
+            long commonFrom = Math.max(candidate.first, series.first);
+            long commonTo = Math.min(candidate.end(), series.end());
+            if (commonFrom >= commonTo) {
+                continue;
+            }
+            if (commonTo == Long.MAX_VALUE) {
+                long shift = candidate.first - series.first;
+                if (residueIn(shift, gcd(candidate.period, series.period), -candidate.duration, series.duration)) {
+                    return true;
+                }
+            } else if (candidate.period >= series.period
+                    ? overlapsAny(candidate, series, commonFrom, commonTo)
+                    : overlapsAny(series, candidate, commonFrom, commonTo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // пересекает ли какое-нибудь повторение other повторение iterated, начавшееся в [from, to)
+    private static boolean overlapsAny(Series iterated, Series other, long from, long to) {
+        long iteratedMinutes = iterated.task.getDuration();
+        long otherMinutes = other.task.getDuration();
+        for (long k = iterated.firstIndexEndingAfter(from); k <= iterated.last; k++) {
+            LocalDateTime start = iterated.start(k);
+            if (second(start) >= to) {
+                break;
+            }
+            if (other.hasStartIn(start.minusMinutes(otherMinutes), start.plusMinutes(iteratedMinutes))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Series series(Task task) {
+        return new Series(task);
+    }
+
+    // есть ли x = residue (mod modulus) в интервале (low, high)
+    private static boolean residueIn(long residue, long modulus, long low, long high) {
+        long x = low + Math.floorMod(residue - low, modulus);
+        if (x == low) {
+            x += modulus;
+        }
+        return x < high;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    static long second(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static final class Series {
+        final Task task;
+        final long first; // начало первого повторения, секунды
+        final long period;
+        final long duration;
+        final long phase; // first по модулю period
+        final long last; // номер последнего повторения, Long.MAX_VALUE - без окончания
+
+        Series(Task task) {
+            this.task = task;
+            Recurrence recurrence = task.getRecurrence();
+            first = second(task.getStartTime());
+            period = recurrence.getInterval() * 60;
+            duration = task.getDuration() * 60;
+            phase = Math.floorMod(first, period);
+            if (recurrence.getUntil() == null) {
+                last = Long.MAX_VALUE;
+            } else {
+                last = lastIndexBefore(recurrence.getUntil(), Long.MAX_VALUE);
+            }
+        }
+
+        LocalDateTime start(long k) {
+            return task.getStartTime().plusMinutes(k * task.getRecurrence().getInterval());
+        }
+
+        Task occurrence(LocalDateTime start) {
+            Task occurrence = new Task(task.getName(), task.getStatus(), task.getDescription(), start,
+                    task.getDuration(), task.getId());
+            occurrence.setRecurrence(task.getRecurrence());
+            return occurrence;
+        }
+
+        long lastIndexBefore(LocalDateTime point) { // номер последнего повторения, начавшегося до point, или -1
+            return lastIndexBefore(point, last);
+        }
+
+        // начинается ли какое-нибудь повторение строго внутри (low, high)
+        boolean hasStartIn(LocalDateTime low, LocalDateTime high) {
+            long k = Math.max(0, Math.floorDiv(second(low) - first, period));
+            for (long end = k + 2; k <= end && k <= last; k++) {
+                LocalDateTime start = start(k);
+                if (start.isAfter(low)) {
+                    return start.isBefore(high);
+                }
+            }
+            return false;
+        }
+
+        long firstIndexEndingAfter(long second) {
+            return Math.max(0, Math.floorDiv(second - duration - first, period) - 1);
+        }
+
+        long end() {
+            return last == Long.MAX_VALUE ? Long.MAX_VALUE : first + last * period + duration;
+        }
+
+        private long lastIndexBefore(LocalDateTime point, long last) {
+            long k = Math.min(last, Math.floorDiv(second(point) - first, period) + 1);
+            while (k >= 0 && !start(k).isBefore(point)) {
+                k--;
+            }
+            return k;
+        }
+    }
+
+    private static final class PeriodGroup {
+        final TreeMap<Long, List<Series>> byPhase = new TreeMap<>();
+        long maxDuration; // не уменьшается при удалении: окно поиска только шире, результат тот же
+
+        // серии с фазой в [from, to] по модулю периода
+        List<Series> candidates(long from, long to) {
+            List<Series> result = new ArrayList<>();
+            long period = groupPeriod();
+            if (to - from >= period) {
+                for (List<Series> samePhase : byPhase.values()) {
+                    result.addAll(samePhase);
+                }
+                return result;
+            }
+            long low = Math.floorMod(from, period);
+            long high = Math.floorMod(to, period);
+            if (low <= high) {
+                collect(byPhase.subMap(low, true, high, true), result);
+            } else {
+                collect(byPhase.tailMap(low, true), result);
+                collect(byPhase.headMap(high, true), result);
+            }
+            return result;
+        }
+
+        private long groupPeriod() {
+            return byPhase.firstEntry().getValue().get(0).period;
+        }
+
+        private static void collect(NavigableMap<Long, List<Series>> phases, List<Series> result) {
+            for (List<Series> samePhase : phases.values()) {
+                result.addAll(samePhase);
+            }
+        }
+    }
+}
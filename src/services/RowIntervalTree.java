@@ -0,0 +1,215 @@
+package services;
+
+import entity.IntList;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+// То же AVL-дерево интервалов, что и TaskIntervalTree, но узел - номер строки TaskColumns, а ключ (начало, id)
+// и окончание читаются из колонок: на задачу 17 байт в массивах вместо объекта узла. Время - в минутах.
+// Строку нужно убрать из дерева до того, как в колонки запишут её новое время.
+class RowIntervalTree {
+
+    static final long NONE = Long.MIN_VALUE;
+    private static final int NIL = -1;
+
+    private final TaskColumns columns;
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private byte[] heights = new byte[16]; // 0 - строки нет в дереве
+    private long[] maxEnds = new long[16]; // наибольшее окончание в поддереве
+    private int root = NIL;
+    private int size;
+
+    RowIntervalTree(TaskColumns columns) {
+        this.columns = columns;
+    }
+
+    void add(int row) {
+        if (columns.starts[row] == TaskColumns.NO_TIME) {
+            return;
+        }
+        if (row >= heights.length) {
+            int length = Math.max(row + 1, heights.length << 1);
+            left = Arrays.copyOf(left, length);
+            right = Arrays.copyOf(right, length);
+            heights = Arrays.copyOf(heights, length);
+            maxEnds = Arrays.copyOf(maxEnds, length);
+        }
+        left[row] = NIL;
+        right[row] = NIL;
+        heights[row] = 1;
+        maxEnds[row] = columns.end(row);
+        root = insert(root, row);
+        size++;
+    }
+
+    void remove(int row) {
+        if (row < heights.length && heights[row] != 0) {
+            root = delete(root, row);
+            heights[row] = 0;
+            size--;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // наибольшее окончание среди задач, начавшихся раньше минуты bound, или NONE
+    long maxEndStartingBefore(long bound) {
+        long result = NONE;
+        int node = root;
+        while (node != NIL) {
+            if (columns.starts[node] < bound) {
+                result = Math.max(result, maxEnd(left[node]));
+                result = Math.max(result, columns.end(node));
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return result;
+    }
+
+    // пересекается ли [start, end) с какой-нибудь строкой: среди начавшихся раньше end есть окончание позже start
+    boolean overlaps(long start, long end) {
+        return maxEndStartingBefore(end) > start;
+    }
+
+    // строки, интервал которых пересекается с [from, to), в порядке (начало, id); задачи нулевой длительности
+    // попадают в окно, если начинаются внутри него. Границы окна могут быть не кратны минуте
+    void overlapping(LocalDateTime from, LocalDateTime to, IntList result) {
+        collect(TaskColumns.minute(from), TaskColumns.minuteCeiling(from), TaskColumns.minuteCeiling(to), result);
+    }
+
+    void all(IntList result) { // все строки по возрастанию (начало, id)
+        collect(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, result);
+    }
+
+    // end > endAfter или start >= startFrom, и start < startBefore; поддерево с maxEnd < startFrom отсекается
+    private void collect(long endAfter, long startFrom, long startBefore, IntList result) {
+        int[] stack = new int[64];
+        int depth = 0;
+        int node = root;
+        while (node != NIL || depth > 0) {
+            while (node != NIL && maxEnds[node] >= startFrom) {
+                stack[depth++] = node;
+                node = left[node];
+            }
+            if (depth == 0) {
+                return;
+            }
+            node = stack[--depth];
+            long start = columns.starts[node];
+            if (start >= startBefore) {
+                return;
+            }
+            if (columns.end(node) > endAfter || start >= startFrom) {
+                result.addInt(node);
+            }
+            node = right[node];
+        }
+    }
+
+    private int insert(int node, int row) {
+        if (node == NIL) {
+            return row;
+        }
+        if (compare(row, node) < 0) {
+            left[node] = insert(left[node], row);
+        } else {
+            right[node] = insert(right[node], row);
+        }
+        return balance(node);
+    }
+
+    private int delete(int node, int row) {
+        if (node == NIL) {
+            return NIL;
+        }
+        int cmp = compare(row, node);
+        if (cmp < 0) {
+            left[node] = delete(left[node], row);
+        } else if (cmp > 0) {
+            right[node] = delete(right[node], row);
+        } else {
+            if (left[node] == NIL) {
+                return right[node];
+            }
+            if (right[node] == NIL) {
+                return left[node];
+            }
+            int successor = right[node];
+            while (left[successor] != NIL) {
+                successor = left[successor];
+            }
+            right[successor] = deleteMin(right[node]);
+            left[successor] = left[node];
+            return balance(successor);
+        }
+        return balance(node);
+    }
+
+    private int deleteMin(int node) {
+        if (left[node] == NIL) {
+            return right[node];
+        }
+        left[node] = deleteMin(left[node]);
+        return balance(node);
+    }
+
+    private int compare(int row, int node) {
+        int cmp = Long.compare(columns.starts[row], columns.starts[node]);
+        return cmp != 0 ? cmp : Integer.compare(columns.ids[row], columns.ids[node]);
+    }
+
+    private int balance(int node) {
+        update(node);
+        int factor = height(left[node]) - height(right[node]);
+        if (factor > 1) {
+            if (height(left[left[node]]) < height(right[left[node]])) {
+                left[node] = rotateLeft(left[node]);
+            }
+            return rotateRight(node);
+        }
+        if (factor < -1) {
+            if (height(right[right[node]]) < height(left[right[node]])) {
+                right[node] = rotateRight(right[node]);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(int node) {
+        heights[node] = (byte) (Math.max(height(left[node]), height(right[node])) + 1);
+        maxEnds[node] = Math.max(columns.end(node), Math.max(maxEnd(left[node]), maxEnd(right[node])));
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : heights[node];
+    }
+
+    private long maxEnd(int node) {
+        return node == NIL ? NONE : maxEnds[node];
+    }
+}
@@ -0,0 +1,156 @@
+package services;
+
+import entity.IntList;
+import entity.Task;
+import entity.TaskStatus;
+
+import java.time.LocalDateTime;
+import java.util.PriorityQueue;
+
+// Сводка по задачам и подзадачам, которая ведётся при каждом изменении: плановые минуты по статусам и число
+// просроченных (не выполнены, окончание раньше текущего момента). Эпики не входят - их время выводится
+// из подзадач. Для каждого id хранится его вклад, поэтому замена и изменение на месте учитываются одинаково.
+// Просрочка зависит от часов: задачи, ещё не просроченные к последнему запросу, лежат в куче по окончанию
+// и переходят в просроченные при следующем запросе, каждая один раз. Окончания сравниваются так же, как
+// в TaskIntervalTree: по минутам, а в общей минуте - по самим LocalDateTime. Удалённые и изменённые записи
+// выбрасываются из кучи, когда до них доходит очередь. Методы синхронизированы, как и в StatusIndex.
+class StatsIndex {
+
+    private static final int STATUSES = TaskStatus.values().length;
+
+    private static final class Entry {
+        final TaskStatus status;
+        final long duration;
+        final long endMinute;
+        final LocalDateTime end;
+        boolean live = true;
+        boolean overdue;
+
+        Entry(Task task) {
+            status = task.getStatus();
+            duration = task.getDuration();
+            endMinute = task.getEndMinute();
+            end = endMinute == Task.NO_TIME ? null : task.getEndTime();
+        }
+
+        boolean canBeOverdue() {
+            return status != TaskStatus.DONE && endMinute != Task.NO_TIME;
+        }
+
+        boolean sameAs(Task task) {
+            return status == task.getStatus() && duration == task.getDuration() && endMinute == task.getEndMinute()
+                    && (end == null || end.equals(task.getEndTime()));
+        }
+
+        boolean endsBefore(long minute, LocalDateTime time) {
+            return TaskIntervalTree.compareTimes(endMinute, end, minute, time) < 0;
+        }
+    }
+
+    private final long[] plannedMinutes = new long[STATUSES];
+    private final IntHashMap<Entry> entries = new IntHashMap<>();
+    private final PriorityQueue<Entry> upcoming = new PriorityQueue<>((entry1, entry2) ->
+            TaskIntervalTree.compareTimes(entry1.endMinute, entry1.end, entry2.endMinute, entry2.end));
+    private LocalDateTime frontier; // момент последнего запроса просрочки, null - запросов не было
+    private long frontierMinute;
+    private int overdue;
+
+    synchronized void update(Task task) {
+        Entry old = entries.get(task.getId());
+        if (old != null) {
+            if (old.sameAs(task)) {
+                return;
+            }
+            drop(old);
+        }
+        Entry entry = new Entry(task);
+        entries.put(task.getId(), entry);
+        plannedMinutes[entry.status.ordinal()] += entry.duration;
+        track(entry);
+        if (upcoming.size() > 2 * entries.size() + 64) { // много выброшенных записей ждут своей очереди
+            upcoming.removeIf(stale -> !stale.live);
+        }
+    }
+
+    synchronized void remove(int id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            drop(entry);
+        }
+    }
+
+    // вклад нескольких записей убирается под одной блокировкой, например подзадач эпика, удалённого
+    // с отложенной очисткой: сами подзадачи уходят из хранилища позже, и сводка не должна их ждать
+    synchronized void remove(IntList ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            remove(ids.getInt(i));
+        }
+    }
+
+    synchronized long[] plannedMinutes() { // по порядковому номеру статуса
+        return plannedMinutes.clone();
+    }
+
+    // просрочены записи с окончанием строго раньше now
+    synchronized int overdue(LocalDateTime now) {
+        long nowMinute = TaskColumns.minute(now);
+        boolean clockMovedBack = frontier != null
+                && TaskIntervalTree.compareTimes(nowMinute, now, frontierMinute, frontier) < 0;
+        frontier = now;
+        frontierMinute = nowMinute;
+        if (clockMovedBack) { // просрочка пересчитывается заново
+            overdue = 0;
+            upcoming.clear();
+            for (Entry entry : entries.values()) {
+                entry.overdue = false;
+                track(entry);
+            }
+            return overdue;
+        }
+        while (!upcoming.isEmpty() && upcoming.peek().endsBefore(frontierMinute, frontier)) {
+            Entry entry = upcoming.poll();
+            if (entry.live) {
+                entry.overdue = true;
+                overdue++;
+            }
+        }
+        return overdue;
+    }
+
+    OrderedIntHashMap.Listener<Task> listener() { // поддерживает сводку по хранилищу задач или подзадач
+        return new StoreListener();
+    }
+
+    private void track(Entry entry) {
+        if (!entry.canBeOverdue()) {
+            return;
+        }
+        if (frontier != null && entry.endsBefore(frontierMinute, frontier)) {
+            entry.overdue = true;
+            overdue++;
+        } else {
+            upcoming.add(entry);
+        }
+    }
+
+    private void drop(Entry entry) {
+        entry.live = false;
+        plannedMinutes[entry.status.ordinal()] -= entry.duration;
+        if (entry.overdue) {
+            overdue--;
+        }
+    }
+
+    private class StoreListener implements OrderedIntHashMap.Listener<Task> {
+
+        @Override
+        public void put(int key, Task value) {
+            update(value);
+        }
+
+        @Override
+        public void removed(int key) {
+            remove(key);
+        }
+    }
+}
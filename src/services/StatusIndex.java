@@ -0,0 +1,80 @@
+package services;
+
+import entity.IntList;
+import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+
+// Вторичный индекс id по типу и статусу. Для каждого id запоминается ячейка, в которую он попал,
+// поэтому перенос при смене статуса не зависит от того, изменили задачу на месте или заменили.
+// Выборка - O(k), подсчёт - O(1). Методы синхронизированы: индекс общий и для ConcurrentTaskManager.
+class StatusIndex {
+
+    private static final int STATUSES = TaskStatus.values().length;
+
+    private final IntList[] ids = new IntList[TaskType.values().length * STATUSES];
+    private final IntHashMap<Integer> slots = new IntHashMap<>(); // id -> ячейка, значения из кэша Integer
+
+    StatusIndex() {
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new IntList();
+        }
+    }
+
+    synchronized void update(TaskType type, Task task) {
+        int id = task.getId();
+        int slot = type.ordinal() * STATUSES + task.getStatus().ordinal();
+        Integer oldSlot = slots.put(id, slot);
+        if (oldSlot != null) {
+            if (oldSlot == slot) {
+                return;
+            }
+            ids[oldSlot].removeInt(id);
+        }
+        ids[slot].addInt(id);
+    }
+
+    synchronized void remove(int id) {
+        Integer slot = slots.remove(id);
+        if (slot != null) {
+            ids[slot].removeInt(id);
+        }
+    }
+
+    synchronized void clear() {
+        slots.clear();
+        for (IntList list : ids) {
+            list.clear();
+        }
+    }
+
+    synchronized int count(TaskType type, TaskStatus status) {
+        return ids[type.ordinal() * STATUSES + status.ordinal()].size();
+    }
+
+    synchronized int[] ids(TaskType type, TaskStatus status) { // копия, чтобы обходить её без блокировки
+        return ids[type.ordinal() * STATUSES + status.ordinal()].toIntArray();
+    }
+
+    OrderedIntHashMap.Listener<Task> listener(TaskType type) { // поддерживает индекс по хранилищу одного типа
+        return new StoreListener(type);
+    }
+
+    private class StoreListener implements OrderedIntHashMap.Listener<Task> {
+        private final TaskType type;
+
+        StoreListener(TaskType type) {
+            this.type = type;
+        }
+
+        @Override
+        public void put(int key, Task value) {
+            update(type, value);
+        }
+
+        @Override
+        public void removed(int key) {
+            remove(key);
+        }
+    }
+}
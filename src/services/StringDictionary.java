@@ -0,0 +1,63 @@
+package services;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Словарь строк колоночного хранилища: одинаковые названия и описания хранятся один раз, в колонках - коды.
+// Код освобождается, когда на строку больше не ссылается ни одна задача, и выдаётся заново.
+class StringDictionary {
+
+    static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] strings = new String[16];
+    private int[] references = new int[16];
+    private int capacity; // коды 0..capacity-1 когда-либо выдавались
+    private int[] freeCodes = new int[16]; // стек освобождённых кодов, без индекса позиций IntList
+    private int freeTop;
+
+    int intern(String string) {
+        if (string == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(string);
+        if (code == null) {
+            code = freeTop == 0 ? capacity++ : freeCodes[--freeTop];
+            if (code == strings.length) {
+                strings = Arrays.copyOf(strings, code << 1);
+                references = Arrays.copyOf(references, code << 1);
+            }
+            strings[code] = string;
+            codes.put(string, code);
+        }
+        references[code]++;
+        return code;
+    }
+
+    void release(int code) {
+        if (code == NULL_CODE) {
+            return;
+        }
+        if (--references[code] == 0) {
+            codes.remove(strings[code]);
+            strings[code] = null;
+            if (freeTop == freeCodes.length) {
+                freeCodes = Arrays.copyOf(freeCodes, freeTop << 1);
+            }
+            freeCodes[freeTop++] = code;
+        }
+    }
+
+    String get(int code) {
+        return code == NULL_CODE ? null : strings[code];
+    }
+
+    int capacity() { // граница кодов для массивов, проиндексированных кодом
+        return capacity;
+    }
+
+    int size() {
+        return codes.size();
+    }
+}
@@ -0,0 +1,77 @@
+package services;
+
+import java.lang.ref.WeakReference;
+
+// Пул канонических строк для всех путей загрузки задач: CSV, снимок из KVServer, тела запросов. Доски
+// собираются из шаблонов, и одно название приходит миллионы раз отдельными копиями - пул подменяет копию
+// уже известным экземпляром. Таблица фиксированного размера со слабыми ссылками: строка, которой не
+// пользуется ни одна задача, уходит сборщику мусора, а при заполнении новая строка вытесняет строку
+// из своей ячейки. В отличие от StringDictionary кодов и счётчиков ссылок нет.
+public class StringPool {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int PROBES = 4; // ячеек просматривается от хеша строки
+
+    private static final StringPool SHARED = new StringPool(DEFAULT_CAPACITY);
+
+    private final WeakReference<String>[] slots;
+    private final int mask;
+    private long hits;
+    private long misses;
+
+    @SuppressWarnings("unchecked")
+    public StringPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным");
+        }
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1; // степень двойки не меньше capacity
+        slots = (WeakReference<String>[]) new WeakReference<?>[size];
+        mask = size - 1;
+    }
+
+    public static StringPool shared() {
+        return SHARED;
+    }
+
+    public synchronized String canonical(String string) {
+        if (string == null) {
+            return null;
+        }
+        int hash = string.hashCode();
+        int home = (hash ^ (hash >>> 16)) & mask;
+        int free = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & mask;
+            String pooled = slots[slot] == null ? null : slots[slot].get();
+            if (pooled == null) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (pooled.hashCode() == hash && pooled.equals(string)) {
+                hits++;
+                return pooled;
+            }
+        }
+        misses++;
+        slots[free >= 0 ? free : home] = new WeakReference<>(string);
+        return string;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() { // живые строки; проход по всей таблице
+        int size = 0;
+        for (WeakReference<String> slot : slots) {
+            if (slot != null && slot.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,111 @@
+package services;
+
+import entity.Epic;
+import entity.Subtask;
+import entity.Task;
+import exception.ManagerIntersectionsException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+// Разбор пакета для saveAll. Подзадача пакета ссылается на эпик того же пакета по его прежнему id
+// (как при выгрузке доски), иначе - на уже сохранённый эпик. Подзадача без эпика отклоняет весь пакет:
+// saveAll возвращает id каждого элемента, а молча пропущенной подзадаче выдать нечего.
+// Пересечения внутри пакета проверяются одним проходом по отсортированным интервалам.
+class TaskBatch {
+
+    private static final Comparator<Task> BY_INTERVAL = (task1, task2) -> {
+        int byStart = TaskIntervalTree.compareTimes(task1.getStartMinute(), task1.getStartTime(),
+                task2.getStartMinute(), task2.getStartTime());
+        return byStart != 0 ? byStart : compareEnds(task1, task2);
+    };
+
+    final List<Task> items = new ArrayList<>(); // сохраняемые задачи в порядке пакета
+    final List<Epic> batchEpics = new ArrayList<>();
+    final List<Subtask> subtasks = new ArrayList<>();
+    final List<Epic> subtaskEpics = new ArrayList<>(); // эпик каждой подзадачи из subtasks
+    final List<Task> timed = new ArrayList<>(); // задачи и подзадачи со временем по возрастанию начала
+
+    TaskBatch(Collection<? extends Task> batch, IntFunction<Epic> savedEpics) {
+        IntHashMap<Epic> epicsByBatchId = new IntHashMap<>();
+        for (Task task : batch) {
+            if (task instanceof Epic && task.getId() > 0) {
+                epicsByBatchId.put(task.getId(), (Epic) task);
+            }
+        }
+        for (Task task : batch) {
+            if (task.getRecurrence() != null) { // сортировка пакета не учитывает повторения
+                throw new IllegalArgumentException("Повторяющаяся задача сохраняется отдельно");
+            }
+            if (task instanceof Epic) {
+                batchEpics.add((Epic) task);
+            } else if (task instanceof Subtask) {
+                Subtask subtask = (Subtask) task;
+                Epic epic = epicsByBatchId.get(subtask.getEpicID());
+                if (epic == null) {
+                    epic = savedEpics.apply(subtask.getEpicID());
+                }
+                if (epic == null) {
+                    throw new IllegalArgumentException("Подзадача " + subtask.getName()
+                            + " ссылается на отсутствующий эпик " + subtask.getEpicID());
+                }
+                subtasks.add(subtask);
+                subtaskEpics.add(epic);
+            }
+            items.add(task);
+            if (!(task instanceof Epic) && task.getStartTime() != null) {
+                timed.add(task);
+            }
+        }
+        timed.sort(BY_INTERVAL);
+        checkIntersections();
+    }
+
+    // внутри пакета задачи не должны перекрываться по тому же правилу, что и при одиночном сохранении.
+    // Задачи идут по (начало, окончание), поэтому достаточно сравнить задачу с самой поздно оканчивающейся
+    // из предыдущих: задача нулевой длительности стоит раньше длинных с тем же началом
+    private void checkIntersections() {
+        Task latestEnding = null;
+        for (Task task : timed) {
+            if (latestEnding != null && TaskIntervalTree.overlap(task, latestEnding)) {
+                throw new ManagerIntersectionsException("Произошло наложение задач по времени!");
+            }
+            if (latestEnding == null || compareEnds(task, latestEnding) > 0) {
+                latestEnding = task;
+            }
+        }
+    }
+
+    private static int compareEnds(Task task1, Task task2) {
+        return TaskIntervalTree.compareTimes(task1.getEndMinute(), task1.getEndTime(),
+                task2.getEndMinute(), task2.getEndTime());
+    }
+
+    // ids выдаются одним блоком начиная с firstId; списки подзадач эпиков пакета собираются заново
+    void assignIds(int firstId) {
+        int id = firstId;
+        for (Task task : items) {
+            task.setId(id++);
+            task.setVersion(1);
+        }
+        for (Epic epic : batchEpics) {
+            epic.getSubtasks().clear();
+            epic.clearStatusCounters();
+            epic.clearSubtasksTime();
+        }
+        for (int i = 0; i < subtasks.size(); i++) {
+            subtasks.get(i).setEpicID(subtaskEpics.get(i).getId());
+        }
+    }
+
+    List<Integer> ids(Collection<? extends Task> batch) {
+        List<Integer> ids = new ArrayList<>(batch.size());
+        for (Task task : batch) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,240 @@
+package services;
+
+import entity.IntList;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+// Задачи и подзадачи в параллельных массивах примитивов: строка - одна задача, около 60 байт вместо
+// объекта Task со строками, LocalDateTime и ссылкой на enum. Время хранится в минутах от эпохи (UTC),
+// с точностью до минуты, как и в CSV; названия и описания - кодами общего словаря строк.
+// Строки не переезжают: освобождённая строка выдаётся следующей задаче, поэтому номер строки
+// можно использовать как номер узла в RowIntervalTree.
+class TaskColumns {
+
+    static final long NO_TIME = Long.MIN_VALUE;
+    private static final int STATUSES = TaskStatus.values().length;
+    private static final TaskType[] TYPES = TaskType.values();
+    private static final TaskStatus[] STATUS_VALUES = TaskStatus.values();
+
+    final StringDictionary strings = new StringDictionary();
+
+    int[] ids = new int[16]; // 0 - строка свободна
+    byte[] types = new byte[16];
+    byte[] statuses = new byte[16];
+    long[] starts = new long[16];
+    long[] durations = new long[16];
+    int[] epicIds = new int[16];
+    int[] names = new int[16];
+    int[] descriptions = new int[16];
+    long[] versions = new long[16];
+
+    private int rowCount; // строки 0..rowCount-1 когда-либо заняты
+    private final IntList freeRows = new IntList();
+    private int[] rowById = new int[16]; // id плотные (BlockIdAllocator), поэтому массив, а не хеш-таблица
+    private final BitSet[] idsByType = new BitSet[TYPES.length]; // для страниц и списков по возрастанию id
+    private final int[] counts = new int[TYPES.length * STATUSES];
+
+    // сводка для getStats ведётся при записи строк, как в StatsIndex: плановые минуты по статусам и просрочка.
+    // Строки, ещё не просроченные к последнему запросу, лежат в куче по окончанию как {окончание, строка,
+    // отметка}; отметка строки растёт при каждой записи и удалении, и устаревшие элементы кучи пропускаются
+    private final long[] plannedMinutes = new long[STATUSES];
+    private int[] stamps = new int[16];
+    private final BitSet overdueRows = new BitSet();
+    private final PriorityQueue<long[]> upcoming = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+    private long frontier = NO_TIME; // минута последнего запроса просрочки, NO_TIME - запросов не было
+    private int overdue;
+
+    TaskColumns() {
+        Arrays.fill(rowById, -1);
+        for (int i = 0; i < idsByType.length; i++) {
+            idsByType[i] = new BitSet();
+        }
+    }
+
+    int row(int id) { // -1, если задачи нет
+        return id > 0 && id < rowById.length ? rowById[id] : -1;
+    }
+
+    int row(int id, TaskType type) {
+        int row = row(id);
+        return row >= 0 && types[row] == type.ordinal() ? row : -1;
+    }
+
+    int rowCount() {
+        return rowCount;
+    }
+
+    int count(TaskType type, TaskStatus status) {
+        return counts[type.ordinal() * STATUSES + status.ordinal()];
+    }
+
+    int size(TaskType type) {
+        return idsByType[type.ordinal()].cardinality();
+    }
+
+    BitSet ids(TaskType type) {
+        return idsByType[type.ordinal()];
+    }
+
+    int insert(Task task) {
+        int row = freeRows.isEmpty() ? rowCount++ : freeRows.remove(freeRows.size() - 1);
+        if (row == ids.length) {
+            grow();
+        }
+        int id = task.getId();
+        if (id >= rowById.length) {
+            int oldLength = rowById.length;
+            rowById = Arrays.copyOf(rowById, Math.max(id + 1, oldLength << 1));
+            Arrays.fill(rowById, oldLength, rowById.length, -1);
+        }
+        rowById[id] = row;
+        ids[row] = id;
+        types[row] = (byte) task.getTaskType().ordinal();
+        idsByType[types[row]].set(id);
+        names[row] = StringDictionary.NULL_CODE;
+        descriptions[row] = StringDictionary.NULL_CODE;
+        statuses[row] = -1;
+        write(row, task);
+        return row;
+    }
+
+    void write(int row, Task task) { // тип и id строки не меняются
+        if (statuses[row] >= 0) { // -1 у новой строки
+            counts[types[row] * STATUSES + statuses[row]]--;
+            untrack(row);
+        }
+        statuses[row] = (byte) task.getStatus().ordinal();
+        counts[types[row] * STATUSES + statuses[row]]++;
+        starts[row] = minute(task.getStartTime());
+        durations[row] = task.getDuration();
+        epicIds[row] = task instanceof Subtask ? ((Subtask) task).getEpicID() : 0;
+        int oldName = names[row];
+        int oldDescription = descriptions[row];
+        names[row] = strings.intern(task.getName()); // сначала новые коды, чтобы не освободить ту же строку
+        descriptions[row] = strings.intern(task.getDescription());
+        strings.release(oldName);
+        strings.release(oldDescription);
+        versions[row] = task.getVersion();
+        plannedMinutes[statuses[row]] += durations[row];
+        track(row);
+    }
+
+    void delete(int row) {
+        counts[types[row] * STATUSES + statuses[row]]--;
+        untrack(row);
+        strings.release(names[row]);
+        strings.release(descriptions[row]);
+        idsByType[types[row]].clear(ids[row]);
+        rowById[ids[row]] = -1;
+        ids[row] = 0;
+        statuses[row] = -1; // счётчик уже уменьшен
+        freeRows.addInt(row);
+    }
+
+    Task materialize(int row) { // новый объект на каждый вызов: изменения сохраняются только через update
+        LocalDateTime start = time(starts[row]);
+        Task task;
+        if (types[row] == TaskType.SUBTASK.ordinal()) {
+            task = new Subtask(ids[row], strings.get(names[row]), STATUS_VALUES[statuses[row]],
+                    strings.get(descriptions[row]), start, durations[row], epicIds[row]);
+        } else {
+            task = new Task(strings.get(names[row]), STATUS_VALUES[statuses[row]],
+                    strings.get(descriptions[row]), start, durations[row], ids[row]);
+        }
+        task.setVersion(versions[row]);
+        return task;
+    }
+
+    long end(int row) {
+        return starts[row] + durations[row];
+    }
+
+    long[] plannedMinutes() { // по порядковому номеру статуса
+        return plannedMinutes.clone();
+    }
+
+    // просрочены невыполненные строки с окончанием раньше nowMinute; каждая строка переходит в просроченные
+    // один раз, поэтому запрос - O(числа новых просрочек · log n), а не проход по колонкам
+    int overdue(long nowMinute) {
+        if (frontier != NO_TIME && nowMinute < frontier) { // часы пошли назад: просрочка пересчитывается заново
+            frontier = nowMinute;
+            overdue = 0;
+            overdueRows.clear();
+            upcoming.clear();
+            for (int row = 0; row < rowCount; row++) {
+                if (ids[row] != 0) {
+                    track(row);
+                }
+            }
+            return overdue;
+        }
+        frontier = nowMinute;
+        while (!upcoming.isEmpty() && upcoming.peek()[0] < frontier) {
+            long[] entry = upcoming.poll();
+            int row = (int) entry[1];
+            if (stamps[row] == entry[2]) {
+                overdueRows.set(row);
+                overdue++;
+            }
+        }
+        return overdue;
+    }
+
+    private void track(int row) {
+        if (statuses[row] == TaskStatus.DONE.ordinal() || starts[row] == NO_TIME) {
+            return;
+        }
+        if (frontier != NO_TIME && end(row) < frontier) {
+            overdueRows.set(row);
+            overdue++;
+        } else {
+            upcoming.add(new long[]{end(row), row, stamps[row]});
+            if (upcoming.size() > 2 * rowCount + 64) { // много устаревших элементов ждут своей очереди
+                upcoming.removeIf(stale -> stamps[(int) stale[1]] != stale[2]);
+            }
+        }
+    }
+
+    private void untrack(int row) { // убирает вклад строки в сводку до записи или удаления
+        plannedMinutes[statuses[row]] -= durations[row];
+        stamps[row]++;
+        if (overdueRows.get(row)) {
+            overdueRows.clear(row);
+            overdue--;
+        }
+    }
+
+    static long minute(LocalDateTime time) {
+        return time == null ? NO_TIME : Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    static long minuteCeiling(LocalDateTime time) { // наименьшая минута не раньше time
+        return minute(time) + (time.getSecond() != 0 || time.getNano() != 0 ? 1 : 0);
+    }
+
+    static LocalDateTime time(long minute) {
+        return minute == NO_TIME ? null : LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC);
+    }
+
+    private void grow() {
+        int length = ids.length << 1;
+        ids = Arrays.copyOf(ids, length);
+        types = Arrays.copyOf(types, length);
+        statuses = Arrays.copyOf(statuses, length);
+        starts = Arrays.copyOf(starts, length);
+        durations = Arrays.copyOf(durations, length);
+        epicIds = Arrays.copyOf(epicIds, length);
+        names = Arrays.copyOf(names, length);
+        descriptions = Arrays.copyOf(descriptions, length);
+        versions = Arrays.copyOf(versions, length);
+        stamps = Arrays.copyOf(stamps, length);
+    }
+}
@@ -0,0 +1,70 @@
+package services;
+
+import entity.Task;
+import entity.TaskType;
+
+// Изменение в менеджере: состояние задачи до и после и номер в ленте. before - null у созданной задачи,
+// after - null у удалённой, у просмотренной это один и тот же объект. Эпики в событиях - копии без списка
+// подзадач (статус, время, название), потому что менеджер меняет эпик на месте; у пересчёта эпика после
+// изменения одной подзадачи её id в subtaskId. Задачи и подзадачи менеджер не изменяет, в событии хранимые объекты.
+public final class TaskEvent {
+
+    public enum Kind {
+        CREATED,
+        UPDATED,
+        DELETED,
+        VIEWED
+    }
+
+    private final long sequence;
+    private final Kind kind;
+    private final Task before;
+    private final Task after;
+    private final int subtaskId;
+
+    TaskEvent(long sequence, Kind kind, Task before, Task after, int subtaskId) {
+        this.sequence = sequence;
+        this.kind = kind;
+        this.before = before;
+        this.after = after;
+        this.subtaskId = subtaskId;
+    }
+
+    public long getSequence() { // номера идут подряд с 1, пропуск - признак потерянных событий
+        return sequence;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Task getBefore() {
+        return before;
+    }
+
+    public Task getAfter() {
+        return after;
+    }
+
+    public int getSubtaskId() { // 0, если эпик изменился не из-за одной подзадачи
+        return subtaskId;
+    }
+
+    public int getId() {
+        return (after != null ? after : before).getId();
+    }
+
+    public TaskType getTaskType() {
+        return (after != null ? after : before).getTaskType();
+    }
+
+    @Override
+    public String toString() {
+        return "TaskEvent{" +
+                "sequence=" + sequence +
+                ", kind=" + kind +
+                ", id=" + getId() +
+                ", taskType=" + getTaskType() +
+                '}';
+    }
+}
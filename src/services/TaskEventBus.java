@@ -0,0 +1,124 @@
+package services;
+
+import entity.Task;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Лента изменений: события пишутся в кольцевой буфер без блокировок, а каждый подписчик читает его своим
+// потоком со своей позиции. Писатель никогда не ждёт подписчиков: отставший больше чем на ёмкость буфера
+// подписчик теряет самые старые события и узнаёт об этом через onOverrun, после чего читает дальше.
+// Событие лежит в ячейке номер & mask и само хранит свой номер, поэтому читатель отличает ещё не записанную
+// ячейку (номер меньше ожидаемого) от перезаписанной на следующем круге (номер больше).
+public class TaskEventBus {
+
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final long IDLE_PARK_NANOS = 1_000_000; // подписчик без событий спит до публикации или 1 мс
+
+    public interface Listener {
+        void onEvent(TaskEvent event);
+
+        default void onOverrun(long lostEvents) { // подписчик отстал, события перезаписаны
+        }
+    }
+
+    private final AtomicReferenceArray<TaskEvent> ring;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public TaskEventBus(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ёмкость ленты должна быть степенью двойки");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    long publish(TaskEvent.Kind kind, Task before, Task after) {
+        return publish(kind, before, after, 0);
+    }
+
+    long publish(TaskEvent.Kind kind, Task before, Task after, int subtaskId) {
+        long sequence = nextSequence.getAndIncrement();
+        ring.set((int) sequence & mask, new TaskEvent(sequence, kind, before, after, subtaskId));
+        for (Subscription subscription : subscriptions) {
+            subscription.wake();
+        }
+        return sequence;
+    }
+
+    public long getLastSequence() { // 0, пока событий не было
+        return nextSequence.get() - 1;
+    }
+
+    // подписчик получает события, опубликованные после подписки, в порядке номеров
+    public Subscription subscribe(Listener listener) {
+        Subscription subscription = new Subscription(listener, nextSequence.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    public final class Subscription implements AutoCloseable {
+
+        private final Listener listener;
+        private final Thread thread;
+        private volatile long position; // номер следующего события для подписчика
+        private volatile boolean active = true;
+        private volatile boolean waiting;
+
+        private Subscription(Listener listener, long position) {
+            this.listener = listener;
+            this.position = position;
+            thread = new Thread(this::run, "task-events-" + position);
+            thread.setDaemon(true);
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+            active = false;
+            subscriptions.remove(this);
+            LockSupport.unpark(thread);
+        }
+
+        private void wake() {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void run() { // исключение слушателя завершает подписку, писатель об этом не узнаёт
+            long cursor = position;
+            try {
+                while (active) {
+                    TaskEvent event = ring.get((int) cursor & mask);
+                    if (event == null || event.getSequence() < cursor) {
+                        waiting = true;
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        waiting = false;
+                        continue;
+                    }
+                    if (event.getSequence() > cursor) { // писатель ушёл на круг вперёд
+                        long resume = Math.max(cursor + 1, nextSequence.get() - mask);
+                        listener.onOverrun(resume - cursor);
+                        cursor = resume;
+                    } else {
+                        listener.onEvent(event);
+                        cursor++;
+                    }
+                    position = cursor;
+                }
+            } finally {
+                active = false;
+                subscriptions.remove(this);
+            }
+        }
+    }
+}
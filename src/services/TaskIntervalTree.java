@@ -0,0 +1,449 @@
+package services;
+
+import entity.Task;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// AVL-дерево интервалов [startTime, endTime), ключ - (startTime, id). Повторяющиеся задачи в дерево
+// не попадают: их повторения выводятся из RecurrenceIndex и учитываются во всех запросах к шкале.
+// Узлы неизменяемы: вставка и удаление копируют путь от корня, O(log n), а набор серий копируется
+// при изменении серий. Поэтому view() - согласованный снимок шкалы за O(1), читаемый без блокировок
+public class TaskIntervalTree {
+
+    public static final IntPredicate NONE = id -> false; // ни одна задача не пропускается
+
+    private final IntHashMap<LocalDateTime> startTimes = new IntHashMap<>(); // id -> ключ узла в дереве
+    private RecurrenceIndex recurrences = new RecurrenceIndex();
+    private Node root;
+    private int size;
+
+    // рядом с каждым временем - его минута от эпохи: сравнение идёт по long, а LocalDateTime
+    // сравниваются, только если минуты совпали
+    private static final class Node {
+        final Task task;
+        final LocalDateTime start;
+        final long startMinute;
+        final LocalDateTime end;
+        final long endMinute;
+        final LocalDateTime maxEnd; // наибольшее время окончания в поддереве
+        final long maxEndMinute;
+        final int height;
+        final Node left;
+        final Node right;
+
+        Node(Task task) {
+            this.task = task;
+            this.start = task.getStartTime();
+            this.startMinute = task.getStartMinute();
+            this.end = task.getEndTime();
+            this.endMinute = task.getEndMinute();
+            this.maxEnd = end;
+            this.maxEndMinute = endMinute;
+            this.height = 1;
+            this.left = null;
+            this.right = null;
+        }
+
+        Node(Node base, Node left, Node right) { // та же задача с другими детьми
+            this.task = base.task;
+            this.start = base.start;
+            this.startMinute = base.startMinute;
+            this.end = base.end;
+            this.endMinute = base.endMinute;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.left = left;
+            this.right = right;
+            LocalDateTime latest = end;
+            long latestMinute = endMinute;
+            if (left != null && compareTimes(left.maxEndMinute, left.maxEnd, latestMinute, latest) > 0) {
+                latest = left.maxEnd;
+                latestMinute = left.maxEndMinute;
+            }
+            if (right != null && compareTimes(right.maxEndMinute, right.maxEnd, latestMinute, latest) > 0) {
+                latest = right.maxEnd;
+                latestMinute = right.maxEndMinute;
+            }
+            this.maxEnd = latest;
+            this.maxEndMinute = latestMinute;
+        }
+    }
+
+    // неизменяемый вид шкалы на момент view(): те же запросы, что и у дерева, из любого потока без блокировок
+    public static final class View {
+        private final Node root;
+        private final RecurrenceIndex recurrences;
+
+        private View(Node root, RecurrenceIndex recurrences) {
+            this.root = root;
+            this.recurrences = recurrences;
+        }
+
+        public List<Task> overlapping(LocalDateTime from, LocalDateTime to) {
+            List<Task> result = new ArrayList<>();
+            collectOverlapping(root, TaskColumns.minute(from), from, TaskColumns.minute(to), to, result);
+            if (!recurrences.isEmpty()) { // повторения создаются только для запрошенного окна
+                result.addAll(recurrences.occurrences(from, to));
+                result.sort(InMemoryTaskManager.PRIORITY_ORDER);
+            }
+            return result;
+        }
+
+        public LocalDateTime firstFreeStart(LocalDateTime from, long minutes, IntPredicate skipped) {
+            LocalDateTime start = from;
+            while (true) {
+                LocalDateTime end = start.plusMinutes(minutes);
+                LocalDateTime treeEnd = skipped == NONE ? maxEndStartingBefore(root, TaskColumns.minute(end), end)
+                        : latestEnd(root, TaskColumns.minute(start), start, TaskColumns.minute(end), end, skipped);
+                LocalDateTime maxEnd = max(treeEnd, recurrences.latestEnd(start, end));
+                if (maxEnd == null || !maxEnd.isAfter(start)) {
+                    return start;
+                }
+                start = maxEnd;
+            }
+        }
+
+        public List<LocalDateTime> freeStarts(LocalDateTime from, long minutes, LocalDateTime horizon, int count,
+                                              IntPredicate skipped) {
+            if (minutes <= 0) {
+                throw new IllegalArgumentException("Длительность окна должна быть положительной: " + minutes);
+            }
+            List<LocalDateTime> result = new ArrayList<>();
+            LocalDateTime start = from;
+            while (result.size() < count) {
+                start = firstFreeStart(start, minutes, skipped);
+                LocalDateTime end = start.plusMinutes(minutes);
+                if (end.isAfter(horizon)) {
+                    break;
+                }
+                result.add(start);
+                start = end;
+            }
+            return result;
+        }
+    }
+
+    // сравнение моментов: по минутам от эпохи, а при равных минутах - по самим LocalDateTime
+    static int compareTimes(long minute1, LocalDateTime time1, long minute2, LocalDateTime time2) {
+        return minute1 != minute2 ? Long.compare(minute1, minute2) : time1.compareTo(time2);
+    }
+
+    // единое правило наложения для одиночного и пакетного сохранения: [start1, end1) и [start2, end2)
+    // имеют общую точку, то есть start1 < end2 и start2 < end1
+    static boolean overlap(long start1Minute, LocalDateTime start1, long end1Minute, LocalDateTime end1,
+                           long start2Minute, LocalDateTime start2, long end2Minute, LocalDateTime end2) {
+        return compareTimes(start1Minute, start1, end2Minute, end2) < 0
+                && compareTimes(start2Minute, start2, end1Minute, end1) < 0;
+    }
+
+    static boolean overlap(Task task1, Task task2) {
+        return overlap(task1.getStartMinute(), task1.getStartTime(), task1.getEndMinute(), task1.getEndTime(),
+                task2.getStartMinute(), task2.getStartTime(), task2.getEndMinute(), task2.getEndTime());
+    }
+
+    public void add(Task task) {
+        remove(task.getId());
+        if (task.getStartTime() == null) {
+            return;
+        }
+        if (task.getRecurrence() != null) {
+            RecurrenceIndex changed = recurrences.copy();
+            changed.add(task);
+            recurrences = changed;
+            return;
+        }
+        root = insert(root, new Node(task));
+        startTimes.put(task.getId(), task.getStartTime());
+    }
+
+    public void remove(int id) {
+        LocalDateTime start = startTimes.remove(id);
+        if (start != null) {
+            root = delete(root, TaskColumns.minute(start), start, id);
+        }
+        if (recurrences.contains(id)) {
+            RecurrenceIndex changed = recurrences.copy();
+            changed.remove(id);
+            recurrences = changed;
+        }
+    }
+
+    public void clear() {
+        startTimes.clear();
+        recurrences = new RecurrenceIndex();
+        root = null;
+        size = 0;
+    }
+
+    public int size() { // повторяющаяся задача считается один раз
+        return size + recurrences.size();
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && recurrences.isEmpty();
+    }
+
+    public View view() {
+        return new View(root, recurrences);
+    }
+
+    // пересекается ли [startTime, endTime) с каким-нибудь сохранённым интервалом: start < end2 и start2 < end.
+    // Тот же смысл, что и у overlapping и firstFreeStart; задача нулевой длительности пересекается только
+    // с интервалом, строго содержащим её начало
+    public boolean intersects(LocalDateTime startTime, LocalDateTime endTime) {
+        return overlaps(startTime, endTime, NONE);
+    }
+
+    // пересекается ли новая задача с сохранёнными, включая повторения. Сравнение идёт со всеми, в том числе
+    // с задачей того же id: id входящего объекта при сохранении ничего не значит. Повторения новой серии
+    // не перебираются: для каждой одиночной задачи в промежутке серии проверяется ближайшее повторение,
+    // для серий - сдвиг фаз
+    public boolean intersects(Task task) {
+        return intersects(task, NONE);
+    }
+
+    // то же для обновления: прежний интервал и повторения задачи ignoredId пропускаются при спуске,
+    // дерево при проверке не меняется
+    public boolean intersects(Task task, int ignoredId) {
+        return intersects(task, id -> id == ignoredId);
+    }
+
+    // то же с пропуском всех задач, для которых skipped истинно (например, ещё не вычищенных удалённых)
+    public boolean intersects(Task task, IntPredicate skipped) {
+        RecurrenceIndex.validate(task);
+        if (task.getStartTime() == null) {
+            return false;
+        }
+        if (task.getRecurrence() == null) {
+            return overlaps(task.getStartTime(), task.getEndTime(), skipped);
+        }
+        RecurrenceIndex.Series series = RecurrenceIndex.series(task);
+        LocalDateTime until = series.last == Long.MAX_VALUE ? null
+                : series.start(series.last).plusMinutes(task.getDuration());
+        return hitsTasks(root, series, until, skipped) || recurrences.seriesIntersect(task, skipped);
+    }
+
+    // задачи, интервал которых пересекается с [from, to), в порядке начала; задачи нулевой длительности
+    // попадают в окно, если начинаются внутри него. O(log n + k): поддеревья с maxEnd < from отсекаются
+    public List<Task> overlapping(LocalDateTime from, LocalDateTime to) {
+        return view().overlapping(from, to);
+    }
+
+    // первое начало s >= from, при котором [s, s + minutes) не пересекается ни с одной задачей. Если с окном
+    // пересекается хоть одна задача, окно сдвигается на самый поздний конец среди задач, начавшихся до конца окна:
+    // O(log n) на каждый перепрыгнутый блок занятого времени
+    public LocalDateTime firstFreeStart(LocalDateTime from, long minutes) {
+        return firstFreeStart(from, minutes, NONE);
+    }
+
+    // то же без задач, для которых skipped истинно: вместо maxEnd поддерева перебираются задачи, пересекающие
+    // окно, - O(log n + k) на шаг, где k включает и пропущенные задачи в окне
+    public LocalDateTime firstFreeStart(LocalDateTime from, long minutes, IntPredicate skipped) {
+        return view().firstFreeStart(from, minutes, skipped);
+    }
+
+    // до count подряд идущих свободных окон длиной minutes, целиком помещающихся в [from, horizon)
+    public List<LocalDateTime> freeStarts(LocalDateTime from, long minutes, LocalDateTime horizon, int count) {
+        return freeStarts(from, minutes, horizon, count, NONE);
+    }
+
+    public List<LocalDateTime> freeStarts(LocalDateTime from, long minutes, LocalDateTime horizon, int count,
+                                          IntPredicate skipped) {
+        return view().freeStarts(from, minutes, horizon, count, skipped);
+    }
+
+    private static void collectOverlapping(Node node, long fromMinute, LocalDateTime from, long toMinute, LocalDateTime to,
+                                    List<Task> result) {
+        if (node == null || compareTimes(node.maxEndMinute, node.maxEnd, fromMinute, from) < 0) {
+            return;
+        }
+        collectOverlapping(node.left, fromMinute, from, toMinute, to, result);
+        if (compareTimes(node.startMinute, node.start, toMinute, to) >= 0) {
+            return;
+        }
+        if (compareTimes(node.endMinute, node.end, fromMinute, from) > 0
+                || compareTimes(node.startMinute, node.start, fromMinute, from) >= 0) {
+            result.add(node.task);
+        }
+        collectOverlapping(node.right, fromMinute, from, toMinute, to, result);
+    }
+
+    private boolean overlaps(LocalDateTime start, LocalDateTime end, IntPredicate skipped) {
+        return overlaps(root, TaskColumns.minute(start), start, TaskColumns.minute(end), end, skipped)
+                || recurrences.overlaps(start, end, skipped);
+    }
+
+    // есть ли в поддереве непропущенная задача с start2 < end и start < end2. Поддерево с maxEnd <= start
+    // отсекается, а правее узла, начавшегося не раньше end, искать нечего. Сохранённые интервалы друг
+    // с другом не пересекаются, поэтому спуск - O(log n) плюс обход своего узла
+    private static boolean overlaps(Node node, long startMinute, LocalDateTime start, long endMinute,
+                                    LocalDateTime end, IntPredicate skipped) {
+        if (node == null || compareTimes(node.maxEndMinute, node.maxEnd, startMinute, start) <= 0) {
+            return false;
+        }
+        if (overlaps(node.left, startMinute, start, endMinute, end, skipped)) {
+            return true;
+        }
+        if (compareTimes(node.startMinute, node.start, endMinute, end) >= 0) {
+            return false;
+        }
+        if (!skipped.test(node.task.getId()) && overlap(node.startMinute, node.start, node.endMinute, node.end,
+                startMinute, start, endMinute, end)) {
+            return true;
+        }
+        return overlaps(node.right, startMinute, start, endMinute, end, skipped);
+    }
+
+    // самый поздний конец среди непропущенных задач, пересекающих [start, end) в смысле overlap, или null
+    private static LocalDateTime latestEnd(Node node, long startMinute, LocalDateTime start, long endMinute,
+                                           LocalDateTime end, IntPredicate skipped) {
+        if (node == null || compareTimes(node.maxEndMinute, node.maxEnd, startMinute, start) <= 0) {
+            return null;
+        }
+        LocalDateTime result = latestEnd(node.left, startMinute, start, endMinute, end, skipped);
+        if (compareTimes(node.startMinute, node.start, endMinute, end) >= 0) {
+            return result;
+        }
+        if (!skipped.test(node.task.getId()) && compareTimes(node.endMinute, node.end, startMinute, start) > 0) {
+            result = max(result, node.end);
+        }
+        return max(result, latestEnd(node.right, startMinute, start, endMinute, end, skipped));
+    }
+
+    // пересекается ли какое-нибудь повторение серии с непропущенной задачей из дерева; until == null - без конца.
+    // Повторение длительностью d пересекает [start, end), если начинается строго внутри (start - d, end)
+    private static boolean hitsTasks(Node node, RecurrenceIndex.Series series, LocalDateTime until, IntPredicate skipped) {
+        if (node == null || !node.maxEnd.isAfter(series.task.getStartTime())) {
+            return false;
+        }
+        if (hitsTasks(node.left, series, until, skipped)) {
+            return true;
+        }
+        if (until != null && !node.start.isBefore(until)) {
+            return false;
+        }
+        if (!skipped.test(node.task.getId())
+                && series.hasStartIn(node.start.minusMinutes(series.task.getDuration()), node.end)) {
+            return true;
+        }
+        return hitsTasks(node.right, series, until, skipped);
+    }
+
+    private static LocalDateTime maxEndStartingBefore(Node node, long pointMinute, LocalDateTime point) {
+        LocalDateTime result = null;
+        long resultMinute = Task.NO_TIME;
+        while (node != null) {
+            if (compareTimes(node.startMinute, node.start, pointMinute, point) < 0) {
+                if (node.left != null && (result == null
+                        || compareTimes(node.left.maxEndMinute, node.left.maxEnd, resultMinute, result) > 0)) {
+                    result = node.left.maxEnd;
+                    resultMinute = node.left.maxEndMinute;
+                }
+                if (result == null || compareTimes(node.endMinute, node.end, resultMinute, result) > 0) {
+                    result = node.end;
+                    resultMinute = node.endMinute;
+                }
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    private Node insert(Node node, Node newNode) {
+        if (node == null) {
+            size++;
+            return newNode;
+        }
+        int cmp = compare(newNode.startMinute, newNode.start, newNode.task.getId(), node);
+        if (cmp < 0) {
+            return balance(node, insert(node.left, newNode), node.right);
+        }
+        return balance(node, node.left, insert(node.right, newNode));
+    }
+
+    private Node delete(Node node, long startMinute, LocalDateTime start, int id) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(startMinute, start, id, node);
+        if (cmp < 0) {
+            Node left = delete(node.left, startMinute, start, id);
+            return left == node.left ? node : balance(node, left, node.right);
+        }
+        if (cmp > 0) {
+            Node right = delete(node.right, startMinute, start, id);
+            return right == node.right ? node : balance(node, node.left, right);
+        }
+        size--;
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor, node.left, deleteMin(node.right));
+    }
+
+    private static Node deleteMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node, deleteMin(node.left), node.right);
+    }
+
+    private int compare(long startMinute, LocalDateTime start, int id, Node node) {
+        int cmp = compareTimes(startMinute, start, node.startMinute, node.start);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Integer.compare(id, node.task.getId());
+    }
+
+    // новый узел задачи base с детьми left и right, выровненный поворотами
+    private static Node balance(Node base, Node left, Node right) {
+        int factor = height(left) - height(right);
+        if (factor > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left, left.left, left.right);
+            }
+            return rotateRight(base, left, right);
+        }
+        if (factor < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right, right.left, right.right);
+            }
+            return rotateLeft(base, left, right);
+        }
+        return new Node(base, left, right);
+    }
+
+    private static Node rotateRight(Node base, Node left, Node right) {
+        return new Node(left, left.left, new Node(base, left.right, right));
+    }
+
+    private static Node rotateLeft(Node base, Node left, Node right) {
+        return new Node(right, new Node(base, left, right.left), right.right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static LocalDateTime max(LocalDateTime first, LocalDateTime second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return first.isAfter(second) ? first : second;
+    }
+}
@@ -3,21 +3,38 @@ package services;
 import entity.Epic;
 import entity.Subtask;
 import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
 public interface TaskManager {
 
+    long ANY_VERSION = -1; // обновление без проверки версии
+
     int saveTask(Task task);
     int saveEpic(Epic epic);
     int saveSubtask(Subtask subtask);
+    List<Integer> saveAll(Collection<? extends Task> batch); // ids в порядке пакета
 
     ArrayList<Task> getTasksList();
     ArrayList<Epic> getEpicsList();
     ArrayList<Subtask> getSubtaskList();
 
+    // страницы по возрастанию id: до limit задач с id больше after, курсор следующей страницы - id последней
+    List<Task> getTasksPage(int after, int limit);
+    List<Epic> getEpicsPage(int after, int limit);
+    List<Subtask> getSubtasksPage(int after, int limit);
+
+    List<Task> getByStatus(TaskStatus status, TaskType type); // по индексу, O(k)
+    int countByStatus(TaskStatus status, TaskType type); // O(1)
+
+    List<Task> search(String query, int limit); // все слова запроса по названию и описанию, "слово*" - префикс
+
     void deleteTasks();
     void deleteEpics();
     void deleteSubtasks();
@@ -30,6 +47,12 @@ public interface TaskManager {
     int updateEpic(Epic epic);
     int updateSubtask(Subtask subtask);
 
+    // обновление поверх expectedVersion: новая версия, -1 если задачи нет, при другой текущей версии -
+    // ManagerVersionConflictException. Проверка и запись атомарны, блокировка на всю доску не нужна
+    long updateTask(Task task, long expectedVersion);
+    long updateEpic(Epic epic, long expectedVersion);
+    long updateSubtask(Subtask subtask, long expectedVersion);
+
     Task deleteTaskById(int idNumber);
     Epic deleteEpicById(int idNumber);
     Subtask deleteSubtaskById(int idNumber);
@@ -42,4 +65,21 @@ public interface TaskManager {
     Subtask creationSubtask(Subtask subtask);
 
     Set<Task> getPrioritizedTasks();
+    List<Task> getPrioritizedTasks(LocalDateTime from, LocalDateTime to); // задачи, пересекающие [from, to)
+
+    LocalDateTime findFreeSlot(LocalDateTime after, long duration); // начало ближайшего свободного окна
+    List<LocalDateTime> findFreeSlots(LocalDateTime after, long duration, LocalDateTime horizon, int count);
+
+    // successorId не начинается раньше окончания predecessorId; связываются задачи и подзадачи, цикл отклоняется
+    boolean addDependency(int predecessorId, int successorId);
+    boolean removeDependency(int predecessorId, int successorId);
+    List<Integer> getDependencies(int id); // id предшественников
+    LocalDateTime getEarliestStart(int id); // с учётом окончания всех предшественников
+    EpicSchedule getEpicSchedule(int epicId); // резерв и критический путь подзадач эпика
+
+    BoardStats getStats(LocalDateTime now); // сводка доски, просроченные - на момент now
+
+    default BoardStats getStats() {
+        return getStats(LocalDateTime.now());
+    }
 }
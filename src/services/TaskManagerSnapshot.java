@@ -0,0 +1,152 @@
+package services;
+
+import entity.Epic;
+import entity.IntList;
+import entity.Subtask;
+import entity.Task;
+
+import java.util.Collection;
+import java.util.function.IntFunction;
+
+// Неизменяемый согласованный снимок задач, эпиков, подзадач и временной шкалы на версии version.
+// Построен на PersistentTreeMap: соседние версии делят все неизменённые узлы, а читать снимок можно
+// из любого потока без блокировок. Все задачи в снимке - копии, снятые при публикации: изменение
+// на месте объекта, переданного менеджеру, в уже выданные снимки не попадает. Эпики хранятся без списка
+// подзадач: id подзадач эпика лежат в отдельном неизменяемом множестве, и запись подзадачи стоит O(log k),
+// а не копию всего списка.
+public final class TaskManagerSnapshot {
+
+    static final TaskManagerSnapshot EMPTY = new TaskManagerSnapshot(0,
+            PersistentTreeMap.empty(Integer::compare), PersistentTreeMap.empty(Integer::compare),
+            PersistentTreeMap.empty(Integer::compare), PersistentTreeMap.empty(TimelineKey.ORDER),
+            PersistentTreeMap.empty(Integer::compare), PersistentTreeMap.empty(Integer::compare));
+
+    private static final PersistentTreeMap<Integer, Integer> NO_SUBTASKS = PersistentTreeMap.empty(Integer::compare);
+
+    private final long version;
+    private final PersistentTreeMap<Integer, Task> tasks;
+    private final PersistentTreeMap<Integer, Epic> epics;
+    private final PersistentTreeMap<Integer, Subtask> subtasks;
+    private final PersistentTreeMap<TimelineKey, Task> timeline;
+    private final PersistentTreeMap<Integer, TimelineKey> timelineKeys; // id -> ключ на шкале
+    private final PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> epicSubtasks; // эпик -> id подзадач
+
+    private TaskManagerSnapshot(long version, PersistentTreeMap<Integer, Task> tasks,
+                                PersistentTreeMap<Integer, Epic> epics, PersistentTreeMap<Integer, Subtask> subtasks,
+                                PersistentTreeMap<TimelineKey, Task> timeline,
+                                PersistentTreeMap<Integer, TimelineKey> timelineKeys,
+                                PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> epicSubtasks) {
+        this.version = version;
+        this.tasks = tasks;
+        this.epics = epics;
+        this.subtasks = subtasks;
+        this.timeline = timeline;
+        this.timelineKeys = timelineKeys;
+        this.epicSubtasks = epicSubtasks;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Task getTask(int id) {
+        return tasks.get(id);
+    }
+
+    public Epic getEpic(int id) { // без списка подзадач, он в getSubtaskIds
+        return epics.get(id);
+    }
+
+    public Collection<Integer> getSubtaskIds(int epicId) { // по возрастанию id, без копирования
+        PersistentTreeMap<Integer, Integer> ids = epicSubtasks.get(epicId);
+        return (ids == null ? NO_SUBTASKS : ids).values();
+    }
+
+    public Epic getEpicWithSubtasks(int id) { // копия эпика со списком подзадач, O(k)
+        Epic epic = epics.get(id);
+        return epic == null ? null : epic.withSubtasks(getSubtaskIds(id));
+    }
+
+    public Subtask getSubtask(int id) {
+        return subtasks.get(id);
+    }
+
+    public Collection<Task> getTasks() { // по возрастанию id
+        return tasks.values();
+    }
+
+    public Collection<Epic> getEpics() {
+        return epics.values();
+    }
+
+    public Collection<Subtask> getSubtasks() {
+        return subtasks.values();
+    }
+
+    public Collection<Task> getPrioritizedTasks() { // в порядке getPrioritizedTasks() менеджера
+        return timeline.values();
+    }
+
+    // следующая версия: для каждого изменённого id берётся текущее состояние менеджера, O(k log n)
+    TaskManagerSnapshot next(IntList changedIds, IntFunction<Task> currentTasks, IntFunction<Epic> currentEpics,
+                             IntFunction<Subtask> currentSubtasks, IntFunction<Task> currentTimeline) {
+        PersistentTreeMap<Integer, Task> newTasks = tasks;
+        PersistentTreeMap<Integer, Epic> newEpics = epics;
+        PersistentTreeMap<Integer, Subtask> newSubtasks = subtasks;
+        PersistentTreeMap<TimelineKey, Task> newTimeline = timeline;
+        PersistentTreeMap<Integer, TimelineKey> newTimelineKeys = timelineKeys;
+        PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> newEpicSubtasks = epicSubtasks;
+        for (int i = 0; i < changedIds.size(); i++) {
+            int id = changedIds.getInt(i);
+            Task live = currentTasks.apply(id);
+            Task task = live == null ? null : live.snapshotCopy();
+            newTasks = task == null ? newTasks.remove(id) : newTasks.put(id, task);
+            Epic epic = currentEpics.apply(id);
+            newEpics = epic == null ? newEpics.remove(id) : newEpics.put(id, epic.rollupCopy());
+            if (epic == null) {
+                newEpicSubtasks = newEpicSubtasks.remove(id);
+            }
+            Subtask liveSubtask = currentSubtasks.apply(id);
+            Subtask subtask = liveSubtask == null ? null : liveSubtask.snapshotCopy();
+            Subtask oldSubtask = newSubtasks.get(id);
+            if (oldSubtask != null && (subtask == null || subtask.getEpicID() != oldSubtask.getEpicID())) {
+                newEpicSubtasks = unlink(newEpicSubtasks, oldSubtask.getEpicID(), id);
+            }
+            if (subtask != null) {
+                newEpicSubtasks = link(newEpicSubtasks, subtask.getEpicID(), id);
+            }
+            newSubtasks = subtask == null ? newSubtasks.remove(id) : newSubtasks.put(id, subtask);
+
+            TimelineKey oldKey = newTimelineKeys.get(id);
+            if (oldKey != null) {
+                newTimeline = newTimeline.remove(oldKey);
+                newTimelineKeys = newTimelineKeys.remove(id);
+            }
+            Task scheduled = currentTimeline.apply(id);
+            if (scheduled != null) { // на шкале та же копия, что и в tasks или subtasks
+                scheduled = scheduled == live ? task : scheduled == liveSubtask ? subtask : scheduled.snapshotCopy();
+                TimelineKey key = new TimelineKey(scheduled);
+                newTimeline = newTimeline.put(key, scheduled);
+                newTimelineKeys = newTimelineKeys.put(id, key);
+            }
+        }
+        return new TaskManagerSnapshot(version + 1, newTasks, newEpics, newSubtasks, newTimeline, newTimelineKeys,
+                newEpicSubtasks);
+    }
+
+    private static PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> link(
+            PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> epicSubtasks, int epicId, int subtaskId) {
+        PersistentTreeMap<Integer, Integer> ids = epicSubtasks.get(epicId);
+        return epicSubtasks.put(epicId, (ids == null ? NO_SUBTASKS : ids).put(subtaskId, subtaskId));
+    }
+
+    private static PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> unlink(
+            PersistentTreeMap<Integer, PersistentTreeMap<Integer, Integer>> epicSubtasks, int epicId, int subtaskId) {
+        PersistentTreeMap<Integer, Integer> ids = epicSubtasks.get(epicId);
+        if (ids == null) {
+            return epicSubtasks;
+        }
+        ids = ids.remove(subtaskId);
+        return ids.isEmpty() ? epicSubtasks.remove(epicId) : epicSubtasks.put(epicId, ids);
+    }
+}
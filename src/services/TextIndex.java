@@ -0,0 +1,246 @@
+package services;
+
+import entity.IntList;
+import entity.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Инвертированный индекс по названию и описанию: терм -> id задач (IntList, удаление за O(1)).
+// Словарь термов отсортирован, поэтому префикс "раб*" разворачивается в диапазон термов за O(log V).
+// Запрос - AND всех термов: кандидаты берутся из самой короткой группы, остальные проверяются по индексу
+// внутри IntList. Совпадение в названии весит больше, чем в описании; при равенстве выше более новая задача.
+class TextIndex {
+
+    private static final int MATERIALIZE_TERMS = 16; // префикс шире - проверяем по заранее собранному множеству
+
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    // id -> {термы названия, термы описания}; хранятся сами ключи postings, а не копии из разбора текста:
+    // задачи из шаблонов повторяют одни и те же слова, и на каждую строку терма приходится один экземпляр
+    private final IntHashMap<String[][]> documents = new IntHashMap<>();
+
+    synchronized void update(Task task) {
+        int id = task.getId();
+        remove(id);
+        String[] nameTerms = addPostings(id, terms(task.getName()));
+        String[] descriptionTerms = addPostings(id, terms(task.getDescription()));
+        documents.put(id, new String[][]{nameTerms, descriptionTerms});
+    }
+
+    synchronized void remove(int id) {
+        String[][] document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        for (String[] fieldTerms : document) {
+            for (String term : fieldTerms) {
+                IntList ids = postings.get(term);
+                if (ids != null && ids.removeInt(id) && ids.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    OrderedIntHashMap.Listener<Task> listener() {
+        return new StoreListener();
+    }
+
+    // до limit id по убыванию релевантности; "*" в конце слова - поиск по префиксу
+    synchronized int[] search(String query, int limit) {
+        return search(query, limit, TaskIntervalTree.NONE);
+    }
+
+    // то же без id, для которых skipped истинно: они не занимают места в пределе limit
+    synchronized int[] search(String query, int limit, IntPredicate skipped) {
+        List<Boolean> prefixes = new ArrayList<>();
+        List<String> queryTerms = queryTerms(query, prefixes);
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+
+        List<Collection<IntList>> groups = new ArrayList<>();
+        int driver = 0;
+        long driverSize = Long.MAX_VALUE;
+        for (int i = 0; i < queryTerms.size(); i++) {
+            Collection<IntList> group = postingsOf(queryTerms.get(i), prefixes.get(i));
+            long size = 0;
+            for (IntList ids : group) {
+                size += ids.size();
+            }
+            if (size == 0) {
+                return new int[0];
+            }
+            if (size < driverSize) {
+                driver = i;
+                driverSize = size;
+            }
+            groups.add(group);
+        }
+        List<IntHashMap<Boolean>> materialized = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            materialized.add(g != driver && groups.get(g).size() > MATERIALIZE_TERMS ? toSet(groups.get(g)) : null);
+        }
+
+        PriorityQueue<long[]> top = new PriorityQueue<>((a, b) -> a[0] != b[0]
+                ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1])); // наименее релевантный - в голове
+        IntHashMap<Boolean> seen = groups.get(driver).size() > 1 ? new IntHashMap<>() : null;
+        for (IntList ids : groups.get(driver)) {
+            for (int i = 0; i < ids.size(); i++) {
+                int id = ids.getInt(i);
+                if (seen != null && seen.put(id, Boolean.TRUE) != null || skipped.test(id)) {
+                    continue;
+                }
+                if (!matchesAll(id, groups, materialized, driver)) {
+                    continue;
+                }
+                top.add(new long[]{score(id, queryTerms, prefixes), id});
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+        int[] result = new int[top.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = (int) top.poll()[1];
+        }
+        return result;
+    }
+
+    // термы запроса по порядку; в prefixes для каждого - ищется ли он как префикс
+    static List<String> queryTerms(String query, List<Boolean> prefixes) {
+        List<String> queryTerms = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            List<String> wordTerms = new ArrayList<>(terms(word));
+            for (int i = 0; i < wordTerms.size(); i++) {
+                queryTerms.add(wordTerms.get(i));
+                prefixes.add(prefix && i == wordTerms.size() - 1);
+            }
+        }
+        return queryTerms;
+    }
+
+    static Set<String> terms(String text) { // слова из букв и цифр в нижнем регистре, без повторов
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    // возвращает термы в виде ключей словаря: у известного терма берётся уже хранящийся экземпляр
+    private String[] addPostings(int id, Set<String> terms) {
+        String[] keys = new String[terms.size()];
+        int i = 0;
+        for (String term : terms) {
+            Map.Entry<String, IntList> entry = postings.ceilingEntry(term);
+            IntList ids;
+            if (entry != null && entry.getKey().equals(term)) {
+                term = entry.getKey();
+                ids = entry.getValue();
+            } else {
+                ids = new IntList();
+                postings.put(term, ids);
+            }
+            if (!ids.containsInt(id)) { // терм может быть и в названии, и в описании
+                ids.addInt(id);
+            }
+            keys[i++] = term;
+        }
+        return keys;
+    }
+
+    private Collection<IntList> postingsOf(String term, boolean prefix) {
+        if (prefix) {
+            return postings.subMap(term, true, term + Character.MAX_VALUE, false).values();
+        }
+        IntList ids = postings.get(term);
+        return ids == null ? List.of() : List.of(ids);
+    }
+
+    private static IntHashMap<Boolean> toSet(Collection<IntList> group) {
+        IntHashMap<Boolean> set = new IntHashMap<>();
+        for (IntList ids : group) {
+            for (int i = 0; i < ids.size(); i++) {
+                set.put(ids.getInt(i), Boolean.TRUE);
+            }
+        }
+        return set;
+    }
+
+    private static boolean matchesAll(int id, List<Collection<IntList>> groups,
+                                      List<IntHashMap<Boolean>> materialized, int driver) {
+        for (int g = 0; g < groups.size(); g++) {
+            if (g == driver) {
+                continue;
+            }
+            if (materialized.get(g) != null) {
+                if (!materialized.get(g).containsKey(id)) {
+                    return false;
+                }
+                continue;
+            }
+            boolean found = false;
+            for (IntList ids : groups.get(g)) {
+                if (ids.containsInt(id)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long score(int id, List<String> queryTerms, List<Boolean> prefixes) {
+        String[] nameTerms = documents.get(id)[0];
+        long score = 0;
+        for (int i = 0; i < queryTerms.size(); i++) {
+            score += inName(nameTerms, queryTerms.get(i), prefixes.get(i)) ? 2 : 1;
+        }
+        return score;
+    }
+
+    private class StoreListener implements OrderedIntHashMap.Listener<Task> {
+
+        @Override
+        public void put(int key, Task value) {
+            update(value);
+        }
+
+        @Override
+        public void removed(int key) {
+            remove(key);
+        }
+    }
+
+    private static boolean inName(String[] nameTerms, String term, boolean prefix) {
+        for (String nameTerm : nameTerms) {
+            if (prefix ? nameTerm.startsWith(term) : nameTerm.equals(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
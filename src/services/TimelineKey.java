@@ -0,0 +1,36 @@
+package services;
+
+import entity.Task;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+// Начало задачи на момент записи на шкалу: задачу могут изменить на месте, а ключ дерева меняться не должен.
+// Порядок тот же, что и у InMemoryTaskManager.PRIORITY_ORDER: по началу, задачи без времени в конце, затем по id
+final class TimelineKey {
+
+    static final Comparator<TimelineKey> ORDER = (key1, key2) -> {
+        if (key1.startTime != null && key2.startTime != null) {
+            int byStartTime = TaskIntervalTree.compareTimes(key1.startMinute, key1.startTime,
+                    key2.startMinute, key2.startTime);
+            if (byStartTime != 0) {
+                return byStartTime;
+            }
+        } else if (key1.startTime != null) {
+            return -1;
+        } else if (key2.startTime != null) {
+            return 1;
+        }
+        return Integer.compare(key1.id, key2.id);
+    };
+
+    final LocalDateTime startTime;
+    final long startMinute;
+    final int id;
+
+    TimelineKey(Task task) {
+        this.startTime = task.getStartTime();
+        this.startMinute = task.getStartMinute();
+        this.id = task.getId();
+    }
+}
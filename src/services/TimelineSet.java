@@ -0,0 +1,127 @@
+package services;
+
+import entity.Task;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Задачи в порядке getPrioritizedTasks(). Ключ каждой записи - TimelineKey, снятый при добавлении, и запись
+// удаляется по нему же: задачу, которую изменили на месте и передали в updateTask, нельзя найти по её
+// новому началу, а порядок дерева от такого изменения не ломается. Снаружи - множество только для чтения.
+final class TimelineSet extends AbstractSet<Task> {
+
+    private final NavigableMap<TimelineKey, Task> byKey;
+    private final Keys keys; // id -> ключ, под которым задача лежит в byKey
+
+    private TimelineSet(NavigableMap<TimelineKey, Task> byKey, Keys keys) {
+        this.byKey = byKey;
+        this.keys = keys;
+    }
+
+    static TimelineSet sorted() {
+        return new TimelineSet(new TreeMap<>(TimelineKey.ORDER), new PrimitiveKeys());
+    }
+
+    // записи одного id - под внешней блокировкой, разные id и чтение - из любого потока
+    static TimelineSet concurrent() {
+        return new TimelineSet(new ConcurrentSkipListMap<>(TimelineKey.ORDER), new ConcurrentKeys());
+    }
+
+    void put(Task task) {
+        remove(task.getId());
+        TimelineKey key = new TimelineKey(task);
+        byKey.put(key, task);
+        keys.put(key.id, key);
+    }
+
+    Task remove(int id) {
+        TimelineKey key = keys.remove(id);
+        return key == null ? null : byKey.remove(key);
+    }
+
+    boolean isTimed(int id) { // лежит ли задача на шкале со временем начала, по ключу на момент записи
+        TimelineKey key = keys.get(id);
+        return key != null && key.startTime != null;
+    }
+
+    Task get(int id) {
+        TimelineKey key = keys.get(id);
+        return key == null ? null : byKey.get(key);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Task && o.equals(get(((Task) o).getId()));
+    }
+
+    @Override
+    public Iterator<Task> iterator() {
+        Iterator<Task> tasks = byKey.values().iterator();
+        return new Iterator<>() { // без remove: шкала меняется только через менеджер
+            @Override
+            public boolean hasNext() {
+                return tasks.hasNext();
+            }
+
+            @Override
+            public Task next() {
+                return tasks.next();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return byKey.size();
+    }
+
+    private interface Keys {
+        TimelineKey get(int id);
+
+        void put(int id, TimelineKey key);
+
+        TimelineKey remove(int id);
+    }
+
+    private static final class PrimitiveKeys implements Keys { // однопоточный вариант: id без упаковки в Integer
+        private final IntHashMap<TimelineKey> keys = new IntHashMap<>();
+
+        @Override
+        public TimelineKey get(int id) {
+            return keys.get(id);
+        }
+
+        @Override
+        public void put(int id, TimelineKey key) {
+            keys.put(id, key);
+        }
+
+        @Override
+        public TimelineKey remove(int id) {
+            return keys.remove(id);
+        }
+    }
+
+    private static final class ConcurrentKeys implements Keys { // читатели обращаются без блокировки
+        private final ConcurrentHashMap<Integer, TimelineKey> keys = new ConcurrentHashMap<>();
+
+        @Override
+        public TimelineKey get(int id) {
+            return keys.get(id);
+        }
+
+        @Override
+        public void put(int id, TimelineKey key) {
+            keys.put(id, key);
+        }
+
+        @Override
+        public TimelineKey remove(int id) {
+            return keys.remove(id);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package services;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Фоновая очистка надгробий: партия из batchSize подзадач раз в intervalMillis на собственном потоке очистки,
+// между партиями менеджер обслуживает запросы. Менеджер не потокобезопасен, поэтому каждая партия идёт
+// под монитором менеджера - на нём же синхронизируются и все остальные обращения к нему (HttpTaskServer
+// обрабатывает запросы в пуле потоков и берёт этот монитор на время запроса)
+public class TombstoneCompactor implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final long DEFAULT_INTERVAL_MILLIS = 20;
+
+    private final InMemoryTaskManager manager;
+    private final int batchSize;
+    private final long intervalMillis;
+    private ScheduledExecutorService executor;
+
+    public TombstoneCompactor(InMemoryTaskManager manager, int batchSize, long intervalMillis) {
+        if (batchSize <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Размер партии и интервал очистки должны быть положительными");
+        }
+        this.manager = manager;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start() { // с этого момента эпики удаляются надгробиями
+        synchronized (manager) {
+            manager.setDeferredDeletes(true);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compactBatch, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() { // удаление снова синхронное, оставшиеся надгробия вычищаются разом
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown(); // начатая партия дорабатывает, новые не запускаются
+        try {
+            executor.awaitTermination(TimeUnit.SECONDS.toMillis(5) + intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        run(() -> manager.setDeferredDeletes(false));
+    }
+
+    private void compactBatch() {
+        run(() -> manager.compactTombstones(batchSize));
+    }
+
+    private void run(Runnable step) { // исключение остановило бы расписание, следующая партия повторит сохранение
+        try {
+            synchronized (manager) {
+                step.run();
+            }
+        } catch (RuntimeException exception) {
+            System.out.println("Не удалось вычистить удалённые эпики: " + exception.getMessage());
+        }
+    }
+}
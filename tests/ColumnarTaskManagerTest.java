@@ -0,0 +1,285 @@
+import entity.Epic;
+import entity.Recurrence;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskType;
+import exception.ManagerIntersectionsException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import services.BoardStats;
+import services.ColumnarTaskManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static entity.TaskStatus.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Общие тесты TaskManagerTest сравнивают выданные объекты по ссылке, а колоночный менеджер
+// создаёт задачу при каждой выдаче, поэтому здесь сравниваются значения полей
+class ColumnarTaskManagerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 9, 0);
+
+    private ColumnarTaskManager manager;
+
+    @BeforeEach
+    void createManager() {
+        manager = new ColumnarTaskManager();
+    }
+
+    @Test
+    void testTasksAreMaterializedOnDemand() {
+        Task task = new Task("Отчёт", NEW, "Квартальный отчёт", START.plusSeconds(42), 30);
+        int id = manager.saveTask(task);
+
+        Task stored = manager.getTaskByIdNumber(id);
+        assertNotSame(task, stored);
+        assertNotSame(stored, manager.getTaskByIdNumber(id));
+        assertEquals("Отчёт", stored.getName());
+        assertEquals("Квартальный отчёт", stored.getDescription());
+        assertEquals(START, stored.getStartTime()); // с точностью до минуты
+        assertEquals(30, stored.getDuration());
+        assertEquals(1, stored.getVersion());
+
+        stored.setStatus(DONE);
+        assertEquals(NEW, manager.getTaskByIdNumber(id).getStatus());
+        assertEquals(2, manager.updateTask(stored, 1));
+        assertEquals(DONE, manager.getTaskByIdNumber(id).getStatus());
+        assertEquals(2, manager.getTaskByIdNumber(id).getVersion());
+
+        assertNull(manager.getTaskByIdNumber(id + 1));
+        assertNull(manager.getSubTaskByIdNumber(id));
+        assertEquals(-1, manager.updateTask(new Task("Нет", NEW, "Нет", null, 0, id + 1), 1));
+    }
+
+    @Test
+    void testStatusScansAndCounts() {
+        int epicId = manager.saveEpic(new Epic("Эпик", NEW, "Описание", START, 0));
+        List<Integer> taskIds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            taskIds.add(manager.saveTask(new Task("Таск " + i, i % 3 == 0 ? DONE : NEW, "Описание",
+                    START.plusHours(i), 30)));
+        }
+        int subtaskId = manager.saveSubtask(new Subtask("Сабтаск", IN_PROGRESS, "Описание",
+                START.plusDays(1), 30, epicId));
+
+        assertEquals(4, manager.countByStatus(DONE, TaskType.TASK));
+        assertEquals(6, manager.countByStatus(NEW, TaskType.TASK));
+        assertEquals(1, manager.countByStatus(IN_PROGRESS, TaskType.SUBTASK));
+        assertEquals(1, manager.countByStatus(IN_PROGRESS, TaskType.EPIC));
+        assertEquals(List.of(taskIds.get(0), taskIds.get(3), taskIds.get(6), taskIds.get(9)),
+                ids(manager.getByStatus(DONE, TaskType.TASK)));
+        assertEquals(List.of(subtaskId), ids(manager.getByStatus(IN_PROGRESS, TaskType.SUBTASK)));
+        assertEquals(List.of(epicId), ids(manager.getByStatus(IN_PROGRESS, TaskType.EPIC)));
+
+        manager.deleteTaskById(taskIds.get(0));
+        Task task = manager.getTaskByIdNumber(taskIds.get(1));
+        task.setStatus(DONE);
+        manager.updateTask(task);
+        assertEquals(4, manager.countByStatus(DONE, TaskType.TASK));
+        assertEquals(5, manager.countByStatus(NEW, TaskType.TASK));
+        assertEquals(List.of(taskIds.get(1), taskIds.get(3), taskIds.get(6), taskIds.get(9)),
+                ids(manager.getByStatus(DONE, TaskType.TASK)));
+    }
+
+    @Test
+    void testTimeline() {
+        int first = manager.saveTask(new Task("Первый", NEW, "Описание", START, 60));
+        int second = manager.saveTask(new Task("Второй", NEW, "Описание", START.plusHours(2), 30));
+        int untimed = manager.saveTask(new Task("Без времени", NEW, "Описание", null, 0));
+
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Наложение", NEW, "Описание", START.plusMinutes(30), 60)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Тот же интервал", NEW, "Описание", START, 60)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Накрывает", NEW, "Описание", START.minusMinutes(30), 180)));
+        assertEquals(START.plusHours(1), manager.findFreeSlot(START, 30));
+        assertEquals(START.plusHours(2).plusMinutes(30), manager.findFreeSlot(START.plusMinutes(10), 90));
+        assertEquals(List.of(START.plusHours(1), START.plusHours(2).plusMinutes(30)),
+                manager.findFreeSlots(START, 60, START.plusHours(4), 5));
+
+        assertEquals(List.of(first, second, untimed), ids(new ArrayList<>(manager.getPrioritizedTasks())));
+        assertEquals(List.of(first), ids(manager.getPrioritizedTasks(START.plusMinutes(59).plusSeconds(30),
+                START.plusHours(2))));
+        assertEquals(List.of(second), ids(manager.getPrioritizedTasks(START.plusHours(1),
+                START.plusHours(2).plusSeconds(1))));
+
+        Task moved = manager.getTaskByIdNumber(first);
+        moved.setStartTime(START.plusHours(5));
+        manager.updateTask(moved);
+        assertEquals(List.of(second, first, untimed), ids(new ArrayList<>(manager.getPrioritizedTasks())));
+        assertEquals(START, manager.findFreeSlot(START, 120));
+
+        manager.deleteTaskById(second);
+        int reused = manager.saveTask(new Task("На месте второго", NEW, "Описание", START.plusHours(2), 30));
+        assertEquals(List.of(reused, first, untimed), ids(new ArrayList<>(manager.getPrioritizedTasks())));
+    }
+
+    @Test
+    void testShiftWithinOwnSlot() {
+        int task = manager.saveTask(new Task("Первый", NEW, "Описание", START, 60));
+        int epic = manager.saveEpic(new Epic("Эпик", NEW, "Описание", START, 0));
+        int subtask = manager.saveSubtask(new Subtask("Шаг", NEW, "Описание", START.plusHours(2), 60, epic));
+
+        Task shifted = manager.getTaskByIdNumber(task);
+        shifted.setStartTime(START.plusMinutes(15));
+        manager.updateTask(shifted);
+        Subtask shiftedSubtask = manager.getSubTaskByIdNumber(subtask);
+        shiftedSubtask.setStartTime(START.plusMinutes(105));
+        manager.updateSubtask(shiftedSubtask);
+        assertEquals(START.plusMinutes(15), manager.getTaskByIdNumber(task).getStartTime());
+        assertEquals(START.plusMinutes(105), manager.getSubTaskByIdNumber(subtask).getStartTime());
+
+        // отклонённое обновление оставляет строку на прежнем месте шкалы
+        Task intoSubtask = manager.getTaskByIdNumber(task);
+        intoSubtask.setStartTime(START.plusMinutes(75));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.updateTask(intoSubtask));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Наложение", NEW, "Описание", START.plusMinutes(30), 10)));
+        assertEquals(List.of(task, subtask), ids(new ArrayList<>(manager.getPrioritizedTasks())));
+    }
+
+    @Test
+    void testEpicRollups() {
+        int firstEpic = manager.saveEpic(new Epic("Эпик 1", NEW, "Описание", START, 0));
+        int secondEpic = manager.saveEpic(new Epic("Эпик 2", NEW, "Описание", START, 0));
+        int firstSubtask = manager.saveSubtask(new Subtask("Сабтаск 1", DONE, "Описание", START, 30, firstEpic));
+        int secondSubtask = manager.saveSubtask(new Subtask("Сабтаск 2", NEW, "Описание",
+                START.plusHours(1), 60, firstEpic));
+        assertEquals(0, manager.saveSubtask(new Subtask("Без эпика", NEW, "Описание", null, 0, 100)));
+
+        Epic epic = manager.getEpicTaskByIdNumber(firstEpic);
+        assertEquals(IN_PROGRESS, epic.getStatus());
+        assertEquals(START, epic.getStartTime());
+        assertEquals(90, epic.getDuration());
+
+        Subtask moved = manager.getSubTaskByIdNumber(secondSubtask);
+        moved.setEpicID(secondEpic);
+        manager.updateSubtask(moved);
+        assertEquals(DONE, manager.getEpicTaskByIdNumber(firstEpic).getStatus());
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(secondEpic).getStatus());
+        assertEquals(List.of(firstSubtask), ids(new ArrayList<>(manager.subtaskList(firstEpic))));
+        assertEquals(List.of(secondSubtask), ids(new ArrayList<>(manager.subtaskList(secondEpic))));
+
+        manager.deleteEpicById(secondEpic);
+        assertNull(manager.getSubTaskByIdNumber(secondSubtask));
+        assertEquals(List.of(firstSubtask), ids(new ArrayList<>(manager.getSubtaskList())));
+        assertFalse(ids(manager.getHistory()).contains(secondSubtask));
+
+        manager.deleteSubtasks();
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(firstEpic).getStatus());
+        assertEquals(0, manager.getEpicTaskByIdNumber(firstEpic).getDuration());
+        assertTrue(manager.getPrioritizedTasks().isEmpty());
+    }
+
+    @Test
+    void testSearchOverSharedStrings() {
+        List<Integer> reviewIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            manager.saveTask(new Task("Планёрка", NEW, "Ежедневная встреча", START.plusHours(i), 15));
+            if (i % 250 == 0) {
+                reviewIds.add(manager.saveTask(new Task("Ревью кода", NEW, "Встреча по ревью",
+                        START.plusHours(i).plusMinutes(30), 15)));
+            }
+        }
+        int epicId = manager.saveEpic(new Epic("Встреча с заказчиком", NEW, "Эпик", START, 0));
+        assertEquals(4, manager.getDistinctStringsCount()); // эпики хранятся объектами, их строк нет в словаре
+
+        List<Integer> reviewsNewestFirst = new ArrayList<>();
+        for (int i = reviewIds.size() - 1; i >= 0; i--) {
+            reviewsNewestFirst.add(reviewIds.get(i));
+        }
+        assertEquals(reviewsNewestFirst, ids(manager.search("встреч* ревью", 10)));
+        assertEquals(reviewsNewestFirst.subList(0, 2), ids(manager.search("РЕВЬЮ", 2)));
+        List<Task> meetings = manager.search("встреча", 3);
+        assertEquals(3, meetings.size());
+        assertEquals(epicId, meetings.get(0).getId()); // совпадение в названии весит больше
+        assertTrue(manager.search("ревью отчёт", 10).isEmpty());
+
+        manager.deleteTasks();
+        assertEquals(0, manager.getDistinctStringsCount());
+        assertEquals(List.of(epicId), ids(manager.search("встреча", 10)));
+    }
+
+    @Test
+    void testPages() {
+        List<Integer> taskIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            taskIds.add(manager.saveTask(new Task("Таск " + i, NEW, "Описание", START.plusHours(i), 30)));
+        }
+        manager.deleteTaskById(taskIds.get(2));
+
+        assertEquals(List.of(taskIds.get(0), taskIds.get(1)), ids(manager.getTasksPage(0, 2)));
+        assertEquals(List.of(taskIds.get(3), taskIds.get(4)), ids(manager.getTasksPage(taskIds.get(1), 2)));
+        assertTrue(manager.getTasksPage(taskIds.get(4), 2).isEmpty());
+        assertTrue(manager.getTasksPage(Integer.MAX_VALUE, 2).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> manager.getTasksPage(0, 0));
+    }
+
+    @Test
+    void testRecurringTasksAreRejected() {
+        Task task = new Task("Планёрка", NEW, "Описание", START, 15);
+        task.setRecurrence(Recurrence.daily(null));
+        assertThrows(IllegalArgumentException.class, () -> manager.saveTask(task));
+        assertTrue(manager.getTasksList().isEmpty());
+    }
+
+    private static List<Integer> ids(List<? extends Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void testGetStats() {
+        int epicId = manager.saveEpic(new Epic("Эпик", NEW, "Описание", START, 0));
+        manager.saveTask(new Task("Таск", NEW, "Описание", START, 30));
+        manager.saveSubtask(new Subtask("Сабтаск 1", DONE, "Описание", START.plusHours(1), 45, epicId));
+        int subtaskId = manager.saveSubtask(new Subtask("Сабтаск 2", IN_PROGRESS, "Описание",
+                START.plusHours(2), 60, epicId));
+        manager.saveTask(new Task("Без времени", NEW, "Описание", null, 15));
+
+        BoardStats stats = manager.getStats(START.plusHours(4));
+        assertEquals(2, stats.getCount(TaskType.TASK, NEW));
+        assertEquals(1, stats.getCount(TaskType.EPIC, IN_PROGRESS));
+        assertEquals(45, stats.getPlannedMinutes(NEW));
+        assertEquals(60, stats.getPlannedMinutes(IN_PROGRESS));
+        assertEquals(2, stats.getOverdue()); // выполненная и задача без времени не просрочены
+        assertEquals(50, stats.getSubtaskCompletionPercent());
+        assertEquals(0, stats.getEpicCompletionPercent());
+
+        manager.deleteSubtaskById(subtaskId);
+        assertEquals(0, manager.getStats(START.plusMinutes(30)).getOverdue()); // таск кончается ровно сейчас
+        assertEquals(100, manager.getStats(START).getEpicCompletionPercent());
+    }
+
+    @Test
+    void testStatsFollowWrites() { // счётчики меняются при записи, а не пересчитываются запросом
+        int first = manager.saveTask(new Task("Таск 1", NEW, "Описание", START, 30));
+        int second = manager.saveTask(new Task("Таск 2", NEW, "Описание", START.plusHours(1), 30));
+        assertEquals(1, manager.getStats(START.plusMinutes(45)).getOverdue());
+
+        manager.updateTask(new Task("Таск 1", DONE, "Описание", START, 30, first));
+        BoardStats stats = manager.getStats(START.plusMinutes(45));
+        assertEquals(0, stats.getOverdue());
+        assertEquals(30, stats.getPlannedMinutes(DONE));
+        assertEquals(30, stats.getPlannedMinutes(NEW));
+
+        manager.updateTask(new Task("Таск 2", NEW, "Описание", START.minusHours(1), 20, second)); // уже в прошлом
+        assertEquals(1, manager.getStats(START.plusMinutes(45)).getOverdue());
+        manager.deleteTaskById(second);
+        int third = manager.saveTask(new Task("Таск 3", NEW, "Описание", START.plusHours(2), 10)); // та же строка
+        assertEquals(0, manager.getStats(START.plusHours(2)).getOverdue());
+        assertEquals(1, manager.getStats(START.plusHours(3)).getOverdue());
+        assertEquals(0, manager.getStats(START).getOverdue()); // часы назад - пересчёт заново
+        manager.deleteTaskById(third);
+        stats = manager.getStats(START.plusHours(3));
+        assertEquals(0, stats.getOverdue());
+        assertEquals(0, stats.getPlannedMinutes(NEW));
+    }
+}
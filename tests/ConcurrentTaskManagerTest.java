@@ -0,0 +1,263 @@
+import entity.Epic;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskStatus;
+import exception.ManagerIntersectionsException;
+import org.junit.jupiter.api.Test;
+import services.ConcurrentTaskManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static servers.HttpTaskServer.GSON;
+
+class ConcurrentTaskManagerTest extends TaskManagerTest<ConcurrentTaskManager> {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 3000;
+    private static final int EPICS = 10;
+
+    @Override
+    public ConcurrentTaskManager createTaskManager() {
+        return new ConcurrentTaskManager();
+    }
+
+    @Test
+    void testConcurrentStress() throws Exception {
+        List<Integer> epicIds = new ArrayList<>();
+        for (int i = 0; i < EPICS; i++) {
+            epicIds.add(manager.saveEpic(new Epic("Эпик " + i, TaskStatus.NEW, "Описание",
+                    LocalDateTime.of(2000, 1, 1, 0, 0), 0)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    randomOperation(random, epicIds);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        checkEpics();
+        checkTimeline();
+        checkHistory();
+    }
+
+    @Test
+    void testEpicReadsDuringSubtaskWrites() throws Exception {
+        int epicId = manager.saveEpic(new Epic("Эпик", TaskStatus.NEW, "Описание",
+                LocalDateTime.of(2000, 1, 1, 0, 0), 0));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?> writer = executor.submit(() -> {
+            start.await();
+            LocalDateTime startTime = LocalDateTime.of(2020, 1, 1, 0, 0);
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int id = manager.saveSubtask(new Subtask("Саб", TaskStatus.values()[i % 3], "Описание",
+                        startTime.plusHours(i), 30, epicId));
+                if (i % 3 == 0) {
+                    manager.deleteSubtaskById(id);
+                }
+            }
+            return null;
+        });
+        Future<?> reader = executor.submit(() -> { // выданный эпик не меняется под читателем
+            start.await();
+            while (!writer.isDone()) {
+                for (Epic epic : manager.getEpicsList()) {
+                    long sum = 0;
+                    for (int subtaskId : epic.getSubtasks()) {
+                        sum += subtaskId;
+                    }
+                    assertTrue(sum >= 0);
+                }
+                Epic epic = manager.getEpicTaskByIdNumber(epicId);
+                assertEquals(epic.getSubtasks().size(), new HashSet<>(epic.getSubtasks()).size());
+                assertNotNull(GSON.toJson(manager.getEpicsPage(0, 10)));
+            }
+            return null;
+        });
+        start.countDown();
+        writer.get(60, TimeUnit.SECONDS);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        checkEpics();
+    }
+
+    @Test
+    void testTimelineReadsDuringWrites() throws Exception {
+        int epicId = manager.saveEpic(new Epic("Эпик", TaskStatus.NEW, "Описание",
+                LocalDateTime.of(2000, 1, 1, 0, 0), 0));
+        LocalDateTime from = LocalDateTime.of(2020, 1, 1, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?> writer = executor.submit(() -> {
+            start.await();
+            for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                int id = i % 2 == 0
+                        ? manager.saveTask(new Task("Таск", TaskStatus.NEW, "Описание", from.plusHours(i), 30))
+                        : manager.saveSubtask(new Subtask("Саб", TaskStatus.NEW, "Описание", from.plusHours(i),
+                        30, epicId));
+                if (i % 3 == 0) {
+                    manager.deleteTaskById(id);
+                    manager.deleteSubtaskById(id);
+                }
+            }
+            return null;
+        });
+        Future<?> reader = executor.submit(() -> { // вид шкалы и эпика согласован без блокировок
+            start.await();
+            while (!writer.isDone()) {
+                List<Task> window = manager.getPrioritizedTasks(from, from.plusHours(OPERATIONS_PER_THREAD));
+                for (int i = 1; i < window.size(); i++) {
+                    assertFalse(window.get(i).getStartTime().isBefore(window.get(i - 1).getEndTime()));
+                }
+                LocalDateTime slot = manager.findFreeSlot(from, 60);
+                assertFalse(slot.isBefore(from));
+                for (Subtask subtask : manager.subtaskList(epicId)) {
+                    assertEquals(epicId, subtask.getEpicID());
+                }
+            }
+            return null;
+        });
+        start.countDown();
+        writer.get(60, TimeUnit.SECONDS);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        checkEpics();
+        checkTimeline();
+        assertEquals(manager.getSubtaskList().size(), manager.subtaskList(epicId).size());
+    }
+
+    private void randomOperation(Random random, List<Integer> epicIds) {
+        int maxId = EPICS + THREADS * OPERATIONS_PER_THREAD;
+        TaskStatus status = TaskStatus.values()[random.nextInt(TaskStatus.values().length)];
+        LocalDateTime startTime = LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(random.nextInt(200_000));
+        int epicId = epicIds.get(random.nextInt(epicIds.size()));
+        try {
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                    manager.saveSubtask(new Subtask("Саб", status, "Описание", startTime,
+                            1 + random.nextInt(60), epicId));
+                    break;
+                case 2:
+                    manager.updateSubtask(new Subtask(random.nextInt(maxId), "Саб", status, "Описание",
+                            startTime, 1 + random.nextInt(60), epicId));
+                    break;
+                case 3:
+                    manager.deleteSubtaskById(random.nextInt(maxId));
+                    break;
+                case 4:
+                    manager.saveTask(new Task("Таск", status, "Описание", startTime, 1 + random.nextInt(60)));
+                    break;
+                case 5:
+                    manager.updateTask(new Task("Таск", status, "Описание", startTime,
+                            1 + random.nextInt(60), random.nextInt(maxId)));
+                    break;
+                case 6:
+                    manager.deleteTaskById(random.nextInt(maxId));
+                    break;
+                default:
+                    int id = random.nextInt(maxId);
+                    manager.getTaskByIdNumber(id);
+                    manager.getSubTaskByIdNumber(id);
+                    manager.getEpicTaskByIdNumber(epicId);
+                    break;
+            }
+        } catch (ManagerIntersectionsException ignored) {
+            // пересечения по времени при случайных интервалах ожидаемы
+        }
+    }
+
+    private void checkEpics() {
+        Map<Integer, List<Subtask>> subtasksByEpic = new HashMap<>();
+        for (Subtask subtask : manager.getSubtaskList()) {
+            subtasksByEpic.computeIfAbsent(subtask.getEpicID(), id -> new ArrayList<>()).add(subtask);
+        }
+        for (Epic epic : manager.getEpicsList()) {
+            List<Subtask> epicSubtasks = subtasksByEpic.getOrDefault(epic.getId(), List.of());
+            Set<Integer> expectedIds = new HashSet<>();
+            long duration = 0;
+            int newCounter = 0;
+            int doneCounter = 0;
+            for (Subtask subtask : epicSubtasks) {
+                expectedIds.add(subtask.getId());
+                duration += subtask.getDuration();
+                if (subtask.getStatus() == TaskStatus.NEW) {
+                    newCounter++;
+                } else if (subtask.getStatus() == TaskStatus.DONE) {
+                    doneCounter++;
+                }
+            }
+            TaskStatus expectedStatus;
+            if (newCounter == epicSubtasks.size()) {
+                expectedStatus = TaskStatus.NEW;
+            } else if (doneCounter == epicSubtasks.size()) {
+                expectedStatus = TaskStatus.DONE;
+            } else {
+                expectedStatus = TaskStatus.IN_PROGRESS;
+            }
+
+            assertEquals(expectedIds, new HashSet<>(epic.getSubtasks()));
+            assertEquals(epicSubtasks.size(), epic.getSubtasks().size());
+            assertEquals(expectedStatus, epic.getStatus());
+            assertEquals(duration, epic.getDuration());
+        }
+    }
+
+    private void checkTimeline() {
+        Set<Integer> expectedIds = new HashSet<>();
+        manager.getTasksList().forEach(task -> expectedIds.add(task.getId()));
+        manager.getSubtaskList().forEach(subtask -> expectedIds.add(subtask.getId()));
+
+        Set<Integer> actualIds = new HashSet<>();
+        Task previous = null;
+        for (Task task : manager.getPrioritizedTasks()) {
+            assertTrue(actualIds.add(task.getId()));
+            if (previous != null) {
+                assertFalse(task.getStartTime().isBefore(previous.getStartTime()));
+            }
+            previous = task;
+        }
+        assertEquals(expectedIds, actualIds);
+    }
+
+    private void checkHistory() {
+        Set<Integer> storedIds = new HashSet<>();
+        manager.getTasksList().forEach(task -> storedIds.add(task.getId()));
+        manager.getEpicsList().forEach(epic -> storedIds.add(epic.getId()));
+        manager.getSubtaskList().forEach(subtask -> storedIds.add(subtask.getId()));
+
+        Set<Integer> historyIds = new HashSet<>();
+        for (Task task : manager.getHistory()) {
+            assertTrue(historyIds.add(task.getId()));
+            assertTrue(storedIds.contains(task.getId()));
+        }
+    }
+}
@@ -1,9 +1,20 @@
+import entity.Recurrence;
+import entity.Subtask;
+import entity.Task;
+import exception.ManagerIntersectionsException;
 import org.junit.jupiter.api.Test;
 import services.FileBackedTasksManager;
+import services.StringPool;
 
 import java.io.File;
+import java.time.LocalDateTime;
 
+import static entity.TaskStatus.NEW;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileBackedTasksManagerTest extends TaskManagerTest<FileBackedTasksManager> {
 
@@ -57,4 +68,97 @@ class FileBackedTasksManagerTest extends TaskManagerTest<FileBackedTasksManager>
         assertEquals(1, managerWithEmptyHistoryList.getSubtaskList().size());
         assertEquals(0, managerWithEmptyHistoryList.getHistory().size());
     }
+
+    @Test
+    public void testLoadRecurringTask() {
+        Task standup = new Task("Планёрка", NEW, "Каждый день", LocalDateTime.of(2030, 1, 1, 9, 0), 30);
+        standup.setRecurrence(Recurrence.daily(null));
+        manager.saveTask(standup);
+        Task review = new Task("Ревью", NEW, "Каждую неделю", LocalDateTime.of(2030, 1, 2, 12, 0), 60);
+        review.setRecurrence(Recurrence.weekly(LocalDateTime.of(2030, 3, 1, 0, 0)));
+        manager.saveTask(review);
+
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+
+        assertEquals(Recurrence.DAY, loaded.getTaskByIdNumber(1).getRecurrence().getInterval());
+        assertNull(loaded.getTaskByIdNumber(1).getRecurrence().getUntil());
+        assertEquals(Recurrence.WEEK, loaded.getTaskByIdNumber(2).getRecurrence().getInterval());
+        assertEquals(LocalDateTime.of(2030, 3, 1, 0, 0), loaded.getTaskByIdNumber(2).getRecurrence().getUntil());
+    }
+
+    @Test
+    public void testReloadedTimelineRejectsOverlaps() {
+        saveTasks();
+        Task standup = new Task("Планёрка", NEW, "Каждый день", LocalDateTime.of(2030, 1, 1, 9, 0), 30);
+        standup.setRecurrence(Recurrence.daily(null));
+        manager.saveTask(standup);
+
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+
+        assertEquals(manager.getPrioritizedTasks().size(), loaded.getPrioritizedTasks().size());
+        assertThrows(ManagerIntersectionsException.class, () -> loaded.saveTask(new Task("Таск", NEW,
+                "Описание", firstTask.getStartTime(), 10)));
+        assertThrows(ManagerIntersectionsException.class, () -> loaded.saveSubtask(new Subtask("Саб", NEW,
+                "Описание", firstSubtask.getStartTime().plusMinutes(10), 10, firstEpic.getId())));
+        assertThrows(ManagerIntersectionsException.class, () -> loaded.saveTask(new Task("Звонок", NEW,
+                "Описание", LocalDateTime.of(2030, 1, 5, 9, 15), 10))); // очередное повторение планёрки
+    }
+
+    @Test
+    public void testReloadContinuesIdsFromHeader() {
+        saveTasks();
+        manager.deleteEpicById(thirdEpic.getId()); // последний id удалён, но снова не выдаётся
+
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+
+        assertEquals(thirdEpic.getId() + 1, loaded.saveTask(new Task("Таск", NEW, "Описание",
+                LocalDateTime.of(2040, 1, 1, 10, 0), 10)));
+    }
+
+    @Test
+    public void testLoadedStringsArePooled() {
+        for (int i = 0; i < 3; i++) {
+            manager.saveTask(new Task("Планёрка", NEW, "Ежедневная встреча",
+                    LocalDateTime.of(2030, 1, 1 + i, 9, 0), 15));
+        }
+        long hits = StringPool.shared().getHits();
+
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+
+        assertSame(loaded.getTaskByIdNumber(1).getName(), loaded.getTaskByIdNumber(2).getName());
+        assertSame(loaded.getTaskByIdNumber(1).getDescription(), loaded.getTaskByIdNumber(3).getDescription());
+        assertTrue(StringPool.shared().getHits() >= hits + 4);
+    }
+
+    @Test
+    public void testUndoIsSaved() {
+        saveTasks();
+        manager.deleteEpics();
+        manager.undo();
+
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+        assertEquals(3, loaded.getEpicsList().size());
+        assertEquals(3, loaded.getSubtaskList().size());
+
+        manager.redo();
+        loaded = FileBackedTasksManager.loadFromFile(new File("src/resources/testFile.csv"));
+        assertTrue(loaded.getEpicsList().isEmpty());
+    }
+
+    @Test
+    public void testDeferredEpicDeleteIsSavedAfterCompaction() {
+        saveTasks();
+        manager.setDeferredDeletes(true);
+        manager.deleteEpicById(firstEpic.getId());
+        File file = new File("src/resources/testFile.csv");
+        assertEquals(3, FileBackedTasksManager.loadFromFile(file).getEpicsList().size()); // файл ещё прежний
+
+        manager.compactTombstones(1);
+        assertEquals(3, FileBackedTasksManager.loadFromFile(file).getSubtaskList().size());
+        manager.compactTombstones(10);
+        FileBackedTasksManager loaded = FileBackedTasksManager.loadFromFile(file);
+        assertEquals(2, loaded.getEpicsList().size());
+        assertEquals(1, loaded.getSubtaskList().size());
+        assertEquals(thirdSubtask.getId(), loaded.getSubtaskList().get(0).getId());
+    }
 }
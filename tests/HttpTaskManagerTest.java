@@ -1,10 +1,18 @@
+import entity.Subtask;
+import entity.Task;
+import exception.ManagerIntersectionsException;
+import entity.TaskStatus;
+import services.BlockIdAllocator;
 import services.HttpTaskManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import servers.KVServer;
+import servers.KVTaskClient;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -47,6 +55,23 @@ class HttpTaskManagerTest extends TaskManagerTest<HttpTaskManager> {
         assertNotNull(emptyManager);
     }
 
+    @Test
+    public void testDeferredFlush() {
+        saveTasks();
+        manager.setDeferredFlush(true);
+        manager.deleteTasks(); // состояние сериализовано, но в KVServer ещё не отправлено
+
+        HttpTaskManager beforeFlush = new HttpTaskManager("http://localhost:8078", "key");
+        beforeFlush.load();
+        assertEquals(2, beforeFlush.getTasksList().size());
+
+        manager.flush();
+        manager.flush(); // повторно отправлять нечего
+        HttpTaskManager afterFlush = new HttpTaskManager("http://localhost:8078", "key");
+        afterFlush.load();
+        assertEquals(0, afterFlush.getTasksList().size());
+    }
+
     @Test
     public void testLoadWithEpicSubtasks() {
 
@@ -76,4 +101,75 @@ class HttpTaskManagerTest extends TaskManagerTest<HttpTaskManager> {
         assertEquals(3, emptyHistoryManager.getSubtaskList().size());
         assertEquals(0, emptyHistoryManager.getHistory().size());
     }
+
+    @Test
+    public void testReloadedTimelineRejectsOverlaps() {
+        saveTasks();
+
+        HttpTaskManager loaded = new HttpTaskManager("http://localhost:8078", "key");
+        loaded.load();
+
+        assertEquals(manager.getPrioritizedTasks().size(), loaded.getPrioritizedTasks().size());
+        assertThrows(ManagerIntersectionsException.class, () -> loaded.saveTask(new Task("Таск", TaskStatus.NEW,
+                "Описание", firstTask.getStartTime(), 10)));
+        assertThrows(ManagerIntersectionsException.class, () -> loaded.saveSubtask(new Subtask("Саб",
+                TaskStatus.NEW, "Описание", firstSubtask.getStartTime().plusMinutes(10), 10, firstEpic.getId())));
+    }
+
+    @Test
+    public void testLoadedStringsArePooled() {
+        for (int i = 0; i < 3; i++) {
+            manager.saveTask(new Task("Планёрка", TaskStatus.NEW, "Ежедневная встреча",
+                    LocalDateTime.of(2030, 1, 1 + i, 9, 0), 15));
+        }
+
+        HttpTaskManager loaded = new HttpTaskManager("http://localhost:8078", "key");
+        loaded.load();
+
+        List<Task> tasks = loaded.getTasksList();
+        assertEquals(3, tasks.size());
+        assertSame(tasks.get(0).getName(), tasks.get(1).getName());
+        assertSame(tasks.get(0).getDescription(), tasks.get(2).getDescription());
+    }
+
+    @Test
+    public void testIdBlocksForSeveralManagers() {
+
+        saveTasks();
+
+        HttpTaskManager secondManager = new HttpTaskManager("http://localhost:8078", "key");
+        int secondId = secondManager.saveTask(new Task("Таск второго менеджера", TaskStatus.NEW,
+                "Описание", LocalDateTime.of(2030, 1, 1, 10, 0), 10));
+        assertEquals(BlockIdAllocator.DEFAULT_BLOCK_SIZE + 1, secondId);
+
+        int firstId = manager.saveTask(new Task("Таск первого менеджера", TaskStatus.NEW,
+                "Описание", LocalDateTime.of(2030, 1, 2, 10, 0), 10));
+        assertEquals(9, firstId);
+
+        HttpTaskManager restartedManager = new HttpTaskManager("http://localhost:8078", "key");
+        restartedManager.load();
+        int restartedId = restartedManager.saveTask(new Task("Таск после перезапуска", TaskStatus.NEW,
+                "Описание", LocalDateTime.of(2030, 1, 3, 10, 0), 10));
+        assertEquals(2 * BlockIdAllocator.DEFAULT_BLOCK_SIZE + 1, restartedId);
+    }
+
+    @Test
+    public void testSaveDoesNotResetIdLease() {
+
+        KVTaskClient client = new KVTaskClient("http://localhost:8078");
+        assertEquals(1, client.lease("ids", 10));
+        client.put("ids", "0"); // обычный ключ с тем же именем не трогает счётчик аренды
+        assertEquals("0", client.load("ids"));
+        assertEquals(11, client.lease("ids", 10));
+    }
+
+    @Test
+    public void testIdBlockNearIntegerLimit() {
+
+        BlockIdAllocator allocator = BlockIdAllocator.startingAfter(Integer.MAX_VALUE - 3);
+        assertEquals(Integer.MAX_VALUE - 2, allocator.next(2));
+        assertThrows(IllegalStateException.class, () -> allocator.next(2)); // не переносится в конец блока
+        assertEquals(Integer.MAX_VALUE, allocator.next());
+        assertThrows(IllegalStateException.class, allocator::next);
+    }
 }
@@ -3,11 +3,13 @@ import entity.Epic;
 import entity.Subtask;
 import entity.Task;
 import entity.TaskStatus;
+import entity.TaskType;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import servers.HttpTaskServer;
 import servers.KVServer;
+import services.BoardStats;
 
 import java.io.IOException;
 import java.net.URI;
@@ -464,6 +466,26 @@ public class HttpTaskServerTest {
         assertEquals(200, history.statusCode());
     }
 
+    @Test
+    public void testGetStats() throws IOException, InterruptedException {
+
+        addTaskToServer(firstEpic, "/epic");
+        addTaskToServer(new Subtask("Сабтаск 1", NEW, "Описание Сабтаск 1",
+                LocalDateTime.of(2010, 1, 11, 11, 40), 50, 1), "/subtask");
+        addTaskToServer(firstTask, "/task");
+
+        HttpResponse<String> response = client.send(createGetRequest("/stats"), handler);
+
+        assertEquals(200, response.statusCode());
+        BoardStats stats = GSON.fromJson(response.body(), BoardStats.class);
+        assertEquals(1, stats.getCount(TaskType.TASK, NEW));
+        assertEquals(1, stats.getCount(TaskType.SUBTASK, NEW));
+        assertEquals(60, stats.getPlannedMinutes(NEW));
+        assertEquals(2, stats.getOverdue());
+        assertEquals(0, stats.getSubtaskCompletionPercent());
+        assertEquals(0, stats.getEpicCompletionPercent());
+    }
+
     @Test
     public void testGetPrioritizedTasks() throws IOException, InterruptedException {
 
@@ -485,6 +507,173 @@ public class HttpTaskServerTest {
         assertEquals(secondTask.getDuration(), tasks.get(0).getDuration());
         assertEquals(200, prioritized.statusCode());
     }
+
+    @Test
+    public void testGetPrioritizedTasksInTimeRange() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+        addTaskToServer(secondTask, "/task");
+
+        HttpResponse<String> prioritized = client.send(
+                createGetRequest("?from=2000-05-05T10:25&to=2000-06-01T00:00"), handler);
+        List<Task> tasks = GSON.fromJson(prioritized.body(), new TypeToken<List<Task>>() {
+        }.getType());
+
+        assertEquals(200, prioritized.statusCode());
+        assertEquals(1, tasks.size());
+        assertEquals(firstTask.getName(), tasks.get(0).getName());
+
+        HttpResponse<String> badRequest = client.send(createGetRequest("?from=2000-05-05&to=2000-06-01"), handler);
+        assertEquals(400, badRequest.statusCode());
+    }
+
+    @Test
+    public void testSaveBatch() throws IOException, InterruptedException {
+        Epic epic = new Epic("Эпик 1", NEW, "Описание Эпик 1", LocalDateTime.of(2001, 9, 11, 10, 20),
+                10, 50, null);
+        Subtask subtask = new Subtask("Сабтаск 1", NEW, "Описание Сабтаск 1",
+                LocalDateTime.of(2010, 1, 11, 11, 40), 50, 50);
+        URI uri = URI.create("http://localhost:8080/tasks/batch");
+        String body = GSON.toJson(List.of(firstTask, epic, subtask));
+        HttpRequest request = HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.ofString(body))
+                .uri(uri).version(HttpClient.Version.HTTP_1_1)
+                .header("Accept", "application/json").build();
+
+        HttpResponse<String> response = client.send(request, handler);
+        List<Integer> ids = GSON.fromJson(response.body(), new TypeToken<List<Integer>>() {
+        }.getType());
+
+        assertEquals(201, response.statusCode());
+        assertEquals(List.of(1, 2, 3), ids);
+        HttpResponse<String> subtasks = client.send(createGetRequest("/subtask/epic?id=2"), handler);
+        List<Subtask> subtasksInEpic = GSON.fromJson(subtasks.body(), new TypeToken<List<Subtask>>() {
+        }.getType());
+        assertEquals(1, subtasksInEpic.size());
+        assertEquals(3, subtasksInEpic.get(0).getId());
+
+        HttpRequest notArray = HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(firstTask)))
+                .uri(uri).version(HttpClient.Version.HTTP_1_1)
+                .header("Accept", "application/json").build();
+        assertEquals(400, client.send(notArray, handler).statusCode());
+
+        HttpRequest empty = HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.ofString("[]"))
+                .uri(uri).version(HttpClient.Version.HTTP_1_1)
+                .header("Accept", "application/json").build();
+        HttpResponse<String> emptyResponse = client.send(empty, handler);
+        assertEquals(201, emptyResponse.statusCode());
+        assertEquals("[]", emptyResponse.body());
+
+        Subtask orphan = new Subtask(57, "Сабтаск 2", NEW, "Описание Сабтаск 2", null, 0, 999);
+        HttpRequest withOrphan = HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(List.of(orphan))))
+                .uri(uri).version(HttpClient.Version.HTTP_1_1)
+                .header("Accept", "application/json").build();
+        assertEquals(400, client.send(withOrphan, handler).statusCode());
+        List<Subtask> allSubtasks = GSON.fromJson(client.send(createGetRequest("/subtask"), handler).body(),
+                new TypeToken<List<Subtask>>() {
+                }.getType());
+        assertEquals(1, allSubtasks.size());
+    }
+
+    @Test
+    public void testGetTasksPage() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+        addTaskToServer(secondTask, "/task");
+
+        HttpResponse<String> response = client.send(createGetRequest("/task?limit=1"), handler);
+        List<Task> page = GSON.fromJson(response.body(), new TypeToken<List<Task>>() {
+        }.getType());
+        assertEquals(200, response.statusCode());
+        assertEquals(1, page.size());
+        assertEquals(1, page.get(0).getId());
+
+        response = client.send(createGetRequest("/task?limit=1&after=1"), handler);
+        page = GSON.fromJson(response.body(), new TypeToken<List<Task>>() {
+        }.getType());
+        assertEquals(1, page.size());
+        assertEquals(2, page.get(0).getId());
+
+        assertEquals(400, client.send(createGetRequest("/task?limit=0"), handler).statusCode());
+    }
+
+    @Test
+    public void testConditionalUpdate() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+        HttpResponse<String> response = client.send(createGetRequest("/task?id=1"), handler);
+        assertEquals("\"1\"", response.headers().firstValue("ETag").orElse(null));
+
+        firstTask.setName("Новое имя");
+        response = client.send(createConditionalPost("/task?id=1", firstTask, "\"1\""), handler);
+        assertEquals(201, response.statusCode());
+        assertEquals("\"2\"", response.headers().firstValue("ETag").orElse(null));
+
+        response = client.send(createConditionalPost("/task?id=1", firstTask, "\"1\""), handler);
+        assertEquals(412, response.statusCode());
+        assertEquals("\"2\"", response.headers().firstValue("ETag").orElse(null));
+
+        firstTask.setVersion(1);
+        assertEquals(409, addTaskToServer(firstTask, "/task?id=1").statusCode());
+        firstTask.setVersion(2);
+        assertEquals(201, addTaskToServer(firstTask, "/task?id=1").statusCode());
+    }
+
+    private HttpRequest createConditionalPost(String path, Task task, String ifMatch) {
+        return HttpRequest.newBuilder().POST(HttpRequest.BodyPublishers.ofString(gson.toJson(task)))
+                .uri(URI.create("http://localhost:8080/tasks" + path)).version(HttpClient.Version.HTTP_1_1)
+                .header("If-Match", ifMatch).build();
+    }
+
+    @Test
+    public void testGetTasksByStatus() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+        secondTask.setStatus(TaskStatus.DONE);
+        addTaskToServer(secondTask, "/task");
+
+        HttpResponse<String> response = client.send(createGetRequest("/task?status=DONE"), handler);
+        List<Task> done = GSON.fromJson(response.body(), new TypeToken<List<Task>>() {
+        }.getType());
+        assertEquals(200, response.statusCode());
+        assertEquals(1, done.size());
+        assertEquals(secondTask.getName(), done.get(0).getName());
+
+        response = client.send(createGetRequest("/task?status=NEW&count"), handler);
+        assertEquals("1", response.body());
+
+        assertEquals(400, client.send(createGetRequest("/task?status=UNKNOWN"), handler).statusCode());
+    }
+
+    @Test
+    public void testSearch() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+        addTaskToServer(secondTask, "/task");
+
+        HttpResponse<String> response = client.send(createGetRequest("/search?q=%D1%82%D0%B0%D1%81%D0%BA+2"), handler);
+        List<Task> found = GSON.fromJson(response.body(), new TypeToken<List<Task>>() {
+        }.getType());
+        assertEquals(200, response.statusCode());
+        assertEquals(1, found.size());
+        assertEquals(secondTask.getName(), found.get(0).getName());
+
+        assertEquals(400, client.send(createGetRequest("/search"), handler).statusCode());
+    }
+
+    @Test
+    public void testGetFreeSlots() throws IOException, InterruptedException {
+        addTaskToServer(firstTask, "/task");
+
+        HttpResponse<String> slot = client.send(createGetRequest("/slots?after=2000-05-05T10:00&duration=30"), handler);
+        List<LocalDateTime> slots = GSON.fromJson(slot.body(), new TypeToken<List<LocalDateTime>>() {
+        }.getType());
+        assertEquals(200, slot.statusCode());
+        assertEquals(List.of(LocalDateTime.of(2000, 5, 5, 10, 30)), slots);
+
+        slot = client.send(createGetRequest(
+                "/slots?after=2000-05-05T10:00&duration=20&horizon=2000-05-05T11:00&count=3"), handler);
+        slots = GSON.fromJson(slot.body(), new TypeToken<List<LocalDateTime>>() {
+        }.getType());
+        assertEquals(List.of(LocalDateTime.of(2000, 5, 5, 10, 0), LocalDateTime.of(2000, 5, 5, 10, 30)), slots);
+
+        assertEquals(400, client.send(createGetRequest("/slots?after=2000-05-05T10:00"), handler).statusCode());
+    }
 }
 
 
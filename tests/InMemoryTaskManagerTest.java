@@ -1,9 +1,481 @@
+import entity.Epic;
+import entity.Subtask;
+import entity.Task;
+import entity.TaskStatus;
+import entity.TaskType;
+import org.junit.jupiter.api.Test;
+import services.BoardStats;
 import services.InMemoryTaskManager;
+import services.TaskEvent;
+import services.TaskEventBus;
+import services.TaskManagerSnapshot;
+import services.TombstoneCompactor;
 
-class InMemoryTaskManagerTest extends TaskManagerTest {
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static entity.TaskStatus.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryTaskManagerTest extends TaskManagerTest<InMemoryTaskManager> {
 
     @Override
     public InMemoryTaskManager createTaskManager() {
         return new InMemoryTaskManager();
     }
+
+    @Test
+    void testChangeFeed() throws InterruptedException {
+        BlockingQueue<TaskEvent> received = new LinkedBlockingQueue<>();
+        try (TaskEventBus.Subscription subscription = manager.subscribe(received::add)) {
+            manager.saveTask(firstTask);
+            manager.saveEpic(firstEpic);
+            Subtask subtask = new Subtask("Сабтаск", DONE, "Описание", LocalDateTime.of(2010, 1, 11, 11, 40),
+                    50, firstEpic.getId());
+            manager.saveSubtask(subtask);
+            Task renamed = new Task("Таск 1 после правки", NEW, "Описание Таск 1", firstTask.getStartTime(),
+                    firstTask.getDuration(), firstTask.getId());
+            manager.updateTask(renamed);
+            manager.getTaskByIdNumber(firstTask.getId());
+            manager.deleteEpicById(firstEpic.getId());
+
+            List<TaskEvent> events = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                TaskEvent event = received.poll(5, TimeUnit.SECONDS);
+                assertNotNull(event, "событие " + i + " не доставлено");
+                events.add(event);
+            }
+            for (int i = 1; i < events.size(); i++) {
+                assertEquals(events.get(0).getSequence() + i, events.get(i).getSequence());
+            }
+
+            assertEquals(TaskEvent.Kind.CREATED, events.get(0).getKind());
+            assertNull(events.get(0).getBefore());
+            assertSame(firstTask, events.get(0).getAfter());
+
+            assertEquals(TaskEvent.Kind.CREATED, events.get(1).getKind());
+            assertEquals(firstEpic.getId(), events.get(1).getId());
+
+            assertEquals(TaskEvent.Kind.CREATED, events.get(2).getKind());
+            assertSame(subtask, events.get(2).getAfter());
+            TaskEvent epicRollup = events.get(3);
+            assertEquals(TaskEvent.Kind.UPDATED, epicRollup.getKind());
+            assertEquals(NEW, epicRollup.getBefore().getStatus()); // в событиях копии эпика, а не сам эпик
+            assertEquals(DONE, epicRollup.getAfter().getStatus());
+            assertEquals(subtask.getId(), epicRollup.getSubtaskId());
+            assertTrue(((Epic) epicRollup.getAfter()).getSubtasks().isEmpty()); // список подзадач в ленту не попадает
+            assertNotSame(firstEpic, epicRollup.getAfter());
+
+            assertEquals(TaskEvent.Kind.UPDATED, events.get(4).getKind());
+            assertSame(firstTask, events.get(4).getBefore());
+            assertSame(renamed, events.get(4).getAfter());
+            assertEquals(TaskEvent.Kind.VIEWED, events.get(5).getKind());
+            assertSame(renamed, events.get(5).getAfter());
+
+            assertEquals(TaskEvent.Kind.DELETED, events.get(6).getKind());
+            assertEquals(subtask.getId(), events.get(6).getId());
+            assertNull(events.get(6).getAfter());
+            assertEquals(TaskEvent.Kind.DELETED, events.get(7).getKind());
+            assertSame(epicRollup.getAfter(), events.get(7).getBefore());
+
+            assertEquals(events.get(7).getSequence() + 1, subscription.getPosition());
+        }
+    }
+
+    @Test
+    void testSlowSubscriberDoesNotBlockWriter() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicLong lost = new AtomicLong();
+        TaskEventBus.Subscription subscription = manager.subscribe(new TaskEventBus.Listener() {
+            @Override
+            public void onEvent(TaskEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onOverrun(long lostEvents) {
+                lost.addAndGet(lostEvents);
+            }
+        });
+        int id = manager.saveTask(firstTask);
+        int views = TaskEventBus.DEFAULT_CAPACITY * 2;
+        for (int i = 0; i < views; i++) { // подписчик стоит на первом событии, запись не ждёт
+            manager.getTaskByIdNumber(id);
+        }
+        release.countDown();
+
+        long end = 1 + 1 + views; // позиция после последнего события: номера с 1, плюс событие создания
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (subscription.getPosition() != end && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        subscription.close();
+        assertEquals(end, subscription.getPosition());
+        assertTrue(lost.get() >= views - TaskEventBus.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    void testUndoRedoBulkDeletes() {
+        saveTasks();
+        manager.addDependency(firstTask.getId(), secondTask.getId());
+        TaskStatus firstEpicStatus = firstEpic.getStatus();
+        List<Task> prioritized = new ArrayList<>(manager.getPrioritizedTasks());
+
+        manager.deleteTasks();
+        assertTrue(manager.getTasksList().isEmpty());
+        assertTrue(manager.undo());
+        assertEquals(List.of(firstTask, secondTask), manager.getTasksList());
+        assertEquals(List.of(firstTask.getId()), manager.getDependencies(secondTask.getId()));
+
+        manager.deleteEpics();
+        assertTrue(manager.getSubtaskList().isEmpty());
+        assertTrue(manager.undo());
+        assertEquals(List.of(firstEpic, secondEpic, thirdEpic), manager.getEpicsList());
+        assertEquals(List.of(firstSubtask, secondSubtask, thirdSubtask), manager.getSubtaskList());
+        assertEquals(2, manager.subtaskList(firstEpic.getId()).size());
+
+        manager.deleteSubtasks();
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(firstEpic.getId()).getStatus());
+        assertTrue(manager.undo());
+        assertEquals(firstEpicStatus, manager.getEpicTaskByIdNumber(firstEpic.getId()).getStatus());
+        assertEquals(prioritized, new ArrayList<>(manager.getPrioritizedTasks()));
+
+        assertTrue(manager.redo());
+        assertTrue(manager.getSubtaskList().isEmpty());
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(firstEpic.getId()).getStatus());
+        assertFalse(manager.redo());
+        assertTrue(manager.undo());
+        assertEquals(3, manager.getSubtaskList().size());
+    }
+
+    @Test
+    void testUndoRedoSingleOperations() {
+        saveTasks();
+        Task renamed = new Task("Таск 1 после правки", IN_PROGRESS, "Описание", firstTask.getStartTime(),
+                firstTask.getDuration(), firstTask.getId());
+        manager.updateTask(renamed);
+        manager.deleteEpicById(firstEpic.getId());
+        Subtask moved = new Subtask("Сабтаск 3", DONE, "Описание Сабтаск 3", thirdSubtask.getStartTime(),
+                thirdSubtask.getDuration(), thirdEpic.getId());
+        moved.setId(thirdSubtask.getId());
+        manager.updateSubtask(moved);
+        assertEquals(DONE, manager.getEpicTaskByIdNumber(thirdEpic.getId()).getStatus());
+
+        assertTrue(manager.undo()); // перенос подзадачи
+        assertSame(thirdSubtask, manager.getSubTaskByIdNumber(thirdSubtask.getId()));
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(thirdEpic.getId()).getStatus());
+        assertEquals(1, manager.subtaskList(secondEpic.getId()).size());
+        assertTrue(manager.undo()); // удаление эпика вместе с подзадачами
+        assertSame(firstEpic, manager.getEpicTaskByIdNumber(firstEpic.getId()));
+        assertSame(firstSubtask, manager.getSubTaskByIdNumber(firstSubtask.getId()));
+        assertTrue(manager.undo()); // обновление задачи
+        assertSame(firstTask, manager.getTaskByIdNumber(firstTask.getId()));
+        assertEquals(1, manager.getTaskByIdNumber(firstTask.getId()).getVersion());
+
+        assertTrue(manager.redo());
+        assertSame(renamed, manager.getTaskByIdNumber(firstTask.getId()));
+        manager.deleteTaskById(secondTask.getId()); // новая операция сбрасывает повторы
+        assertFalse(manager.redo());
+    }
+
+    @Test
+    void testJournalLimits() {
+        manager.setJournalLimits(2, Long.MAX_VALUE);
+        manager.saveTask(firstTask);
+        manager.saveTask(secondTask);
+        manager.saveEpic(firstEpic);
+        assertTrue(manager.undo());
+        assertTrue(manager.undo());
+        assertFalse(manager.undo()); // первая операция вытеснена
+        assertEquals(List.of(firstTask), manager.getTasksList());
+
+        manager.setJournalLimits(10, 1000);
+        manager.saveTask(secondTask);
+        List<Task> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Task("Таск пакета " + i, NEW, "Описание", LocalDateTime.of(2040, 1, 1, i, 0), 30));
+        }
+        manager.saveAll(batch);
+        manager.deleteTasks(); // запись больше предела в байтах не сохраняется и очищает журнал
+        assertFalse(manager.undo());
+
+        manager.setJournalLimits(10, Long.MAX_VALUE);
+        Task task = new Task("Таск", NEW, "Описание", null, 0);
+        manager.saveTask(task);
+        task.setStatus(DONE);
+        manager.updateTask(task); // изменение на месте отменить нельзя
+        assertFalse(manager.undo());
+    }
+
+    @Test
+    void testDeleteSubtasksPublishesEachEpicOnce() throws InterruptedException {
+        saveTasks(); // у первого эпика две подзадачи, у второго одна
+        BlockingQueue<TaskEvent> received = new LinkedBlockingQueue<>();
+        try (TaskEventBus.Subscription subscription = manager.subscribe(received::add)) {
+            manager.deleteSubtasks();
+
+            List<TaskEvent> events = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                TaskEvent event = received.poll(5, TimeUnit.SECONDS);
+                assertNotNull(event, "событие " + i + " не доставлено");
+                events.add(event);
+            }
+            assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals(3, events.stream().filter(event -> event.getKind() == TaskEvent.Kind.DELETED).count());
+            List<Integer> updatedEpics = new ArrayList<>();
+            for (TaskEvent event : events) {
+                if (event.getKind() == TaskEvent.Kind.UPDATED) {
+                    updatedEpics.add(event.getId());
+                    assertEquals(NEW, event.getAfter().getStatus());
+                }
+            }
+            assertEquals(2, updatedEpics.size());
+            assertEquals(Set.of(firstEpic.getId(), secondEpic.getId()), new HashSet<>(updatedEpics));
+        }
+    }
+
+    @Test
+    void testEpicTimeKeepsSecondsWithinMinute() {
+        manager.saveEpic(firstEpic);
+        LocalDateTime minute = LocalDateTime.of(2030, 1, 1, 10, 0);
+        Subtask first = new Subtask("Саб 1", NEW, "Описание", minute.plusSeconds(10), 1, firstEpic.getId());
+        Subtask second = new Subtask("Саб 2", NEW, "Описание", minute.plusSeconds(80), 0, firstEpic.getId());
+        manager.saveSubtask(first);
+        manager.saveSubtask(second); // оба окончания в одной минуте, 10:01:10 и 10:01:20
+
+        Epic epic = manager.getEpicTaskByIdNumber(firstEpic.getId());
+        assertEquals(minute.plusSeconds(10), epic.getStartTime());
+        assertEquals(minute.plusSeconds(80), epic.getLatestSubtaskEndTime());
+        manager.deleteSubtaskById(second.getId());
+        assertEquals(minute.plusSeconds(70), epic.getLatestSubtaskEndTime());
+        manager.deleteSubtaskById(first.getId());
+        assertNull(epic.getEarliestSubtaskStartTime());
+        manager.saveSubtask(new Subtask("Саб 3", NEW, "Описание", minute.plusSeconds(30), 5, firstEpic.getId()));
+        assertEquals(minute.plusSeconds(30), epic.getEarliestSubtaskStartTime());
+    }
+
+    @Test
+    void testOversizedOperationKeepsIndependentUndo() {
+        manager.setJournalLimits(10, 1000);
+        List<Task> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Task("Таск пакета " + i, NEW, "Описание", LocalDateTime.of(2040, 1, 1, i, 0), 30));
+        }
+        manager.saveAll(batch);
+        manager.saveEpic(firstEpic);
+
+        manager.deleteTasks(); // больше предела в байтах: не записана, но эпик она не задела
+        assertEquals(1, manager.getUnrecordedOperations());
+        assertTrue(manager.undo());
+        assertTrue(manager.getEpicsList().isEmpty());
+        assertFalse(manager.undo()); // пакет задет удалением, его отмена вытеснена
+        assertTrue(manager.getTasksList().isEmpty());
+    }
+
+    @Test
+    void testDeferredEpicDeleteHidesSubtasksUntilCompacted() {
+        saveTasks();
+        manager.getSubTaskByIdNumber(firstSubtask.getId());
+        manager.getTaskByIdNumber(firstTask.getId());
+        LocalDateTime statsTime = LocalDateTime.of(2020, 1, 1, 0, 0);
+        assertEquals(3, manager.getStats(statsTime).getOverdue()); // оба таска и Сабтаск 1
+        manager.setDeferredDeletes(true);
+        assertSame(firstEpic, manager.deleteEpicById(firstEpic.getId()));
+
+        assertTrue(manager.hasTombstones());
+        BoardStats stats = manager.getStats(statsTime); // подзадачи удалённого эпика вычтены без очистки
+        assertEquals(2, stats.getOverdue());
+        assertEquals(60, stats.getPlannedMinutes(NEW));
+        assertEquals(40, stats.getPlannedMinutes(DONE));
+        assertEquals(0, stats.getCount(TaskType.SUBTASK, NEW));
+        assertTrue(manager.hasTombstones());
+        assertNull(manager.getEpicTaskByIdNumber(firstEpic.getId()));
+        assertNull(manager.getSubTaskByIdNumber(firstSubtask.getId()));
+        assertNull(manager.deleteSubtaskById(secondSubtask.getId()));
+        assertEquals(List.of(thirdSubtask), manager.getSubtaskList());
+        assertEquals(0, manager.countByStatus(NEW, TaskType.SUBTASK));
+        assertEquals(List.of(thirdSubtask), manager.getByStatus(DONE, TaskType.SUBTASK));
+        assertEquals(List.of(firstTask), manager.getHistory());
+        assertFalse(manager.getPrioritizedTasks().contains(firstSubtask));
+        assertTrue(manager.getPrioritizedTasks(firstSubtask.getStartTime(), firstSubtask.getEndTime()).isEmpty());
+
+        assertEquals(1, manager.compactTombstones(1)); // партия из одной подзадачи
+        assertTrue(manager.hasTombstones());
+        assertEquals(1, manager.compactTombstones(10));
+        assertFalse(manager.hasTombstones());
+        assertEquals(1, manager.countByStatus(DONE, TaskType.SUBTASK));
+        assertEquals(3, manager.getPrioritizedTasks().size());
+
+        manager.deleteEpicById(secondEpic.getId());
+        Task overlapping = new Task("На месте удалённой", NEW, "Описание",
+                thirdSubtask.getStartTime().plusMinutes(10), thirdSubtask.getDuration());
+        manager.saveTask(overlapping); // невычищенная удалённая подзадача не мешает
+        assertTrue(manager.getSubtaskList().isEmpty());
+        assertTrue(manager.getSubtasksPage(0, 10).isEmpty());
+        assertTrue(manager.search("Сабтаск", 10).isEmpty());
+        assertEquals(thirdSubtask.getStartTime(), manager.findFreeSlot(thirdSubtask.getStartTime(), 10));
+        assertNull(manager.getEarliestStart(thirdSubtask.getId()));
+        assertTrue(manager.hasTombstones()); // чтения очередь не вычищают
+    }
+
+    @Test
+    void testUndoDeferredEpicDelete() {
+        saveTasks();
+        manager.setDeferredDeletes(true);
+        manager.deleteEpics();
+        assertTrue(manager.getSubtaskList().isEmpty());
+        assertEquals(0, manager.countByStatus(DONE, TaskType.SUBTASK));
+
+        assertTrue(manager.undo());
+        assertFalse(manager.hasTombstones());
+        assertEquals(List.of(firstEpic, secondEpic, thirdEpic), manager.getEpicsList());
+        assertEquals(List.of(firstSubtask, secondSubtask, thirdSubtask), manager.getSubtaskList());
+        assertEquals(2, manager.countByStatus(DONE, TaskType.SUBTASK));
+        assertTrue(manager.redo());
+        assertTrue(manager.getSubtaskList().isEmpty());
+    }
+
+    @Test
+    void testTombstoneCompactorPurgesInBackground() throws Exception {
+        TombstoneCompactor compactor = new TombstoneCompactor(manager, 1, 1);
+        try {
+            compactor.start();
+            synchronized (manager) { // как запрос HttpTaskServer: под монитором менеджера
+                saveTasks();
+                manager.deleteEpics();
+                assertTrue(manager.hasTombstones());
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (hasTombstones() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(hasTombstones());
+            synchronized (manager) {
+                assertEquals(2, manager.getPrioritizedTasks().size());
+            }
+        } finally {
+            compactor.close();
+        }
+        assertFalse(manager.isDeferredDeletes());
+    }
+
+    private boolean hasTombstones() {
+        synchronized (manager) {
+            return manager.hasTombstones();
+        }
+    }
+
+    @Test
+    void testSnapshot() {
+        assertThrows(IllegalStateException.class, () -> manager.snapshot());
+        saveTasks();
+        manager.enableSnapshots();
+
+        TaskManagerSnapshot snapshot = manager.snapshot();
+        assertSame(snapshot, manager.snapshot());
+        assertEquals(2, snapshot.getTasks().size());
+        assertEquals(3, snapshot.getEpics().size());
+        assertEquals(3, snapshot.getSubtasks().size());
+        assertEquals(idsOf(manager.getPrioritizedTasks()), idsOf(snapshot.getPrioritizedTasks()));
+        assertSame(snapshot.getTask(firstTask.getId()), snapshot.getPrioritizedTasks().iterator().next());
+
+        LocalDateTime savedStart = firstTask.getStartTime();
+        firstTask.setStartTime(savedStart.plusYears(50)); // изменение на месте не доходит до выданного снимка
+        assertEquals(savedStart, snapshot.getTask(firstTask.getId()).getStartTime());
+        firstTask.setStartTime(savedStart);
+
+        for (Task task : snapshot.getPrioritizedTasks()) { // запись во время обхода снимка не мешает чтению
+            manager.deleteTaskById(task.getId());
+            manager.deleteSubtaskById(task.getId());
+        }
+
+        assertEquals(IN_PROGRESS, snapshot.getEpic(firstEpic.getId()).getStatus());
+        assertEquals(List.of(firstSubtask.getId(), secondSubtask.getId()),
+                List.copyOf(snapshot.getSubtaskIds(firstEpic.getId())));
+        assertEquals(List.of(firstSubtask.getId(), secondSubtask.getId()),
+                snapshot.getEpicWithSubtasks(firstEpic.getId()).getSubtasks());
+        assertTrue(snapshot.getEpic(firstEpic.getId()).getSubtasks().isEmpty()); // список хранится отдельно
+        assertEquals(firstTask.getName(), snapshot.getTask(firstTask.getId()).getName());
+
+        TaskManagerSnapshot next = manager.snapshot(); // опубликован последней записью
+        assertTrue(next.getVersion() > snapshot.getVersion());
+        assertTrue(next.getSubtaskIds(firstEpic.getId()).isEmpty());
+        assertNull(next.getTask(firstTask.getId()));
+        assertTrue(next.getPrioritizedTasks().isEmpty());
+        assertEquals(3, next.getEpics().size());
+    }
+
+    @Test
+    void testSnapshotsReadFromAnotherThread() throws InterruptedException {
+        manager.enableSnapshots();
+        AtomicLong lastVersion = new AtomicLong();
+        List<String> errors = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            while (done.getCount() > 0) {
+                TaskManagerSnapshot snapshot = manager.snapshot();
+                if (snapshot.getVersion() < lastVersion.get()
+                        || snapshot.getTasks().size() != snapshot.getPrioritizedTasks().size()) {
+                    errors.add("несогласованный снимок версии " + snapshot.getVersion());
+                }
+                lastVersion.set(snapshot.getVersion());
+            }
+        });
+        reader.start();
+        LocalDateTime start = LocalDateTime.of(2040, 1, 1, 0, 0);
+        for (int i = 0; i < 2000; i++) {
+            Task task = new Task("Таск " + i, NEW, "Описание", start.plusMinutes(10L * i), 10);
+            manager.saveTask(task);
+            if (i % 3 == 0) {
+                manager.deleteTaskById(task.getId());
+            }
+        }
+        done.countDown();
+        reader.join();
+
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(manager.getTasksList().size(), manager.snapshot().getTasks().size());
+    }
+
+    @Test
+    void testSnapshotDoesNotPurgeTombstones() {
+        saveTasks();
+        manager.enableSnapshots();
+        manager.setDeferredDeletes(true);
+        manager.deleteEpicById(firstEpic.getId());
+
+        TaskManagerSnapshot snapshot = manager.snapshot();
+        assertTrue(manager.hasTombstones());
+        assertNull(snapshot.getEpic(firstEpic.getId()));
+        assertTrue(snapshot.getSubtaskIds(firstEpic.getId()).isEmpty());
+        assertEquals(List.of(thirdSubtask.getId()), List.copyOf(snapshot.getSubtaskIds(secondEpic.getId())));
+        assertEquals(List.of(thirdSubtask.getId()), idsOf(snapshot.getSubtasks()));
+        assertFalse(idsOf(snapshot.getPrioritizedTasks()).contains(firstSubtask.getId()));
+
+        manager.compactTombstones(10);
+        assertFalse(manager.hasTombstones());
+        assertEquals(List.of(thirdSubtask.getId()), idsOf(manager.snapshot().getSubtasks()));
+    }
+
+    private static List<Integer> idsOf(Collection<? extends Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
 }
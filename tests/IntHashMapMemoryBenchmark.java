@@ -0,0 +1,75 @@
+import entity.Task;
+import services.IntHashMap;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static entity.TaskStatus.NEW;
+
+// Запуск: java -Xmx4g IntHashMapMemoryBenchmark [количество задач]
+// Сравнивает объём кучи под хранилище задач: HashMap<Integer, Task> против IntHashMap<Task>.
+public class IntHashMapMemoryBenchmark {
+
+    private static final int DEFAULT_TASKS_COUNT = 2_000_000;
+
+    private static Object retained; // не даёт сборщику мусора освободить структуру до замера
+
+    public static void main(String[] args) {
+        int tasksCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TASKS_COUNT;
+        Task[] tasks = createTasks(tasksCount);
+
+        long hashMapBytes = measure(() -> {
+            Map<Integer, Task> map = new HashMap<>();
+            for (Task task : tasks) {
+                map.put(task.getId(), task);
+            }
+            return map;
+        });
+        long intHashMapBytes = measure(() -> {
+            IntHashMap<Task> map = new IntHashMap<>();
+            for (Task task : tasks) {
+                map.put(task.getId(), task);
+            }
+            return map;
+        });
+
+        System.out.println("Задач: " + tasksCount);
+        System.out.printf("HashMap<Integer, Task>: %,d байт (%.1f на задачу)%n",
+                hashMapBytes, (double) hashMapBytes / tasksCount);
+        System.out.printf("IntHashMap<Task>:       %,d байт (%.1f на задачу)%n",
+                intHashMapBytes, (double) intHashMapBytes / tasksCount);
+    }
+
+    private static Task[] createTasks(int tasksCount) {
+        Task[] tasks = new Task[tasksCount];
+        LocalDateTime startTime = LocalDateTime.of(2000, 1, 1, 0, 0);
+        for (int i = 0; i < tasksCount; i++) {
+            tasks[i] = new Task("Таск", NEW, "Описание", startTime, 10, i + 1);
+        }
+        return tasks;
+    }
+
+    // объём, удерживаемый созданной структурой: сами задачи создаются заранее и в замер не входят
+    private static long measure(Supplier<Object> factory) {
+        long before = usedMemory();
+        retained = factory.get();
+        long after = usedMemory();
+        retained = null;
+        return after - before;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,13 +1,20 @@
 
+import services.BoardStats;
+import services.EpicSchedule;
 import services.HistoryManager;
 import services.InMemoryHistoryManager;
+import services.InMemoryTaskManager;
 import services.TaskManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import entity.*;
+import exception.ManagerCycleException;
+import exception.ManagerIntersectionsException;
+import exception.ManagerVersionConflictException;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -34,6 +41,9 @@ abstract class TaskManagerTest<T extends TaskManager> {
     public void allTasksForTests() {
 
         manager = createTaskManager();
+        if (manager instanceof InMemoryTaskManager) {
+            ((InMemoryTaskManager) manager).setEpicConsistencyCheck(true);
+        }
 
         firstTask = new Task("Таск 1", NEW,
                 "Описание Таск 1", LocalDateTime.of(2000, 5, 5, 10, 20),
@@ -149,9 +159,8 @@ abstract class TaskManagerTest<T extends TaskManager> {
     void testGetEpicsList() {
 
         saveTasks();
-        List<Epic> testList1 = new ArrayList<>(List.of(firstEpic, secondEpic, thirdEpic));
-        List<Epic> testList2 = manager.getEpicsList();
-        assertEquals(testList1, testList2);
+        // эпики сравниваются по id: ConcurrentTaskManager выдаёт копии, а не изменяемые на месте объекты
+        assertEquals(ids(List.of(firstEpic, secondEpic, thirdEpic)), ids(manager.getEpicsList()));
 
         manager.deleteEpics();
         assertTrue(manager.getEpicsList().isEmpty());
@@ -255,11 +264,11 @@ abstract class TaskManagerTest<T extends TaskManager> {
 
     @Test
     void testCreationTask() {
-        saveTasks();
         Task testTask = new Task("Таск 1", NEW,
                 "Описание Таск 1", LocalDateTime.of(2000, 5, 5, 10, 20),
                 10, 1);
-        manager.creationTask(testTask);
+        manager.creationTask(testTask); // до сохранения: тот же интервал, что и у firstTask
+        saveTasks();
         assertEquals(manager.getTaskByIdNumber(1).getId(), testTask.getId());
         assertEquals(manager.getTaskByIdNumber(1).getName(), testTask.getName());
         assertEquals(manager.getTaskByIdNumber(1).getTaskType(), testTask.getTaskType());
@@ -292,11 +301,11 @@ abstract class TaskManagerTest<T extends TaskManager> {
 
     @Test
     void testCreationSubtask() {
-        saveTasks();
         Subtask testSubtask = new Subtask("Сабтаск 1", NEW,
                 "Описание Сабтаск 1", LocalDateTime.of(2010, 1, 11, 11, 40),
                 50, 3);
-        manager.creationSubtask(testSubtask);
+        manager.creationSubtask(testSubtask); // до сохранения: тот же интервал, что и у firstSubtask
+        saveTasks();
         assertEquals(manager.getSubTaskByIdNumber(5).getName(), testSubtask.getName());
         assertEquals(manager.getSubTaskByIdNumber(5).getTaskType(), testSubtask.getTaskType());
         assertEquals(manager.getSubTaskByIdNumber(5).getStatus(), testSubtask.getStatus());
@@ -508,6 +517,80 @@ abstract class TaskManagerTest<T extends TaskManager> {
         assertEquals(0, manager.getSubtaskList().size());
     }
 
+    @Test
+    void testChangeEpicStatusOnSubtaskUpdateAndDelete() {
+        saveTasks();
+        Subtask updated = new Subtask(firstSubtask.getId(), "Сабтаск 1", DONE, "Описание Сабтаск 1",
+                firstSubtask.getStartTime(), firstSubtask.getDuration(), firstSubtask.getEpicID());
+        manager.updateSubtask(updated);
+        assertEquals(DONE, manager.getEpicTaskByIdNumber(3).getStatus());
+
+        Subtask inProgress = new Subtask(secondSubtask.getId(), "Сабтаск 2", IN_PROGRESS, "Описание Сабтаск 2",
+                secondSubtask.getStartTime(), secondSubtask.getDuration(), secondSubtask.getEpicID());
+        manager.updateSubtask(inProgress);
+        assertEquals(IN_PROGRESS, manager.getEpicTaskByIdNumber(3).getStatus());
+
+        manager.deleteSubtaskById(inProgress.getId());
+        assertEquals(DONE, manager.getEpicTaskByIdNumber(3).getStatus());
+
+        Subtask moved = new Subtask(updated.getId(), "Сабтаск 1", NEW, "Описание Сабтаск 1",
+                updated.getStartTime(), updated.getDuration(), 8);
+        manager.updateSubtask(moved);
+        assertEquals(NEW, manager.getEpicTaskByIdNumber(3).getStatus());
+        assertTrue(manager.getEpicTaskByIdNumber(3).getSubtasks().isEmpty());
+        assertEquals(List.of(moved.getId()), manager.getEpicTaskByIdNumber(8).getSubtasks());
+    }
+
+    @Test
+    void testEpicTimeBasedOnSubtasks() {
+        saveTasks();
+        Subtask sub1 = new Subtask("Саб 1", NEW, "Описание Саб 1",
+                LocalDateTime.of(2017, 7, 18, 11, 30), 40, 8);
+        Subtask sub2 = new Subtask("Саб 2", NEW, "Описание Саб 2",
+                LocalDateTime.of(2016, 7, 18, 11, 30), 30, 8);
+        Subtask sub3 = new Subtask("Саб 3", NEW, "Описание Саб 3",
+                LocalDateTime.of(2018, 7, 18, 11, 30), 20, 8);
+        manager.saveSubtask(sub1);
+        manager.saveSubtask(sub2);
+        manager.saveSubtask(sub3);
+
+        assertEquals(sub2.getStartTime(), manager.getEpicTaskByIdNumber(8).getStartTime());
+        assertEquals(90, manager.getEpicTaskByIdNumber(8).getDuration());
+
+        manager.deleteSubtaskById(sub2.getId());
+        assertEquals(sub1.getStartTime(), manager.getEpicTaskByIdNumber(8).getStartTime());
+        assertEquals(60, manager.getEpicTaskByIdNumber(8).getDuration());
+
+        Subtask earlier = new Subtask(sub3.getId(), "Саб 3", NEW, "Описание Саб 3",
+                LocalDateTime.of(2015, 1, 1, 9, 0), 25, 8);
+        manager.updateSubtask(earlier);
+        assertEquals(earlier.getStartTime(), manager.getEpicTaskByIdNumber(8).getStartTime());
+        assertEquals(65, manager.getEpicTaskByIdNumber(8).getDuration());
+    }
+
+    @Test
+    void testDeleteSubtaskByIdFromLargeEpic() {
+        saveTasks();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Subtask subtask = new Subtask("Саб " + i, NEW, "Описание Саб " + i,
+                    LocalDateTime.of(2030, 1, 1, 10, 0).plusHours(i), 30, 8);
+            expected.add(manager.saveSubtask(subtask));
+        }
+
+        manager.deleteSubtaskById(expected.remove(0));
+        manager.deleteSubtaskById(expected.remove(5));
+        manager.deleteSubtaskById(expected.remove(expected.size() - 1));
+
+        List<Integer> actual = new ArrayList<>(manager.getEpicTaskByIdNumber(8).getSubtasks());
+        actual.sort(Integer::compareTo);
+        assertEquals(expected, actual);
+        assertEquals(9 * 30, manager.getEpicTaskByIdNumber(8).getDuration());
+        for (int id : expected) {
+            assertTrue(manager.getEpicTaskByIdNumber(8).getSubtasks().contains(id));
+        }
+    }
+
     @Test
     void testGetPrioritizedTasks() {
         saveTasks();
@@ -537,6 +620,483 @@ abstract class TaskManagerTest<T extends TaskManager> {
         assertTrue(manager.getSubtaskList().isEmpty());
     }
 
+    @Test
+    void testTasksIntersectionsInTime() {
+        saveTasks();
+        Task overlapsStart = new Task("Таск 3", NEW, "Описание Таск 3",
+                LocalDateTime.of(2000, 5, 5, 10, 25), 30);
+        Subtask overlapsEnd = new Subtask("Саб 3", NEW, "Описание Саб 3",
+                LocalDateTime.of(2010, 1, 11, 11, 0), 60, 3);
+
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(overlapsStart));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveSubtask(overlapsEnd));
+
+        manager.deleteTaskById(firstTask.getId());
+        manager.deleteSubtaskById(firstSubtask.getId());
+
+        assertEquals(9, manager.saveTask(overlapsStart));
+        assertEquals(10, manager.saveSubtask(overlapsEnd));
+    }
+
+    @Test
+    void testShiftWithinOwnSlot() {
+        LocalDateTime ten = LocalDateTime.of(2030, 1, 1, 10, 0);
+        Task task = new Task("Таск 3", NEW, "Описание Таск 3", ten, 60);
+        manager.saveTask(task);
+        int epicId = manager.saveEpic(new Epic("Эпик 3", NEW, "Описание Эпик 3", ten, 0));
+        Subtask subtask = new Subtask("Саб 3", NEW, "Описание Саб 3", ten.plusHours(2), 60, epicId);
+        manager.saveSubtask(subtask);
+        manager.saveTask(new Task("Таск 4", NEW, "Описание Таск 4", ten.plusHours(4), 60));
+
+        // новый интервал пересекается только с прежним интервалом самой задачи
+        Task shifted = new Task("Таск 3", NEW, "Описание Таск 3", ten.plusMinutes(15), 60, task.getId());
+        manager.updateTask(shifted);
+        Subtask shiftedSubtask = new Subtask(subtask.getId(), "Саб 3", NEW, "Описание Саб 3",
+                ten.plusHours(2).minusMinutes(15), 60, epicId);
+        manager.updateSubtask(shiftedSubtask);
+
+        assertEquals(ten.plusMinutes(15), manager.getTaskByIdNumber(task.getId()).getStartTime());
+        assertEquals(ten.plusMinutes(105), manager.getSubTaskByIdNumber(subtask.getId()).getStartTime());
+        assertEquals(3, manager.getPrioritizedTasks().size());
+        assertEquals(List.of(shifted), manager.getPrioritizedTasks(ten, ten.plusMinutes(90)));
+
+        // чужие интервалы по-прежнему мешают, а отклонённое обновление не теряет прежнее место задачи
+        Task intoSubtask = new Task("Таск 3", NEW, "Описание Таск 3", ten.plusMinutes(75), 60, task.getId());
+        assertThrows(ManagerIntersectionsException.class, () -> manager.updateTask(intoSubtask));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 5", NEW, "Описание Таск 5", ten.plusMinutes(30), 10)));
+        assertEquals(ten.plusMinutes(15), manager.getTaskByIdNumber(task.getId()).getStartTime());
+    }
+
+    @Test
+    void testUpdateTaskChangedInPlace() {
+        LocalDateTime one = LocalDateTime.of(2030, 1, 1, 1, 0);
+        List<Task> saved = new ArrayList<>();
+        for (int hour = 2; hour <= 8; hour++) {
+            Task task = new Task("Таск " + hour, NEW, "Описание", one.withHour(hour), 30);
+            manager.saveTask(task);
+            saved.add(task);
+        }
+        Task last = saved.get(6);
+        last.setStartTime(one); // тот же объект, что лежит на шкале
+        manager.updateTask(last);
+
+        List<Task> prioritized = new ArrayList<>(manager.getPrioritizedTasks());
+        assertEquals(7, prioritized.size());
+        assertSame(last, prioritized.get(0));
+        assertTrue(manager.getPrioritizedTasks().contains(last));
+        assertTrue(manager.getPrioritizedTasks(one.withHour(8), one.withHour(9)).isEmpty());
+
+        manager.deleteTaskById(last.getId());
+        assertEquals(saved.subList(0, 6), new ArrayList<>(manager.getPrioritizedTasks()));
+        assertFalse(manager.getPrioritizedTasks().contains(last));
+        manager.saveTask(new Task("На месте удалённой", NEW, "Описание", one.plusMinutes(10), 10));
+    }
+
+    @Test
+    void testSaveWithReusedIdChecksIntersections() {
+        LocalDateTime ten = LocalDateTime.of(2030, 1, 1, 10, 0);
+        Task task = new Task("Таск 3", NEW, "Описание Таск 3", ten, 60);
+        manager.saveTask(task);
+        int epicId = manager.saveEpic(new Epic("Эпик 3", NEW, "Описание Эпик 3", ten, 0));
+        Subtask subtask = new Subtask("Саб 3", NEW, "Описание Саб 3", ten.plusHours(2), 60, epicId);
+        manager.saveSubtask(subtask);
+
+        // id входящего объекта, как в выгрузке доски или в теле POST, не освобождает занятое время
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 4", NEW, "Описание Таск 4", ten.plusMinutes(30), 60, task.getId())));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveSubtask(new Subtask(subtask.getId(),
+                "Саб 4", NEW, "Описание Саб 4", ten.plusMinutes(150), 60, epicId)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveAll(List.of(
+                new Task("Таск 5", NEW, "Описание Таск 5", ten.plusMinutes(30), 60, task.getId()))));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveAll(List.of(new Subtask(subtask.getId(),
+                "Саб 5", NEW, "Описание Саб 5", ten.plusMinutes(150), 60, epicId))));
+
+        assertEquals(2, manager.getPrioritizedTasks().size());
+        assertEquals(List.of(task), manager.getPrioritizedTasks(ten, ten.plusHours(1)));
+    }
+
+    @Test
+    void testPrioritizedTasksWithSameStartTime() {
+        saveTasks();
+        Task sameStartTime = new Task("Таск 3", NEW, "Описание Таск 3", firstTask.getStartTime(), 0);
+        manager.saveTask(sameStartTime); // нулевая длительность: [start, start) ни с чем не пересекается
+
+        assertEquals(6, manager.getPrioritizedTasks().size());
+        assertTrue(manager.getPrioritizedTasks().contains(firstTask));
+        assertTrue(manager.getPrioritizedTasks().contains(sameStartTime));
+
+        Task rescheduled = new Task("Таск 3", NEW, "Описание Таск 3",
+                LocalDateTime.of(2030, 1, 1, 10, 0), 15, sameStartTime.getId());
+        manager.updateTask(rescheduled);
+
+        assertEquals(6, manager.getPrioritizedTasks().size());
+        assertFalse(manager.getPrioritizedTasks().contains(sameStartTime));
+        assertEquals(rescheduled, new ArrayList<>(manager.getPrioritizedTasks()).get(5));
+    }
+
+    @Test
+    void testIntersectionIsRealOverlap() {
+        LocalDateTime ten = LocalDateTime.of(2030, 1, 1, 10, 0);
+        manager.saveTask(new Task("Таск 3", NEW, "Описание Таск 3", ten, 60));
+
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 4", NEW, "Описание Таск 4", ten, 60))); // тот же интервал
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 4", NEW, "Описание Таск 4", ten.minusMinutes(30), 180))); // накрывает целиком
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 4", NEW, "Описание Таск 4", ten.plusMinutes(15), 30))); // лежит внутри
+        assertEquals(1, manager.getPrioritizedTasks().size());
+        assertEquals(ten.plusHours(1), manager.findFreeSlot(ten, 30));
+
+        manager.saveTask(new Task("Таск 4", NEW, "Описание Таск 4", ten.plusHours(1), 30)); // встык
+        manager.saveTask(new Task("Таск 5", NEW, "Описание Таск 5", ten.minusMinutes(30), 30));
+        assertEquals(3, manager.getPrioritizedTasks().size());
+    }
+
+    @Test
+    void testTimeKeysWithinOneMinuteAndAfterSetters() {
+        LocalDateTime minute = LocalDateTime.of(2030, 1, 1, 10, 0);
+        Task later = new Task("Таск 3", NEW, "Описание Таск 3", minute.plusSeconds(40), 5);
+        Task earlier = new Task("Таск 4", NEW, "Описание Таск 4", minute.plusSeconds(20), 0);
+        manager.saveTask(later);
+        manager.saveTask(earlier);
+        assertEquals(List.of(earlier, later), new ArrayList<>(manager.getPrioritizedTasks()));
+
+        Task moved = new Task("Таск 5", NEW, "Описание Таск 5", minute.plusSeconds(50), 10);
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(moved)); // начало внутри later
+        moved.setStartTime(later.getEndTime());
+        manager.saveTask(moved);
+        assertEquals(minute.plusMinutes(15).plusSeconds(40), moved.getEndTime());
+
+        Task rescheduled = new Task("Таск 5", NEW, "Описание Таск 5", minute.minusHours(1), 10, moved.getId());
+        assertEquals(minute.minusMinutes(50), rescheduled.getEndTime());
+        rescheduled.setDuration(30);
+        assertEquals(minute.minusMinutes(30), rescheduled.getEndTime());
+        manager.updateTask(rescheduled);
+        assertEquals(List.of(rescheduled, earlier, later), new ArrayList<>(manager.getPrioritizedTasks()));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(
+                new Task("Таск 6", NEW, "Описание Таск 6", minute.minusMinutes(45), 30)));
+    }
+
+    @Test
+    void testGetPrioritizedTasksInTimeRange() {
+        saveTasks();
+
+        List<Task> inRange = manager.getPrioritizedTasks(LocalDateTime.of(2000, 5, 5, 10, 25),
+                LocalDateTime.of(2010, 1, 11, 11, 41));
+        assertEquals(List.of(firstTask, secondTask, firstSubtask), inRange);
+
+        inRange = manager.getPrioritizedTasks(LocalDateTime.of(2000, 5, 5, 10, 30),
+                LocalDateTime.of(2010, 1, 11, 11, 40));
+        assertEquals(List.of(secondTask), inRange);
+
+        assertTrue(manager.getPrioritizedTasks(LocalDateTime.of(2001, 1, 1, 0, 0),
+                LocalDateTime.of(2002, 1, 1, 0, 0)).isEmpty());
+    }
+
+    @Test
+    void testGetPages() {
+        saveTasks();
+
+        assertEquals(List.of(firstTask), manager.getTasksPage(0, 1));
+        assertEquals(List.of(secondTask), manager.getTasksPage(firstTask.getId(), 1));
+        assertTrue(manager.getTasksPage(secondTask.getId(), 1).isEmpty());
+
+        assertEquals(List.of(firstEpic.getId(), secondEpic.getId()), ids(manager.getEpicsPage(0, 2)));
+        assertEquals(List.of(thirdEpic.getId()), ids(manager.getEpicsPage(secondEpic.getId(), 2)));
+
+        manager.deleteSubtaskById(secondSubtask.getId());
+        assertEquals(List.of(thirdSubtask), manager.getSubtasksPage(firstSubtask.getId(), 10));
+        assertEquals(2, manager.getSubtasksPage(0, 10).size());
+    }
+
+    @Test
+    void testGetByStatus() {
+        saveTasks();
+
+        assertEquals(2, manager.countByStatus(DONE, TaskType.SUBTASK));
+        assertEquals(Set.of(secondSubtask, thirdSubtask), new HashSet<>(manager.getByStatus(DONE, TaskType.SUBTASK)));
+        assertEquals(List.of(firstEpic.getId()), ids(manager.getByStatus(IN_PROGRESS, TaskType.EPIC)));
+        assertEquals(2, manager.countByStatus(NEW, TaskType.TASK));
+
+        manager.updateTask(new Task("Таск 1", IN_PROGRESS, "Описание Таск 1", firstTask.getStartTime(),
+                firstTask.getDuration(), firstTask.getId()));
+        manager.deleteSubtaskById(firstSubtask.getId());
+
+        assertEquals(1, manager.countByStatus(NEW, TaskType.TASK));
+        assertEquals(firstTask.getId(), manager.getByStatus(IN_PROGRESS, TaskType.TASK).get(0).getId());
+        assertEquals(Set.of(firstEpic.getId(), secondEpic.getId()),
+                new HashSet<>(ids(manager.getByStatus(DONE, TaskType.EPIC))));
+        assertEquals(0, manager.countByStatus(NEW, TaskType.SUBTASK));
+
+        manager.deleteEpics();
+        assertEquals(0, manager.countByStatus(DONE, TaskType.SUBTASK));
+        assertTrue(manager.getByStatus(DONE, TaskType.EPIC).isEmpty());
+    }
+
+    @Test
+    void testGetStats() {
+        saveTasks();
+        BoardStats stats = manager.getStats(LocalDateTime.of(2012, 1, 1, 0, 0));
+        assertEquals(2, stats.getCount(TaskType.TASK, NEW));
+        assertEquals(1, stats.getCount(TaskType.EPIC, IN_PROGRESS));
+        assertEquals(2, stats.getCount(TaskType.SUBTASK, DONE));
+        assertEquals(110, stats.getPlannedMinutes(NEW));
+        assertEquals(80, stats.getPlannedMinutes(DONE));
+        assertEquals(3, stats.getOverdue()); // оба таска и невыполненная подзадача 2010 года
+        assertEquals(66, stats.getSubtaskCompletionPercent());
+        assertEquals(33, stats.getEpicCompletionPercent()); // выполнен только второй эпик из трёх
+
+        assertEquals(1, manager.getStats(LocalDateTime.of(2000, 6, 10, 12, 15)).getOverdue()); // Таск 2 кончается ровно сейчас
+        assertEquals(2, manager.getStats(LocalDateTime.of(2000, 6, 10, 12, 15, 30)).getOverdue());
+
+        manager.updateTask(new Task("Таск 1", DONE, "Описание Таск 1", firstTask.getStartTime(),
+                firstTask.getDuration(), firstTask.getId()));
+        manager.deleteSubtaskById(firstSubtask.getId());
+        stats = manager.getStats(LocalDateTime.of(2012, 1, 1, 0, 0));
+        assertEquals(1, stats.getOverdue());
+        assertEquals(50, stats.getPlannedMinutes(NEW));
+        assertEquals(90, stats.getPlannedMinutes(DONE));
+        assertEquals(100, stats.getSubtaskCompletionPercent());
+        assertEquals(66, stats.getEpicCompletionPercent()); // у первого эпика осталась выполненная подзадача
+
+        manager.deleteEpicById(secondEpic.getId());
+        assertEquals(50, manager.getStats().getEpicCompletionPercent());
+
+        manager.deleteTasks();
+        assertEquals(0, manager.getStats().getOverdue());
+        assertEquals(0, manager.getStats().getPlannedMinutes(NEW));
+
+        LocalDateTime ten = LocalDateTime.of(2040, 1, 1, 10, 0);
+        manager.saveTask(new Task("Таск 3", NEW, "Описание Таск 3", ten.minusMinutes(60).plusSeconds(30), 60));
+        assertEquals(0, manager.getStats(ten.plusSeconds(1)).getOverdue()); // кончается в 10:00:30
+        assertEquals(0, manager.getStats(ten.plusSeconds(30)).getOverdue());
+        assertEquals(1, manager.getStats(ten.plusSeconds(31)).getOverdue());
+    }
+
+    @Test
+    void testSearch() {
+        saveTasks();
+        manager.saveTask(new Task("Отчёт за квартал", NEW, "Собрать цифры для отчёта",
+                LocalDateTime.of(2030, 1, 1, 10, 0), 30));
+        manager.saveTask(new Task("Квартальный план", NEW, "Отчёт руководству",
+                LocalDateTime.of(2030, 1, 2, 10, 0), 30));
+
+        assertEquals(List.of(9, 10), ids(manager.search("отчёт", 10)));
+        assertEquals(List.of(9), ids(manager.search("ОТЧЁТ квартал", 10)));
+        assertEquals(List.of(10, 9), ids(manager.search("квартал*", 10)));
+        assertEquals(List.of(10), ids(manager.search("квартал*", 1)));
+        assertEquals(List.of(firstEpic.getId()), ids(manager.search("эпик 1", 10)));
+        assertTrue(manager.search("отчёт несуществующее", 10).isEmpty());
+
+        manager.updateTask(new Task("План", NEW, "Без ключевых слов", LocalDateTime.of(2030, 1, 2, 10, 0), 30, 10));
+        manager.updateEpic(new Epic("Годовой отчёт", NEW, "Описание", firstEpic.getStartTime(), 0,
+                firstEpic.getId(), null));
+        manager.deleteTaskById(9);
+
+        assertEquals(List.of(firstEpic.getId()), ids(manager.search("отчёт", 10)));
+    }
+
+    private static List<Integer> ids(List<? extends Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void testDependencies() {
+        int epicId = manager.saveEpic(new Epic("План", NEW, "Описание", LocalDateTime.of(2030, 1, 1, 8, 0), 0));
+        int first = manager.saveSubtask(new Subtask("A", NEW, "A", LocalDateTime.of(2030, 1, 1, 10, 0), 60, epicId));
+        int second = manager.saveSubtask(new Subtask("B", NEW, "B", LocalDateTime.of(2030, 1, 1, 9, 0), 30, epicId));
+        int third = manager.saveSubtask(new Subtask("C", NEW, "C", LocalDateTime.of(2030, 1, 1, 11, 15), 30, epicId));
+        int fourth = manager.saveSubtask(new Subtask("D", NEW, "D", LocalDateTime.of(2030, 1, 1, 8, 0), 10, epicId));
+
+        assertTrue(manager.addDependency(first, second));
+        assertTrue(manager.addDependency(second, third));
+        assertTrue(manager.addDependency(fourth, third));
+        assertFalse(manager.addDependency(first, second));
+        assertThrows(ManagerCycleException.class, () -> manager.addDependency(third, first));
+        assertThrows(ManagerCycleException.class, () -> manager.addDependency(first, first));
+        assertThrows(IllegalArgumentException.class, () -> manager.addDependency(epicId, first));
+
+        assertEquals(LocalDateTime.of(2030, 1, 1, 11, 0), manager.getEarliestStart(second));
+        assertEquals(LocalDateTime.of(2030, 1, 1, 11, 30), manager.getEarliestStart(third));
+        EpicSchedule schedule = manager.getEpicSchedule(epicId);
+        assertEquals(List.of(first, second, third), schedule.getCriticalPath());
+        assertEquals(LocalDateTime.of(2030, 1, 1, 12, 0), schedule.getFinish());
+        assertEquals(0, schedule.getSlack().get(first));
+        assertEquals(200, schedule.getSlack().get(fourth));
+
+        manager.updateSubtask(new Subtask(first, "A", NEW, "A", LocalDateTime.of(2030, 1, 1, 10, 0), 75, epicId));
+        assertEquals(LocalDateTime.of(2030, 1, 1, 11, 15), manager.getEarliestStart(second));
+        assertEquals(LocalDateTime.of(2030, 1, 1, 11, 45), manager.getEarliestStart(third));
+
+        assertTrue(manager.removeDependency(first, second));
+        assertEquals(LocalDateTime.of(2030, 1, 1, 9, 0), manager.getEarliestStart(second));
+        manager.deleteSubtaskById(second);
+        assertEquals(List.of(fourth), manager.getDependencies(third));
+
+        int firstTaskId = manager.saveTask(new Task("T1", NEW, "T1", LocalDateTime.of(2030, 1, 2, 10, 0), 60));
+        int secondTaskId = manager.saveTask(new Task("T2", NEW, "T2", LocalDateTime.of(2030, 1, 2, 9, 0), 30));
+        manager.addDependency(firstTaskId, secondTaskId);
+        assertEquals(LocalDateTime.of(2030, 1, 2, 11, 0), manager.getEarliestStart(secondTaskId));
+        manager.deleteTaskById(firstTaskId);
+        assertEquals(LocalDateTime.of(2030, 1, 2, 9, 0), manager.getEarliestStart(secondTaskId));
+    }
+
+    @Test
+    void testRecurringTasks() {
+        Task standup = new Task("Планёрка", NEW, "Каждый день", LocalDateTime.of(2030, 1, 1, 9, 0), 30);
+        standup.setRecurrence(Recurrence.daily(null));
+        int standupId = manager.saveTask(standup);
+
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(new Task("Звонок", NEW, "Звонок",
+                LocalDateTime.of(2030, 1, 5, 9, 15), 30)));
+        int callId = manager.saveTask(new Task("Звонок", NEW, "Звонок", LocalDateTime.of(2030, 1, 5, 10, 0), 30));
+
+        Task review = new Task("Ревью", NEW, "Каждую неделю", LocalDateTime.of(2030, 1, 2, 9, 10), 60);
+        review.setRecurrence(Recurrence.weekly(LocalDateTime.of(2030, 3, 1, 0, 0)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(review));
+        review.setStartTime(LocalDateTime.of(2030, 1, 5, 10, 15));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveTask(review));
+        review.setStartTime(LocalDateTime.of(2030, 1, 2, 12, 0));
+        int reviewId = manager.saveTask(review);
+
+        List<Task> window = manager.getPrioritizedTasks(LocalDateTime.of(2030, 1, 4, 0, 0),
+                LocalDateTime.of(2030, 1, 10, 0, 0));
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : window) {
+            ids.add(task.getId());
+        }
+        assertEquals(List.of(standupId, standupId, callId, standupId, standupId, standupId, standupId, reviewId), ids);
+        assertEquals(LocalDateTime.of(2030, 1, 9, 12, 0), window.get(7).getStartTime());
+        assertEquals(LocalDateTime.of(2030, 1, 7, 9, 30), manager.findFreeSlot(LocalDateTime.of(2030, 1, 7, 8, 45), 30));
+
+        Subtask recurringSubtask = new Subtask("Сабтаск", NEW, "Сабтаск", LocalDateTime.of(2030, 2, 1, 8, 0), 30, 0);
+        recurringSubtask.setRecurrence(Recurrence.daily(null));
+        assertThrows(IllegalArgumentException.class, () -> manager.saveSubtask(recurringSubtask));
+
+        manager.deleteTaskById(standupId);
+        manager.saveTask(new Task("Звонок", NEW, "Звонок", LocalDateTime.of(2030, 1, 6, 9, 15), 30));
+    }
+
+    @Test
+    void testCompareAndSetUpdate() {
+        saveTasks();
+        assertEquals(1, manager.getTaskByIdNumber(1).getVersion());
+
+        Task renamed = new Task("Новое имя", NEW, "Описание Таск 1", firstTask.getStartTime(), 10, 1);
+        assertEquals(2, manager.updateTask(renamed, 1));
+        Task stale = new Task("Старое имя", NEW, "Описание Таск 1", firstTask.getStartTime(), 10, 1);
+        ManagerVersionConflictException conflict = assertThrows(ManagerVersionConflictException.class,
+                () -> manager.updateTask(stale, 1));
+        assertEquals(2, conflict.getCurrentVersion());
+        assertEquals("Новое имя", manager.getTaskByIdNumber(1).getName());
+        manager.updateTask(stale);
+        assertEquals(3, manager.getTaskByIdNumber(1).getVersion());
+        assertEquals(-1, manager.updateTask(new Task("Нет", NEW, "Нет", null, 0, 100), 1));
+
+        Epic epic = new Epic("Эпик", NEW, "Описание", firstEpic.getStartTime(), 0, 3, null);
+        assertEquals(2, manager.updateEpic(epic, 1));
+        assertThrows(ManagerVersionConflictException.class, () -> manager.updateEpic(epic, 1));
+        assertEquals(2, manager.getEpicTaskByIdNumber(3).getVersion());
+
+        Subtask subtask = new Subtask(5, "Сабтаск", DONE, "Описание", firstSubtask.getStartTime(), 50, 3);
+        assertEquals(2, manager.updateSubtask(subtask, TaskManager.ANY_VERSION));
+        assertThrows(ManagerVersionConflictException.class, () -> manager.updateSubtask(subtask, 1));
+        assertEquals(3, manager.updateSubtask(subtask, 2));
+    }
+
+    @Test
+    void testStaleUpdateConflictsBeforeIntersections() {
+        saveTasks();
+        manager.updateTask(new Task("Таск 1", NEW, "Описание Таск 1", firstTask.getStartTime(), 10, 1), 1);
+
+        // устаревшая версия с наложением на соседнюю задачу: конфликт версий важнее наложения
+        Task staleOverlap = new Task("Таск 1", NEW, "Описание Таск 1", secondTask.getStartTime(), 10, 1);
+        assertThrows(ManagerVersionConflictException.class, () -> manager.updateTask(staleOverlap, 1));
+        Subtask staleSubtask = new Subtask(5, "Сабтаск", DONE, "Описание", secondTask.getStartTime(), 50, 3);
+        manager.updateSubtask(new Subtask(5, "Сабтаск", DONE, "Описание", firstSubtask.getStartTime(), 50, 3));
+        assertThrows(ManagerVersionConflictException.class, () -> manager.updateSubtask(staleSubtask, 1));
+        assertEquals(firstTask.getStartTime(), manager.getTaskByIdNumber(1).getStartTime());
+    }
+
+    @Test
+    void testSaveAll() {
+        saveTasks();
+        Epic epic = new Epic("Эпик 4", NEW, "Описание Эпик 4", LocalDateTime.of(2030, 1, 1, 10, 0),
+                0, 100, null);
+        Subtask firstInBatch = new Subtask("Саб 4", DONE, "Описание Саб 4",
+                LocalDateTime.of(2030, 1, 1, 10, 0), 30, 100);
+        Subtask secondInBatch = new Subtask("Саб 5", NEW, "Описание Саб 5",
+                LocalDateTime.of(2030, 1, 1, 10, 30), 30, 100);
+        Subtask toSavedEpic = new Subtask("Саб 6", NEW, "Описание Саб 6",
+                LocalDateTime.of(2030, 1, 1, 11, 0), 15, thirdEpic.getId());
+        Task task = new Task("Таск 3", NEW, "Описание Таск 3", LocalDateTime.of(2030, 1, 2, 10, 0), 10);
+
+        List<Integer> ids = manager.saveAll(List.of(epic, firstInBatch, secondInBatch, toSavedEpic, task));
+
+        assertEquals(List.of(9, 10, 11, 12, 13), ids);
+        assertEquals(epic.getId(), firstInBatch.getEpicID());
+        assertEquals(List.of(10, 11), manager.getEpicTaskByIdNumber(9).getSubtasks());
+        assertEquals(IN_PROGRESS, manager.getEpicTaskByIdNumber(9).getStatus());
+        assertEquals(60, manager.getEpicTaskByIdNumber(9).getDuration());
+        assertEquals(List.of(12), manager.getEpicTaskByIdNumber(thirdEpic.getId()).getSubtasks());
+        assertEquals(task, manager.getTaskByIdNumber(13));
+        assertEquals(9, manager.getPrioritizedTasks().size());
+    }
+
+    @Test
+    void testSaveAllRejectsIntersections() {
+        saveTasks();
+        Task first = new Task("Таск 3", NEW, "Описание Таск 3", LocalDateTime.of(2030, 1, 1, 10, 0), 30);
+        Task overlapsFirst = new Task("Таск 4", NEW, "Описание Таск 4", LocalDateTime.of(2030, 1, 1, 10, 15), 30);
+        Task overlapsSaved = new Task("Таск 5", NEW, "Описание Таск 5", LocalDateTime.of(2000, 5, 5, 10, 25), 30);
+
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveAll(List.of(first, overlapsFirst)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveAll(List.of(first, overlapsSaved)));
+        assertThrows(ManagerIntersectionsException.class, () -> manager.saveAll(List.of(first,
+                new Task("Таск 6", NEW, "Описание Таск 6", first.getStartTime(), first.getDuration()))));
+        assertEquals(2, manager.getTasksList().size());
+
+        Subtask orphan = new Subtask(57, "Саб 4", NEW, "Описание Саб 4", null, 0, 999);
+        assertThrows(IllegalArgumentException.class, () -> manager.saveAll(List.of(first, orphan)));
+        assertEquals(2, manager.getTasksList().size());
+        assertEquals(3, manager.getSubtaskList().size());
+
+        assertEquals(List.of(9), manager.saveAll(List.of(first)));
+    }
+
+    @Test
+    void testSaveEmptyBatch() {
+        saveTasks();
+        assertEquals(List.of(), manager.saveAll(List.of()));
+        assertEquals(2, manager.getTasksList().size());
+        assertEquals(9, manager.saveTask(new Task("Таск", NEW, "Описание",
+                LocalDateTime.of(2040, 1, 1, 10, 0), 10))); // id не израсходованы
+    }
+
+    @Test
+    void testFindFreeSlot() {
+        saveTasks();
+        LocalDateTime after = LocalDateTime.of(2000, 5, 5, 10, 0);
+
+        assertEquals(after, manager.findFreeSlot(after, 20));
+        assertEquals(LocalDateTime.of(2000, 5, 5, 10, 30), manager.findFreeSlot(after, 30));
+
+        manager.saveTask(new Task("Таск 3", NEW, "Описание Таск 3", LocalDateTime.of(2000, 5, 5, 10, 30), 20));
+        assertEquals(LocalDateTime.of(2000, 5, 5, 10, 50), manager.findFreeSlot(after, 30));
+
+        List<LocalDateTime> slots = manager.findFreeSlots(LocalDateTime.of(2000, 6, 10, 10, 0), 60,
+                LocalDateTime.of(2000, 6, 10, 14, 0), 5);
+        assertEquals(List.of(LocalDateTime.of(2000, 6, 10, 10, 0), LocalDateTime.of(2000, 6, 10, 12, 15)), slots);
+        assertEquals(1, manager.findFreeSlots(LocalDateTime.of(2000, 6, 10, 10, 0), 60,
+                LocalDateTime.of(2000, 6, 10, 14, 0), 1).size());
+    }
+
     @Test
     void testGetHistory() {
         saveTasks();
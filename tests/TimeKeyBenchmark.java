@@ -0,0 +1,117 @@
+import entity.Task;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static entity.TaskStatus.NEW;
+
+// Запуск: java -Xmx2g TimeKeyBenchmark [количество задач] [повторы]
+// Сравнивает сортировку по интервалу и проход с проверкой наложений: на LocalDateTime с окончанием через
+// plusMinutes на каждый вызов (как было) против минут от эпохи из кэша Task. Печатает время и байты,
+// выделенные потоком за замер. Первые повторы - прогрев JIT, в итог идёт лучший из остальных.
+public class TimeKeyBenchmark {
+
+    private static final int DEFAULT_TASKS_COUNT = 1_000_000;
+    private static final int DEFAULT_ROUNDS = 5;
+
+    private static final Comparator<Task> BY_LOCAL_DATE_TIME = Comparator.comparing(Task::getStartTime)
+            .thenComparing(task -> task.getStartTime().plusMinutes(task.getDuration()));
+
+    private static final Comparator<Task> BY_MINUTES = (task1, task2) -> {
+        int byStart = compareTimes(task1.getStartMinute(), task1.getStartTime(),
+                task2.getStartMinute(), task2.getStartTime());
+        return byStart != 0 ? byStart : compareTimes(task1.getEndMinute(), task1.getEndTime(),
+                task2.getEndMinute(), task2.getEndTime());
+    };
+
+    private static long blackhole; // результат проходов, чтобы JIT их не выбросил
+
+    public static void main(String[] args) {
+        int tasksCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TASKS_COUNT;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        Task[] tasks = createTasks(tasksCount);
+
+        System.out.println("Задач: " + tasksCount);
+        report("Сортировка, LocalDateTime", rounds, () -> Arrays.copyOf(tasks, tasks.length),
+                copy -> Arrays.sort(copy, BY_LOCAL_DATE_TIME));
+        report("Сортировка, минуты", rounds, () -> Arrays.copyOf(tasks, tasks.length),
+                copy -> Arrays.sort(copy, BY_MINUTES));
+        Task[] sorted = Arrays.copyOf(tasks, tasks.length);
+        Arrays.sort(sorted, BY_MINUTES);
+        report("Наложения, LocalDateTime", rounds, () -> sorted, TimeKeyBenchmark::countOverlapsLocalDateTime);
+        report("Наложения, минуты", rounds, () -> sorted, TimeKeyBenchmark::countOverlapsMinutes);
+    }
+
+    private static Task[] createTasks(int tasksCount) {
+        Random random = new Random(42);
+        LocalDateTime origin = LocalDateTime.of(2024, 1, 1, 0, 0);
+        Task[] tasks = new Task[tasksCount];
+        for (int i = 0; i < tasksCount; i++) {
+            LocalDateTime startTime = origin.plusMinutes(random.nextInt(tasksCount * 10));
+            tasks[i] = new Task("Таск", NEW, "Описание", startTime, 1 + random.nextInt(30), i + 1);
+        }
+        return tasks;
+    }
+
+    private static void countOverlapsLocalDateTime(Task[] sorted) {
+        long overlaps = 0;
+        LocalDateTime latestEnd = null;
+        for (Task task : sorted) {
+            LocalDateTime end = task.getStartTime().plusMinutes(task.getDuration());
+            if (latestEnd != null && task.getStartTime().isBefore(latestEnd)) {
+                overlaps++;
+            }
+            if (latestEnd == null || end.isAfter(latestEnd)) {
+                latestEnd = end;
+            }
+        }
+        blackhole += overlaps;
+    }
+
+    private static void countOverlapsMinutes(Task[] sorted) {
+        long overlaps = 0;
+        Task latestEnding = null;
+        for (Task task : sorted) {
+            if (latestEnding != null && compareTimes(task.getStartMinute(), task.getStartTime(),
+                    latestEnding.getEndMinute(), latestEnding.getEndTime()) < 0) {
+                overlaps++;
+            }
+            if (latestEnding == null || compareTimes(task.getEndMinute(), task.getEndTime(),
+                    latestEnding.getEndMinute(), latestEnding.getEndTime()) > 0) {
+                latestEnding = task;
+            }
+        }
+        blackhole += overlaps;
+    }
+
+    // то же сравнение, что и в TaskIntervalTree.compareTimes (он не виден из тестов)
+    private static int compareTimes(long minute1, LocalDateTime time1, long minute2, LocalDateTime time2) {
+        return minute1 != minute2 ? Long.compare(minute1, minute2) : time1.compareTo(time2);
+    }
+
+    private static void report(String name, int rounds, Supplier<Task[]> input, Consumer<Task[]> body) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            Task[] tasks = input.get();
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long started = System.nanoTime();
+            body.accept(tasks);
+            long nanos = System.nanoTime() - started;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+            if (round > 0 || rounds == 1) {
+                bestNanos = Math.min(bestNanos, nanos);
+                bestBytes = Math.min(bestBytes, bytes);
+            }
+        }
+        System.out.printf("%-26s %,8d мс %,14d байт%n", name, bestNanos / 1_000_000, bestBytes);
+    }
+}